@@ -0,0 +1,83 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import io.cdap.google.common.NLPMethod;
+import io.cdap.google.common.ResponseJsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares printing a response as json with {@link JsonFormat}, as the directives used to do, with
+ * {@link ResponseJsonWriter}. One operation prints one response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonRenderingBenchmark {
+
+  @Param({"ANALYZE_ENTITIES", "ANALYZE_SENTIMENT", "ANALYZE_SYNTAX", "ANOTATE_TEXT"})
+  private NLPMethod method;
+
+  @Param({"50", "5000"})
+  private int tokens;
+
+  private MessageOrBuilder response;
+
+  @Setup
+  public void setUp() {
+    response = new SyntheticResponses(tokens).get(method);
+  }
+
+  @Benchmark
+  public String jsonFormat() throws InvalidProtocolBufferException {
+    // a new printer per response, the way NLPMethodExecutor printed responses before
+    return JsonFormat.printer().print(response);
+  }
+
+  @Benchmark
+  public String jsonFormatCompact() throws InvalidProtocolBufferException {
+    return JsonFormat.printer().omittingInsignificantWhitespace().print(response);
+  }
+
+  @Benchmark
+  public String writerPretty() {
+    return ResponseJsonWriter.PRETTY.toJson(response);
+  }
+
+  @Benchmark
+  public String writerCompact() {
+    return ResponseJsonWriter.COMPACT.toJson(response);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.protobuf.MessageOrBuilder;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.google.common.NLPMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a Language API response into the record a transform emits, for every transform and
+ * for documents of different sizes. One operation converts one response into one record, so with
+ * {@code -prof gc} the normalized allocation rate is the number of bytes allocated per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseConversionBenchmark {
+
+  @Param({"ANALYZE_ENTITIES", "ANALYZE_ENTITY_SENTIMENT", "ANALYZE_SENTIMENT", "ANALYZE_SYNTAX", "ANOTATE_TEXT",
+    "CLASSIFY_CONTENT"})
+  private NLPMethod method;
+
+  // number of tokens in the document, 5000 tokens is roughly a 30kB text
+  @Param({"50", "500", "5000"})
+  private int tokens;
+
+  private NLPTransform transform;
+  private MessageOrBuilder response;
+
+  @Setup
+  public void setUp() {
+    transform = createTransform(method);
+    response = new SyntheticResponses(tokens).get(method);
+  }
+
+  @Benchmark
+  public StructuredRecord convert() {
+    return transform.getRecordFromResponse(response);
+  }
+
+  private static NLPTransform createTransform(NLPMethod method) {
+    String errorHandling = ErrorHandling.STOP.getValue();
+    NLPConfig config = new NLPConfig("body", null, null, errorHandling, null);
+    switch (method) {
+      case ANALYZE_ENTITIES:
+        return new AnalyzeEntitiesTransform(config);
+      case ANALYZE_ENTITY_SENTIMENT:
+        return new AnalyzeEntitySentimentTransform(config);
+      case ANALYZE_SENTIMENT:
+        return new AnalyzeSentimentTransform(config);
+      case ANALYZE_SYNTAX:
+        return new AnalyzeSyntaxTransform(config);
+      case ANOTATE_TEXT:
+        return new AnotateTextTransform(new AnotateTextConfig("body", null, null, errorHandling, null, null));
+      case CLASSIFY_CONTENT:
+        return new ClassifyContentTransform(config);
+      default:
+        throw new IllegalArgumentException("Unsupported method " + method);
+    }
+  }
+}
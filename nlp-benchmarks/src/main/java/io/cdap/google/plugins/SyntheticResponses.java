@@ -0,0 +1,179 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.MessageOrBuilder;
+import io.cdap.google.common.NLPMethod;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds responses shaped like the ones Natural Language API returns for an English document with the given
+ * number of tokens: a sentence per 20 tokens, an entity per 10 tokens with two mentions each, and every
+ * morphological field of every token set.
+ */
+final class SyntheticResponses {
+  private static final int TOKENS_PER_SENTENCE = 20;
+  private static final int TOKENS_PER_ENTITY = 10;
+  private static final String[] WORDS = {
+    "Google", "headquartered", "in", "Mountain", "View", "unveiled", "the", "new", "Android", "phone", "at",
+    "Consumer", "Electronic", "Show", "Sundar", "Pichai", "said", "his", "keynote", "users"
+  };
+
+  private final Random random = new Random(0);
+  private final List<Token> tokens = new ArrayList<>();
+  private final List<Sentence> sentences = new ArrayList<>();
+  private final List<Entity> entities = new ArrayList<>();
+  private final List<ClassificationCategory> categories = new ArrayList<>();
+  private final Sentiment documentSentiment;
+
+  SyntheticResponses(int tokenCount) {
+    int offset = 0;
+    StringBuilder sentence = new StringBuilder();
+    int sentenceOffset = 0;
+    for (int i = 0; i < tokenCount; i++) {
+      String word = WORDS[i % WORDS.length];
+      tokens.add(token(word, offset, i - i % TOKENS_PER_SENTENCE));
+      sentence.append(word).append(' ');
+      offset += word.length() + 1;
+      if ((i + 1) % TOKENS_PER_SENTENCE == 0 || i == tokenCount - 1) {
+        sentences.add(Sentence.newBuilder()
+                        .setText(span(sentence.toString().trim(), sentenceOffset))
+                        .setSentiment(sentiment())
+                        .build());
+        sentence.setLength(0);
+        sentenceOffset = offset;
+      }
+    }
+
+    for (int i = 0; i < Math.max(1, tokenCount / TOKENS_PER_ENTITY); i++) {
+      String name = WORDS[i % WORDS.length];
+      entities.add(Entity.newBuilder()
+                     .setName(name)
+                     .setType(Entity.Type.forNumber(1 + i % 7))
+                     .putMetadata("mid", "/m/0" + i)
+                     .putMetadata("wikipedia_url", "https://en.wikipedia.org/wiki/" + name)
+                     .setSalience(random.nextFloat())
+                     .addMentions(mention(name, i * TOKENS_PER_ENTITY))
+                     .addMentions(mention(name, i * TOKENS_PER_ENTITY + 5))
+                     .setSentiment(sentiment())
+                     .build());
+    }
+
+    categories.add(category("/Computers & Electronics/Consumer Electronics"));
+    categories.add(category("/Internet & Telecom/Mobile & Wireless"));
+    categories.add(category("/Business & Industrial"));
+    documentSentiment = sentiment();
+  }
+
+  /**
+   * @return the response of the given method
+   */
+  MessageOrBuilder get(NLPMethod method) {
+    switch (method) {
+      case ANALYZE_ENTITIES:
+        return AnalyzeEntitiesResponse.newBuilder().addAllEntities(entities).setLanguage("en").build();
+      case ANALYZE_ENTITY_SENTIMENT:
+        return AnalyzeEntitySentimentResponse.newBuilder().addAllEntities(entities).setLanguage("en").build();
+      case ANALYZE_SENTIMENT:
+        return AnalyzeSentimentResponse.newBuilder()
+          .setDocumentSentiment(documentSentiment)
+          .addAllSentences(sentences)
+          .setLanguage("en")
+          .build();
+      case ANALYZE_SYNTAX:
+        return AnalyzeSyntaxResponse.newBuilder()
+          .addAllSentences(sentences)
+          .addAllTokens(tokens)
+          .setLanguage("en")
+          .build();
+      case ANOTATE_TEXT:
+        return AnnotateTextResponse.newBuilder()
+          .addAllSentences(sentences)
+          .addAllTokens(tokens)
+          .addAllEntities(entities)
+          .setDocumentSentiment(documentSentiment)
+          .addAllCategories(categories)
+          .setLanguage("en")
+          .build();
+      case CLASSIFY_CONTENT:
+        return ClassifyTextResponse.newBuilder().addAllCategories(categories).build();
+      default:
+        throw new IllegalArgumentException("Unsupported method " + method);
+    }
+  }
+
+  private Token token(String word, int offset, int headTokenIndex) {
+    return Token.newBuilder()
+      .setText(span(word, offset))
+      .setPartOfSpeech(PartOfSpeech.newBuilder()
+                         .setTag(PartOfSpeech.Tag.forNumber(1 + random.nextInt(13)))
+                         .setAspect(PartOfSpeech.Aspect.PERFECTIVE)
+                         .setCase(PartOfSpeech.Case.NOMINATIVE)
+                         .setForm(PartOfSpeech.Form.FINAL_ENDING)
+                         .setGender(PartOfSpeech.Gender.NEUTER)
+                         .setMood(PartOfSpeech.Mood.INDICATIVE)
+                         .setNumber(PartOfSpeech.Number.SINGULAR)
+                         .setPerson(PartOfSpeech.Person.THIRD)
+                         .setProper(PartOfSpeech.Proper.PROPER)
+                         .setReciprocity(PartOfSpeech.Reciprocity.RECIPROCITY_UNKNOWN)
+                         .setTense(PartOfSpeech.Tense.PAST)
+                         .setVoice(PartOfSpeech.Voice.ACTIVE))
+      .setDependencyEdge(DependencyEdge.newBuilder()
+                           .setHeadTokenIndex(headTokenIndex)
+                           .setLabel(DependencyEdge.Label.forNumber(1 + random.nextInt(40))))
+      .setLemma(word.toLowerCase())
+      .build();
+  }
+
+  private EntityMention mention(String name, int offset) {
+    return EntityMention.newBuilder()
+      .setText(span(name, offset))
+      .setType(EntityMention.Type.PROPER)
+      .setSentiment(sentiment())
+      .build();
+  }
+
+  private ClassificationCategory category(String name) {
+    return ClassificationCategory.newBuilder().setName(name).setConfidence(random.nextFloat()).build();
+  }
+
+  private Sentiment sentiment() {
+    return Sentiment.newBuilder().setScore(random.nextFloat() * 2 - 1).setMagnitude(random.nextFloat() * 2).build();
+  }
+
+  private static TextSpan span(String content, int offset) {
+    return TextSpan.newBuilder().setContent(content).setBeginOffset(offset).build();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.Token;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.google.common.NLPMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of tokens into the records nested in the output of the syntax transforms. One operation
+ * converts one token, so with {@code -prof gc} the normalized allocation rate is the number of bytes allocated per
+ * token record, independent of the size of the document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenConversionBenchmark {
+  private static final int TOKENS = 1000;
+
+  private RecordConverter<Token> converter;
+  private List<Token> tokens;
+
+  @Setup
+  public void setUp() {
+    converter = ResponseConverters.tokens(NLPTransform.TOKEN);
+    tokens = ((AnalyzeSyntaxResponse) new SyntheticResponses(TOKENS).get(NLPMethod.ANALYZE_SYNTAX)).getTokensList();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TOKENS)
+  public List<StructuredRecord> convert() {
+    return converter.convertAll(tokens);
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Limits the rate and the concurrency of requests sent over a language client.
+ *
+ * The rate is enforced by a token bucket holding at most one second worth of requests. Both limits are adjusted
+ * with additive increase / multiplicative decrease: they are halved when the API reports that the quota is
+ * exhausted or the service is unavailable, and grow back while requests succeed. Until the first such error the
+ * limits grow exponentially, so that the limiter quickly finds the available quota.
+ *
+ * The limiter never blocks. When a request may not be sent yet, {@link #tryAcquire()} returns how long to wait
+ * before asking again, so that callers can reschedule the request instead of holding a thread.
+ *
+ * A single limiter is shared by all users of a pooled client, see {@link LanguageClientPool}.
+ */
+public final class AdaptiveRateLimiter {
+  // the default Language API quota is 600 requests per minute
+  private static final double INITIAL_RATE = 10;
+  private static final double MIN_RATE = 0.1;
+  private static final double INITIAL_CONCURRENCY = 16;
+  private static final double MAX_CONCURRENCY = 1024;
+  private static final double DECREASE_FACTOR = 0.5;
+  // errors for requests which were sent before the last decrease do not decrease the limits again
+  private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // a concurrency slot is freed when a response arrives, which can not be predicted
+  private static final long CONCURRENCY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  private double maxRate = Double.POSITIVE_INFINITY;
+  private double rate = INITIAL_RATE;
+  private double tokens = 1;
+  private long lastRefillNanos = System.nanoTime();
+  private double concurrencyLimit = INITIAL_CONCURRENCY;
+  private int inFlight;
+  private boolean slowStart = true;
+  private long lastDecreaseNanos = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+  private long throttledCount;
+
+  /**
+   * Lowers the maximum rate the limiter may grow to. When several stages with different limits share a client,
+   * the lowest limit applies.
+   *
+   * @param requestsPerSecond maximum number of requests per second
+   */
+  public synchronized void limitRate(double requestsPerSecond) {
+    if (requestsPerSecond <= 0) {
+      throw new IllegalArgumentException(
+        String.format("Maximum rate must be positive, but was %s", requestsPerSecond));
+    }
+    maxRate = Math.min(maxRate, requestsPerSecond);
+    rate = Math.min(rate, maxRate);
+  }
+
+  /**
+   * Takes a permit to send a request, if one is available. Every successful call must be followed by a call to
+   * {@link #release}.
+   *
+   * @return 0 if the permit was taken, otherwise the number of nanoseconds to wait before trying again
+   */
+  public synchronized long tryAcquire() {
+    refill();
+    if (inFlight >= (int) concurrencyLimit) {
+      return CONCURRENCY_WAIT_NANOS;
+    }
+    if (tokens < 1) {
+      return Math.max(1, (long) Math.ceil((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)));
+    }
+    tokens -= 1;
+    inFlight++;
+    return 0;
+  }
+
+  /**
+   * Reports the outcome of a request and frees its concurrency slot.
+   *
+   * @param failure the error the request failed with, or null if it succeeded
+   */
+  public synchronized void release(@Nullable Throwable failure) {
+    if (failure == null) {
+      increase();
+    } else if (isThrottling(failure)) {
+      decrease();
+    }
+    inFlight--;
+  }
+
+  /**
+   * @return number of requests per second currently allowed
+   */
+  public synchronized double getRate() {
+    return rate;
+  }
+
+  /**
+   * @return number of requests currently allowed to be in flight at the same time
+   */
+  public synchronized int getConcurrencyLimit() {
+    return (int) concurrencyLimit;
+  }
+
+  /**
+   * @return number of requests which failed because of an exhausted quota or an unavailable service
+   */
+  public synchronized long getThrottledCount() {
+    return throttledCount;
+  }
+
+  /**
+   * @return whether the error signals that requests should be sent at a lower rate
+   */
+  public static boolean isThrottling(Throwable failure) {
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t instanceof ApiException) {
+        StatusCode.Code code = ((ApiException) t).getStatusCode().getCode();
+        return code == StatusCode.Code.RESOURCE_EXHAUSTED || code == StatusCode.Code.UNAVAILABLE;
+      }
+    }
+    return false;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    tokens = Math.min(Math.max(1, rate), tokens + elapsedSeconds * rate);
+    lastRefillNanos = now;
+  }
+
+  /**
+   * Grows the limits, but only those which are actually holding requests back. Otherwise a lightly used
+   * client would accumulate limits far above what the quota allows.
+   */
+  private void increase() {
+    refill();
+    if (tokens < 1) {
+      // about one request per second per second, doubling every second during slow start
+      rate = Math.min(maxRate, rate + (slowStart ? 1 : 1 / rate));
+    }
+    if (inFlight >= (int) concurrencyLimit) {
+      concurrencyLimit = Math.min(MAX_CONCURRENCY, concurrencyLimit + (slowStart ? 1 : 1 / concurrencyLimit));
+    }
+  }
+
+  private void decrease() {
+    throttledCount++;
+    long now = System.nanoTime();
+    if (now - lastDecreaseNanos < DECREASE_INTERVAL_NANOS) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    slowStart = false;
+    rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+    concurrencyLimit = Math.max(1, concurrencyLimit * DECREASE_FACTOR);
+    // drop the accumulated burst, so that the lower rate applies right away
+    refill();
+    tokens = Math.min(tokens, 0);
+  }
+}
@@ -16,28 +16,38 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
 
 /**
  * Detects known entities like public figures or landmarks from a given text.
  */
 public class AnalyzeEntities extends NLPMethodExecutor {
-  public AnalyzeEntities(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public AnalyzeEntities(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    AnalyzeEntitiesRequest request = AnalyzeEntitiesRequest.newBuilder()
+  public NLPMethod getMethod() {
+    return NLPMethod.ANALYZE_ENTITIES;
+  }
+
+  @Override
+  protected ApiFuture<AnalyzeEntitiesResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                   Document document, ApiCallContext context) {
+    return language.analyzeEntitiesCallable().futureCall(createRequest(document), context);
+  }
+
+  private AnalyzeEntitiesRequest createRequest(Document document) {
+    return AnalyzeEntitiesRequest.newBuilder()
       .setDocument(document)
       .setEncodingType(encoding)
       .build();
-
-    return language.analyzeEntities(request);
   }
 }
 
@@ -16,11 +16,13 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.AnalyzeEntitySentimentRequest;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
 
 /**
  * Sentiment analysis will provide the prevailing emotional opinion within a provided text. The API returns two values:
@@ -30,18 +32,26 @@ import com.google.protobuf.MessageOrBuilder;
  */
 public class AnalyzeEntitySentiment extends NLPMethodExecutor {
 
-  public AnalyzeEntitySentiment(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public AnalyzeEntitySentiment(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    AnalyzeEntitySentimentRequest request = AnalyzeEntitySentimentRequest.newBuilder()
+  public NLPMethod getMethod() {
+    return NLPMethod.ANALYZE_ENTITY_SENTIMENT;
+  }
+
+  @Override
+  protected ApiFuture<AnalyzeEntitySentimentResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                          Document document, ApiCallContext context) {
+    return language.analyzeEntitySentimentCallable().futureCall(createRequest(document), context);
+  }
+
+  private AnalyzeEntitySentimentRequest createRequest(Document document) {
+    return AnalyzeEntitySentimentRequest.newBuilder()
       .setDocument(document)
       .setEncodingType(encoding)
       .build();
-
-    return language.analyzeEntitySentiment(request);
   }
 }
 
@@ -16,11 +16,13 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
 
 /**
  * Provides the prevailing emotional opinion within a provided text. The API returns two values: The score describes
@@ -30,18 +32,26 @@ import com.google.protobuf.MessageOrBuilder;
  */
 public class AnalyzeSentiment extends NLPMethodExecutor {
 
-  public AnalyzeSentiment(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public AnalyzeSentiment(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    AnalyzeSentimentRequest request = AnalyzeSentimentRequest.newBuilder()
+  public NLPMethod getMethod() {
+    return NLPMethod.ANALYZE_SENTIMENT;
+  }
+
+  @Override
+  protected ApiFuture<AnalyzeSentimentResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                    Document document, ApiCallContext context) {
+    return language.analyzeSentimentCallable().futureCall(createRequest(document), context);
+  }
+
+  private AnalyzeSentimentRequest createRequest(Document document) {
+    return AnalyzeSentimentRequest.newBuilder()
       .setDocument(document)
       .setEncodingType(encoding)
       .build();
-
-    return language.analyzeSentiment(request);
   }
 }
 
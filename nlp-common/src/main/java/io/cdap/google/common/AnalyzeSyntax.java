@@ -16,11 +16,13 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.AnalyzeSyntaxRequest;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
 
 /**
  * For a given text, Google’s syntax analysis will return a breakdown of all words with a rich set of
@@ -28,18 +30,26 @@ import com.google.protobuf.MessageOrBuilder;
  */
 public class AnalyzeSyntax extends NLPMethodExecutor {
 
-  public AnalyzeSyntax(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public AnalyzeSyntax(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    AnalyzeSyntaxRequest request = AnalyzeSyntaxRequest.newBuilder()
+  public NLPMethod getMethod() {
+    return NLPMethod.ANALYZE_SYNTAX;
+  }
+
+  @Override
+  protected ApiFuture<AnalyzeSyntaxResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                 Document document, ApiCallContext context) {
+    return language.analyzeSyntaxCallable().futureCall(createRequest(document), context);
+  }
+
+  private AnalyzeSyntaxRequest createRequest(Document document) {
+    return AnalyzeSyntaxRequest.newBuilder()
       .setDocument(document)
       .setEncodingType(encoding)
       .build();
-
-    return language.analyzeSyntax(request);
   }
 }
 
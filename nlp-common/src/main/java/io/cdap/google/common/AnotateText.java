@@ -16,11 +16,17 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.AnnotateTextRequest;
+import com.google.cloud.language.v1.AnnotateTextResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * A directive that provides all the features that
@@ -28,28 +34,58 @@ import com.google.protobuf.MessageOrBuilder;
  * nlp-analyze-syntax, nlp-classify-text provide in one call.
  */
 public class AnotateText extends NLPMethodExecutor {
+  private AnnotateTextRequest.Features features =
+    AnotateTextFeature.toRequestFeatures(EnumSet.allOf(AnotateTextFeature.class));
+  private String featuresVariant = variantOf(EnumSet.allOf(AnotateTextFeature.class));
+  private int billedFeatures = AnotateTextFeature.values().length;
 
-  public AnotateText(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public AnotateText(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
+  /**
+   * Sets the features requested from the API, all features are requested by default. Responses only contain the
+   * parts for the requested features, which makes them smaller and cheaper.
+   */
+  public void setFeatures(Set<AnotateTextFeature> features) {
+    if (features.isEmpty()) {
+      throw new IllegalArgumentException("At least one feature must be requested");
+    }
+    this.features = AnotateTextFeature.toRequestFeatures(features);
+    this.featuresVariant = variantOf(features);
+    this.billedFeatures = features.size();
+  }
+
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    AnnotateTextRequest.Features features = AnnotateTextRequest.Features.newBuilder()
-      .setClassifyText(true)
-      .setExtractDocumentSentiment(true)
-      .setExtractEntities(true)
-      .setExtractEntitySentiment(true)
-      .setExtractSyntax(true)
-      .build();
+  public NLPMethod getMethod() {
+    return NLPMethod.ANOTATE_TEXT;
+  }
+
+  @Override
+  protected ApiFuture<AnnotateTextResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                Document document, ApiCallContext context) {
+    return language.annotateTextCallable().futureCall(createRequest(document), context);
+  }
 
-    AnnotateTextRequest request = AnnotateTextRequest.newBuilder()
+  @Override
+  protected String getRequestVariant() {
+    return featuresVariant;
+  }
+
+  @Override
+  protected int getBilledFeatures() {
+    return billedFeatures;
+  }
+
+  private AnnotateTextRequest createRequest(Document document) {
+    return AnnotateTextRequest.newBuilder()
       .setDocument(document)
       .setFeatures(features)
       .setEncodingType(encoding)
       .build();
+  }
 
-    return language.annotateText(request);
+  private static String variantOf(Set<AnotateTextFeature> features) {
+    return EnumSet.copyOf(features).stream().map(AnotateTextFeature::getValue).collect(Collectors.joining(","));
   }
 }
-
@@ -0,0 +1,88 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnnotateTextRequest;
+
+import java.util.EnumSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A feature {@link AnotateText} can request. Each one maps to a flag of {@link AnnotateTextRequest.Features}.
+ */
+public enum AnotateTextFeature {
+  SYNTAX("syntax"),
+  ENTITIES("entities"),
+  DOCUMENT_SENTIMENT("documentSentiment"),
+  ENTITY_SENTIMENT("entitySentiment"),
+  CLASSIFY("classify");
+
+  private final String value;
+
+  AnotateTextFeature(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Parses a comma separated list of feature values.
+   *
+   * @param features list of features, if null or empty all features are returned
+   * @throws IllegalArgumentException if a feature is not known
+   */
+  public static Set<AnotateTextFeature> parse(@Nullable String features) {
+    if (features == null || features.trim().isEmpty()) {
+      return EnumSet.allOf(AnotateTextFeature.class);
+    }
+    Set<AnotateTextFeature> result = EnumSet.noneOf(AnotateTextFeature.class);
+    for (String value : features.split(",")) {
+      result.add(fromValue(value.trim()));
+    }
+    return result;
+  }
+
+  public static AnotateTextFeature fromValue(String value) {
+    for (AnotateTextFeature feature : values()) {
+      if (feature.value.equalsIgnoreCase(value)) {
+        return feature;
+      }
+    }
+    StringBuilder supported = new StringBuilder();
+    for (AnotateTextFeature feature : values()) {
+      supported.append(supported.length() == 0 ? "" : ", ").append(feature.value);
+    }
+    throw new IllegalArgumentException(String.format("Unknown feature '%s', supported features are %s",
+                                                     value, supported));
+  }
+
+  /**
+   * @return features flags of a request which asks for exactly the given features
+   */
+  public static AnnotateTextRequest.Features toRequestFeatures(Set<AnotateTextFeature> features) {
+    return AnnotateTextRequest.Features.newBuilder()
+      .setExtractSyntax(features.contains(SYNTAX))
+      .setExtractEntities(features.contains(ENTITIES))
+      .setExtractDocumentSentiment(features.contains(DOCUMENT_SENTIMENT))
+      .setExtractEntitySentiment(features.contains(ENTITY_SENTIMENT))
+      .setClassifyText(features.contains(CLASSIFY))
+      .build();
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the responses to the chunks of a document, see {@link DocumentChunker}, into the response to the whole
+ * document:
+ * <ul>
+ *   <li>offsets of sentences, tokens and mentions are shifted by the offset of their chunk, and the head token
+ *   indexes of tokens by the number of tokens in the chunks before theirs;</li>
+ *   <li>entities with the same name and type are merged into one, with the mentions and metadata of all of them,
+ *   a salience weighted by the length of the chunks and a combined sentiment;</li>
+ *   <li>the document sentiment is combined from the chunk sentiments, scores are averaged weighted by the length
+ *   of the chunks and magnitudes, which grow with the length of the text, are added up;</li>
+ *   <li>categories keep the highest confidence any chunk has for them.</li>
+ * </ul>
+ */
+final class ChunkedResponses {
+  private final List<Sentence> sentences = new ArrayList<>();
+  private final List<Token> tokens = new ArrayList<>();
+  private final Map<String, MergedEntity> entities = new LinkedHashMap<>();
+  private final Map<String, Float> categories = new LinkedHashMap<>();
+  private final double documentLength;
+  private MergedSentiment documentSentiment;
+  private String language = "";
+
+  private ChunkedResponses(List<DocumentChunker.Chunk> chunks) {
+    this.documentLength = chunks.stream().mapToInt(chunk -> chunk.getText().length()).sum();
+  }
+
+  /**
+   * @param responses responses of the given method to the chunks, in the same order as the chunks
+   */
+  static MessageOrBuilder merge(NLPMethod method, List<DocumentChunker.Chunk> chunks,
+                                List<? extends MessageOrBuilder> responses) {
+    ChunkedResponses merged = new ChunkedResponses(chunks);
+    for (int i = 0; i < chunks.size(); i++) {
+      merged.add(chunks.get(i), responses.get(i));
+    }
+    switch (method) {
+      case ANALYZE_ENTITIES:
+        return AnalyzeEntitiesResponse.newBuilder()
+          .addAllEntities(merged.getEntities())
+          .setLanguage(merged.language)
+          .build();
+      case ANALYZE_ENTITY_SENTIMENT:
+        return AnalyzeEntitySentimentResponse.newBuilder()
+          .addAllEntities(merged.getEntities())
+          .setLanguage(merged.language)
+          .build();
+      case ANALYZE_SENTIMENT:
+        return AnalyzeSentimentResponse.newBuilder()
+          .setDocumentSentiment(merged.getDocumentSentiment())
+          .addAllSentences(merged.sentences)
+          .setLanguage(merged.language)
+          .build();
+      case ANALYZE_SYNTAX:
+        return AnalyzeSyntaxResponse.newBuilder()
+          .addAllSentences(merged.sentences)
+          .addAllTokens(merged.tokens)
+          .setLanguage(merged.language)
+          .build();
+      case ANOTATE_TEXT:
+        AnnotateTextResponse.Builder annotations = AnnotateTextResponse.newBuilder()
+          .addAllSentences(merged.sentences)
+          .addAllTokens(merged.tokens)
+          .addAllEntities(merged.getEntities())
+          .addAllCategories(merged.getCategories())
+          .setLanguage(merged.language);
+        if (merged.documentSentiment != null) {
+          annotations.setDocumentSentiment(merged.getDocumentSentiment());
+        }
+        return annotations.build();
+      case CLASSIFY_CONTENT:
+        return ClassifyTextResponse.newBuilder().addAllCategories(merged.getCategories()).build();
+      default:
+        throw new IllegalArgumentException("Unsupported method " + method);
+    }
+  }
+
+  private void add(DocumentChunker.Chunk chunk, MessageOrBuilder response) {
+    int offset = chunk.getOffset();
+    double weight = documentLength == 0 ? 1 : chunk.getText().length() / documentLength;
+    if (response instanceof AnalyzeEntitiesResponse) {
+      AnalyzeEntitiesResponse entitiesResponse = (AnalyzeEntitiesResponse) response;
+      addEntities(entitiesResponse.getEntitiesList(), offset, weight);
+      addLanguage(entitiesResponse.getLanguage());
+    } else if (response instanceof AnalyzeEntitySentimentResponse) {
+      AnalyzeEntitySentimentResponse entitiesResponse = (AnalyzeEntitySentimentResponse) response;
+      addEntities(entitiesResponse.getEntitiesList(), offset, weight);
+      addLanguage(entitiesResponse.getLanguage());
+    } else if (response instanceof AnalyzeSentimentResponse) {
+      AnalyzeSentimentResponse sentimentResponse = (AnalyzeSentimentResponse) response;
+      addDocumentSentiment(sentimentResponse.getDocumentSentiment(), weight);
+      addSentences(sentimentResponse.getSentencesList(), offset);
+      addLanguage(sentimentResponse.getLanguage());
+    } else if (response instanceof AnalyzeSyntaxResponse) {
+      AnalyzeSyntaxResponse syntaxResponse = (AnalyzeSyntaxResponse) response;
+      addSentences(syntaxResponse.getSentencesList(), offset);
+      addTokens(syntaxResponse.getTokensList(), offset);
+      addLanguage(syntaxResponse.getLanguage());
+    } else if (response instanceof AnnotateTextResponse) {
+      AnnotateTextResponse annotateResponse = (AnnotateTextResponse) response;
+      addSentences(annotateResponse.getSentencesList(), offset);
+      addTokens(annotateResponse.getTokensList(), offset);
+      addEntities(annotateResponse.getEntitiesList(), offset, weight);
+      if (annotateResponse.hasDocumentSentiment()) {
+        addDocumentSentiment(annotateResponse.getDocumentSentiment(), weight);
+      }
+      addCategories(annotateResponse.getCategoriesList());
+      addLanguage(annotateResponse.getLanguage());
+    } else if (response instanceof ClassifyTextResponse) {
+      addCategories(((ClassifyTextResponse) response).getCategoriesList());
+    } else {
+      throw new IllegalArgumentException("Unsupported response " + response.getClass().getName());
+    }
+  }
+
+  private void addSentences(List<Sentence> chunkSentences, int offset) {
+    for (Sentence sentence : chunkSentences) {
+      sentences.add(offset == 0 ? sentence : sentence.toBuilder().setText(shift(sentence.getText(), offset)).build());
+    }
+  }
+
+  private void addTokens(List<Token> chunkTokens, int offset) {
+    int firstIndex = tokens.size();
+    for (Token token : chunkTokens) {
+      if (offset == 0 && firstIndex == 0) {
+        tokens.add(token);
+        continue;
+      }
+      Token.Builder builder = token.toBuilder().setText(shift(token.getText(), offset));
+      builder.getDependencyEdgeBuilder().setHeadTokenIndex(token.getDependencyEdge().getHeadTokenIndex() + firstIndex);
+      tokens.add(builder.build());
+    }
+  }
+
+  private void addEntities(List<Entity> chunkEntities, int offset, double weight) {
+    for (Entity entity : chunkEntities) {
+      String key = entity.getTypeValue() + ":" + entity.getName();
+      entities.computeIfAbsent(key, k -> new MergedEntity(entity)).add(entity, offset, weight);
+    }
+  }
+
+  private void addDocumentSentiment(Sentiment sentiment, double weight) {
+    if (documentSentiment == null) {
+      documentSentiment = new MergedSentiment();
+    }
+    documentSentiment.add(sentiment, weight);
+  }
+
+  private void addCategories(List<ClassificationCategory> chunkCategories) {
+    for (ClassificationCategory category : chunkCategories) {
+      categories.merge(category.getName(), category.getConfidence(), Math::max);
+    }
+  }
+
+  private void addLanguage(String chunkLanguage) {
+    if (language.isEmpty()) {
+      language = chunkLanguage;
+    }
+  }
+
+  private Sentiment getDocumentSentiment() {
+    return documentSentiment == null ? Sentiment.getDefaultInstance() : documentSentiment.build();
+  }
+
+  /**
+   * @return merged entities, the most salient first like in a response of the API
+   */
+  private List<Entity> getEntities() {
+    List<Entity> result = new ArrayList<>(entities.size());
+    for (MergedEntity entity : entities.values()) {
+      result.add(entity.build());
+    }
+    result.sort(Comparator.comparing(Entity::getSalience).reversed());
+    return result;
+  }
+
+  private List<ClassificationCategory> getCategories() {
+    List<ClassificationCategory> result = new ArrayList<>(categories.size());
+    for (Map.Entry<String, Float> category : categories.entrySet()) {
+      result.add(ClassificationCategory.newBuilder().setName(category.getKey()).setConfidence(category.getValue())
+                   .build());
+    }
+    result.sort(Comparator.comparing(ClassificationCategory::getConfidence).reversed());
+    return result;
+  }
+
+  private static TextSpan shift(TextSpan span, int offset) {
+    // offsets are -1 when the request has no encoding type
+    if (offset == 0 || span.getBeginOffset() < 0) {
+      return span;
+    }
+    return span.toBuilder().setBeginOffset(span.getBeginOffset() + offset).build();
+  }
+
+  /**
+   * An entity found in several chunks.
+   */
+  private static final class MergedEntity {
+    private final Entity.Builder builder;
+    private double salience;
+    private MergedSentiment sentiment;
+
+    MergedEntity(Entity first) {
+      this.builder = first.toBuilder().clearMentions().clearSalience().clearSentiment();
+    }
+
+    void add(Entity entity, int offset, double weight) {
+      builder.putAllMetadata(entity.getMetadataMap());
+      for (EntityMention mention : entity.getMentionsList()) {
+        builder.addMentions(offset == 0 ? mention
+                              : mention.toBuilder().setText(shift(mention.getText(), offset)).build());
+      }
+      salience += entity.getSalience() * weight;
+      if (entity.hasSentiment()) {
+        if (sentiment == null) {
+          sentiment = new MergedSentiment();
+        }
+        sentiment.add(entity.getSentiment(), weight);
+      }
+    }
+
+    Entity build() {
+      builder.setSalience((float) salience);
+      if (sentiment != null) {
+        builder.setSentiment(sentiment.build());
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * A sentiment combined from the sentiments of several chunks.
+   */
+  private static final class MergedSentiment {
+    private double weightedScore;
+    private double weight;
+    private double magnitude;
+
+    void add(Sentiment sentiment, double chunkWeight) {
+      weightedScore += sentiment.getScore() * chunkWeight;
+      weight += chunkWeight;
+      magnitude += sentiment.getMagnitude();
+    }
+
+    Sentiment build() {
+      return Sentiment.newBuilder()
+        .setScore(weight == 0 ? 0 : (float) (weightedScore / weight))
+        .setMagnitude((float) magnitude)
+        .build();
+    }
+  }
+}
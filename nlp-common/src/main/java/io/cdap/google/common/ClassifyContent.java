@@ -16,28 +16,38 @@
 
 package io.cdap.google.common;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiCallContext;
 import com.google.cloud.language.v1.ClassifyTextRequest;
+import com.google.cloud.language.v1.ClassifyTextResponse;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.protobuf.MessageOrBuilder;
 
 /**
  * Classifies the input documents into a large set of categories. The categories are structured hierarchically.
  */
 public class ClassifyContent extends NLPMethodExecutor {
 
-  public ClassifyContent(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public ClassifyContent(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     super(languageCode, encoding, language);
   }
 
   @Override
-  public MessageOrBuilder executeRequest(LanguageServiceClient language, Document document) {
-    ClassifyTextRequest request = ClassifyTextRequest.newBuilder()
+  public NLPMethod getMethod() {
+    return NLPMethod.CLASSIFY_CONTENT;
+  }
+
+  @Override
+  protected ApiFuture<ClassifyTextResponse> executeRequestAsync(LanguageServiceClient language,
+                                                                Document document, ApiCallContext context) {
+    return language.classifyTextCallable().futureCall(createRequest(document), context);
+  }
+
+  private ClassifyTextRequest createRequest(Document document) {
+    return ClassifyTextRequest.newBuilder()
       .setDocument(document)
       .build();
-
-    return language.classifyText(request);
   }
 }
 
@@ -0,0 +1,765 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * A persistent cache of serialized Language API responses, which survives across pipeline runs.
+ *
+ * Responses are appended to fixed size, memory-mapped segment files. Each record consists of a header
+ * (magic, value length, CRC32 of the value), the 32 byte {@link RequestKey} digest and the serialized response.
+ * A compact open addressing index keeps 16 bytes per entry in memory: the first 8 bytes of the digest and the
+ * location of the record. The full key is compared against the mapped record, so lookups never copy the
+ * stored bytes.
+ *
+ * Once the cache grows over its maximum size, the oldest segment is compacted: records which were read since
+ * they were last written are moved to the newest segment, all others are dropped together with the segment file.
+ *
+ * Only one JVM can use a directory at a time. Since several executors usually run on the same host, the cache
+ * is sharded: every JVM takes the first sub directory of the cache directory which is not locked by another JVM.
+ * The maximum size applies to the segment files of all the shards together. Whenever a JVM starts a new segment,
+ * segments of shards no JVM has open are removed first, and the JVMs which have the cache open share the maximum
+ * size evenly. A JVM does not cache new responses while the others still hold more than their share.
+ */
+public final class DiskResponseCache implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(DiskResponseCache.class);
+
+  private static final int MAGIC = 0x4e4c5052;
+  private static final int HEADER_SIZE = 12 + RequestKey.SIZE;
+  private static final int MAX_SHARDS = 64;
+  private static final String SHARD_PREFIX = "shard-";
+  private static final String LOCK_FILE = "lock";
+  private static final long MIN_SEGMENT_SIZE = 1L << 20;
+  private static final long MAX_SEGMENT_SIZE = 64L << 20;
+  private static final int SEGMENTS_PER_CACHE = 8;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+  private static final long REFERENCED = 1L << 63;
+  private static final float MAX_LOAD_FACTOR = 0.5f;
+
+  private static final Map<Path, DiskResponseCache> OPEN_CACHES = new HashMap<>();
+
+  private final Path root;
+  private final Path directory;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+  private final Thread shutdownHook = new Thread(this::release, "nlp-disk-cache-shutdown");
+  // segments by id, the lowest id is the oldest segment
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private long maxBytes;
+  // size of the segments created next, existing segments keep the size they were created with
+  private int segmentSize;
+  // total size of the segment files of this shard
+  private long totalBytes;
+  private Segment head;
+  private int nextSegmentId;
+  private boolean closed;
+  // number of callers of open which have not closed the cache yet, guarded by OPEN_CACHES
+  private int references;
+
+  // the index: first 8 bytes of the digest (0 marks an empty slot) and the record location
+  private long[] hashes;
+  private long[] locations;
+  private int indexSize;
+
+  private DiskResponseCache(Path root, Path directory, FileChannel lockChannel, FileLock lock,
+                            long maxBytes) throws IOException {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException(String.format("Maximum size of the disk cache must be positive, but was %d",
+                                                       maxBytes));
+    }
+    this.root = root;
+    this.directory = directory;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+    this.maxBytes = maxBytes;
+    this.segmentSize = segmentSize(maxBytes);
+    this.hashes = new long[1024];
+    this.locations = new long[1024];
+    recover();
+  }
+
+  /**
+   * Opens the cache in the given directory, or returns the already open one. Opened caches are reference counted,
+   * every call must be matched by a call to {@link #close()}. The cache stays open until the last of its users
+   * closes it or the JVM exits. An open cache is as large as the largest maximum size any of its users asked for.
+   *
+   * @param directory directory to keep segment files in, it is created if it does not exist
+   * @param maxBytes maximum total size of the segment files in the directory
+   */
+  public static DiskResponseCache open(Path directory, long maxBytes) throws IOException {
+    Path key = directory.toAbsolutePath().normalize();
+    synchronized (OPEN_CACHES) {
+      DiskResponseCache cache = OPEN_CACHES.get(key);
+      if (cache == null) {
+        cache = openShard(key, maxBytes);
+        OPEN_CACHES.put(key, cache);
+        Runtime.getRuntime().addShutdownHook(cache.shutdownHook);
+      } else {
+        cache.ensureMaxBytes(maxBytes);
+      }
+      cache.references++;
+      return cache;
+    }
+  }
+
+  private static DiskResponseCache openShard(Path directory, long maxBytes) throws IOException {
+    for (int shard = 0; shard < MAX_SHARDS; shard++) {
+      Path shardDirectory = directory.resolve(SHARD_PREFIX + shard);
+      Files.createDirectories(shardDirectory);
+      FileChannel channel = FileChannel.open(shardDirectory.resolve(LOCK_FILE),
+                                             StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock lock = tryLock(channel);
+      if (lock != null) {
+        try {
+          return new DiskResponseCache(directory, shardDirectory, channel, lock, maxBytes);
+        } catch (IOException | RuntimeException e) {
+          lock.release();
+          channel.close();
+          throw e;
+        }
+      }
+      channel.close();
+    }
+    throw new IOException(String.format("All %d shards of response cache directory '%s' are in use",
+                                        MAX_SHARDS, directory));
+  }
+
+  /**
+   * Returns a read-only view of the serialized response stored for the given key. The buffer points directly into
+   * the mapped segment file, no bytes are copied.
+   */
+  @Nullable
+  public ByteBuffer getBytes(RequestKey key) {
+    rwLock.readLock().lock();
+    try {
+      int slot = closed ? -1 : find(key.digest());
+      if (slot < 0) {
+        misses.incrementAndGet();
+        return null;
+      }
+      // a benign race with other readers, the flag is only a hint for compaction
+      locations[slot] |= REFERENCED;
+      hits.incrementAndGet();
+
+      long location = locations[slot];
+      Segment segment = segments.get(segmentId(location));
+      int offset = offset(location);
+      int length = segment.buffer.getInt(offset + 4);
+      return slice(segment.buffer, offset + HEADER_SIZE, length).asReadOnlyBuffer();
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the response stored for the given key, parsed straight from the mapped segment file.
+   */
+  @Nullable
+  public <T extends Message> T get(RequestKey key, Parser<T> parser) {
+    ByteBuffer bytes = getBytes(key);
+    if (bytes == null) {
+      return null;
+    }
+    try {
+      return parser.parseFrom(bytes);
+    } catch (InvalidProtocolBufferException e) {
+      LOG.warn("Ignoring corrupted response in disk cache '{}'", directory, e);
+      return null;
+    }
+  }
+
+  /**
+   * Appends the response to the cache, unless a response with the same key is already stored. Responses larger
+   * than a segment are not cached.
+   */
+  public void put(RequestKey key, Message response) {
+    byte[] value = response.toByteArray();
+    if (HEADER_SIZE + value.length > MAX_SEGMENT_SIZE) {
+      return;
+    }
+
+    rwLock.writeLock().lock();
+    try {
+      if (closed || find(key.digest()) >= 0 || !ensureRoom(HEADER_SIZE + value.length)) {
+        return;
+      }
+      append(key.digest(), value, 0, value.length);
+    } catch (IOException e) {
+      LOG.warn("Failed to write response to disk cache '{}'", directory, e);
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of responses dropped to keep the cache within its maximum size
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return maximum total size of the segment files in the cache directory
+   */
+  public long getMaxBytes() {
+    rwLock.readLock().lock();
+    try {
+      return maxBytes;
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return total size of the segment files of the shard this JVM uses
+   */
+  public long getSizeBytes() {
+    rwLock.readLock().lock();
+    try {
+      return totalBytes;
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return number of responses currently stored
+   */
+  public int size() {
+    rwLock.readLock().lock();
+    try {
+      return indexSize;
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Releases a reference taken by {@link #open}. The last user to close the cache flushes the segments to disk,
+   * releases the directory and unregisters the shutdown hook, so that the closed cache does not keep the classloader
+   * which opened it until the JVM exits. Closing a cache which is no longer open has no effect.
+   */
+  @Override
+  public void close() {
+    synchronized (OPEN_CACHES) {
+      if (references == 0 || --references > 0) {
+        return;
+      }
+      OPEN_CACHES.remove(root, this);
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // the JVM is shutting down, the hook releases the cache itself
+    }
+    release();
+  }
+
+  private void release() {
+    rwLock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (Segment segment : segments.values()) {
+        segment.buffer.force();
+        segment.channel.close();
+      }
+      segments.clear();
+      totalBytes = 0;
+      head = null;
+      if (lock.isValid()) {
+        lock.release();
+      }
+      lockChannel.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close disk cache '{}'", directory, e);
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  private void ensureMaxBytes(long maxBytes) {
+    rwLock.writeLock().lock();
+    try {
+      if (maxBytes > this.maxBytes) {
+        LOG.info("Increasing maximum size of disk cache '{}' from {} to {} bytes", root, this.maxBytes, maxBytes);
+        this.maxBytes = maxBytes;
+      }
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Opens existing segments and rebuilds the index from them. A segment is read up to the first record which
+   * is incomplete or does not match its checksum, which is where the writer stopped last time. Segments keep the
+   * size they were created with, so they survive a change of the maximum size.
+   */
+  private void recover() throws IOException {
+    for (int id : segmentIds(directory)) {
+      long size = Files.size(segmentPath(id));
+      if (size < HEADER_SIZE || size > MAX_SEGMENT_SIZE) {
+        // too short to hold a record, or not written by this class
+        Files.delete(segmentPath(id));
+        continue;
+      }
+      Segment segment = openSegment(id, (int) size);
+      int position = 0;
+      while (position + HEADER_SIZE <= segment.size && segment.buffer.getInt(position) == MAGIC) {
+        int length = segment.buffer.getInt(position + 4);
+        if (length < 0 || position + HEADER_SIZE + length > segment.size ||
+          crc(segment.buffer, position + HEADER_SIZE, length) != segment.buffer.getInt(position + 8)) {
+          break;
+        }
+        byte[] digest = new byte[RequestKey.SIZE];
+        slice(segment.buffer, position + 12, RequestKey.SIZE).get(digest);
+        int slot = find(digest);
+        if (slot >= 0) {
+          locations[slot] = location(id, position);
+        } else {
+          insert(digest, location(id, position));
+        }
+        position += HEADER_SIZE + length;
+      }
+      segment.writePosition = position;
+      head = segment;
+      nextSegmentId = id + 1;
+    }
+  }
+
+  /**
+   * Makes sure the head segment has room for a record of the given size, starting a new segment if needed.
+   *
+   * @return false if there is no room in the cache directory
+   */
+  private boolean ensureRoom(int recordSize) throws IOException {
+    if (head != null && head.writePosition + recordSize <= head.size) {
+      return true;
+    }
+    if (!makeRoomForSegment(recordSize)) {
+      return false;
+    }
+    // compaction may have started a segment for the records it kept
+    if (head == null || head.writePosition + recordSize > head.size) {
+      head = openSegment(nextSegmentId++, Math.max(segmentSize, recordSize));
+    }
+    return true;
+  }
+
+  /**
+   * Makes room for a new segment, keeping the segment files of all the shards in the cache directory within the
+   * maximum size. Segments of shards which no JVM has open are removed first, then this shard is compacted down
+   * to its share of the maximum size.
+   *
+   * @return false if there is still no room, because other JVMs hold more than their share
+   */
+  private boolean makeRoomForSegment(int recordSize) throws IOException {
+    List<Path> idleShards = new ArrayList<>();
+    long otherBytes = 0;
+    int shardsInUse = 1;
+    for (Path shard : otherShards()) {
+      try (FileChannel channel = FileChannel.open(shard.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                                                  StandardOpenOption.WRITE)) {
+        FileLock shardLock = tryLock(channel);
+        if (shardLock == null) {
+          shardsInUse++;
+        } else {
+          shardLock.release();
+          idleShards.add(shard);
+        }
+      }
+      otherBytes += segmentBytes(shard);
+    }
+
+    long share = maxBytes / shardsInUse;
+    segmentSize = segmentSize(share);
+    long newSegmentBytes = Math.max(segmentSize, recordSize);
+    while (!segments.isEmpty() && totalBytes + newSegmentBytes > share) {
+      compactOldest();
+    }
+
+    long excess = totalBytes + otherBytes + newSegmentBytes - maxBytes;
+    for (Path shard : idleShards) {
+      if (excess <= 0) {
+        break;
+      }
+      excess -= removeSegments(shard, excess);
+    }
+    return excess <= 0;
+  }
+
+  /**
+   * Removes the oldest segments of a shard which no JVM has open.
+   *
+   * @return number of bytes removed, which is at least the given number unless the shard had fewer
+   */
+  private long removeSegments(Path shard, long bytes) throws IOException {
+    long removed = 0;
+    try (FileChannel channel = FileChannel.open(shard.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE)) {
+      FileLock shardLock = tryLock(channel);
+      if (shardLock == null) {
+        // opened by a JVM in the meantime
+        return 0;
+      }
+      try {
+        for (int id : segmentIds(shard)) {
+          if (removed >= bytes) {
+            break;
+          }
+          Path path = shard.resolve(segmentFileName(id));
+          long size = Files.size(path);
+          Files.delete(path);
+          removed += size;
+          LOG.debug("Removed segment '{}' of unused disk cache shard", path);
+        }
+      } finally {
+        shardLock.release();
+      }
+    }
+    return removed;
+  }
+
+  private List<Path> otherShards() throws IOException {
+    List<Path> shards = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, SHARD_PREFIX + "*")) {
+      for (Path shard : stream) {
+        if (!shard.equals(directory) && Files.isDirectory(shard)) {
+          shards.add(shard);
+        }
+      }
+    }
+    return shards;
+  }
+
+  private static long segmentBytes(Path shard) throws IOException {
+    long bytes = 0;
+    for (int id : segmentIds(shard)) {
+      try {
+        bytes += Files.size(shard.resolve(segmentFileName(id)));
+      } catch (NoSuchFileException e) {
+        // removed by the JVM which uses the shard
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * @return ids of the segments in the given shard directory, oldest first
+   */
+  private static List<Integer> segmentIds(Path shard) throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(shard, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        try {
+          ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          LOG.debug("Ignoring unexpected file '{}' in disk cache '{}'", path, shard);
+        }
+      }
+    }
+    ids.sort(Integer::compare);
+    return ids;
+  }
+
+  @Nullable
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // locked by this JVM
+      return null;
+    }
+  }
+
+  private static int segmentSize(long maxBytes) {
+    return (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxBytes / SEGMENTS_PER_CACHE));
+  }
+
+  /**
+   * Removes the oldest segment. Records in it which were read since they were written are appended again,
+   * with their read flag cleared, so that frequently used responses are not lost.
+   */
+  private void compactOldest() throws IOException {
+    // the segment stays registered until its records are removed from the index, which reads their keys
+    Segment oldest = segments.firstEntry().getValue();
+
+    List<byte[]> retained = new ArrayList<>();
+    int position = 0;
+    while (position < oldest.writePosition) {
+      int length = oldest.buffer.getInt(position + 4);
+      byte[] digest = new byte[RequestKey.SIZE];
+      slice(oldest.buffer, position + 12, RequestKey.SIZE).get(digest);
+      int slot = find(digest);
+      if (slot >= 0 && (locations[slot] & ~REFERENCED) == location(oldest.id, position)) {
+        if ((locations[slot] & REFERENCED) != 0) {
+          byte[] record = new byte[RequestKey.SIZE + length];
+          slice(oldest.buffer, position + 12, RequestKey.SIZE + length).get(record);
+          retained.add(record);
+        } else {
+          evictions.incrementAndGet();
+        }
+        remove(slot);
+      }
+      position += HEADER_SIZE + length;
+    }
+
+    segments.remove(oldest.id);
+    totalBytes -= oldest.size;
+    if (oldest == head) {
+      head = null;
+    }
+    oldest.channel.close();
+    Files.deleteIfExists(oldest.path);
+
+    for (byte[] record : retained) {
+      int valueLength = record.length - RequestKey.SIZE;
+      if (head == null || head.writePosition + HEADER_SIZE + valueLength > head.size) {
+        head = openSegment(nextSegmentId++, Math.max(segmentSize, HEADER_SIZE + valueLength));
+      }
+      byte[] digest = new byte[RequestKey.SIZE];
+      System.arraycopy(record, 0, digest, 0, RequestKey.SIZE);
+      append(digest, record, RequestKey.SIZE, valueLength);
+    }
+  }
+
+  /**
+   * Writes a record at the end of the head segment. The magic number is written last, so that a record which was
+   * only partially written is never recovered.
+   */
+  private void append(byte[] digest, byte[] value, int valueOffset, int valueLength) {
+    int position = head.writePosition;
+    ByteBuffer buffer = head.buffer.duplicate();
+    buffer.position(position + 12);
+    buffer.put(digest);
+    buffer.put(value, valueOffset, valueLength);
+
+    head.buffer.putInt(position + 4, valueLength);
+    head.buffer.putInt(position + 8, crc(head.buffer, position + HEADER_SIZE, valueLength));
+    head.buffer.putInt(position, MAGIC);
+    head.writePosition = position + HEADER_SIZE + valueLength;
+
+    insert(digest, location(head.id, position));
+  }
+
+  private Segment openSegment(int id, int size) throws IOException {
+    Path path = segmentPath(id);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    Segment segment = new Segment(id, path, channel, buffer);
+    segments.put(id, segment);
+    totalBytes += size;
+    return segment;
+  }
+
+  private Path segmentPath(int id) {
+    return directory.resolve(segmentFileName(id));
+  }
+
+  private static String segmentFileName(int id) {
+    return String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+  }
+
+  /**
+   * @return slot of the given key in the index, or -1 if it is not there
+   */
+  private int find(byte[] digest) {
+    long hash = hash(digest);
+    int mask = hashes.length - 1;
+    for (int slot = idealSlot(hash, mask); hashes[slot] != 0; slot = (slot + 1) & mask) {
+      if (hashes[slot] == hash && keyEquals(locations[slot], digest)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private void insert(byte[] digest, long location) {
+    if (indexSize + 1 > hashes.length * MAX_LOAD_FACTOR) {
+      resize(hashes.length * 2);
+    }
+    long hash = hash(digest);
+    int mask = hashes.length - 1;
+    int slot = idealSlot(hash, mask);
+    while (hashes[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    hashes[slot] = hash;
+    locations[slot] = location;
+    indexSize++;
+  }
+
+  /**
+   * Removes an entry by shifting back the entries which follow it in the same probe sequence.
+   */
+  private void remove(int slot) {
+    int mask = hashes.length - 1;
+    int empty = slot;
+    int current = slot;
+    while (true) {
+      current = (current + 1) & mask;
+      if (hashes[current] == 0) {
+        break;
+      }
+      int ideal = idealSlot(hashes[current], mask);
+      // the entry can move to the empty slot only if its ideal slot is not cyclically within (empty, current]
+      boolean canMove = empty <= current ? (ideal <= empty || ideal > current) : (ideal <= empty && ideal > current);
+      if (canMove) {
+        hashes[empty] = hashes[current];
+        locations[empty] = locations[current];
+        empty = current;
+      }
+    }
+    hashes[empty] = 0;
+    locations[empty] = 0;
+    indexSize--;
+  }
+
+  private void resize(int capacity) {
+    long[] oldHashes = hashes;
+    long[] oldLocations = locations;
+    hashes = new long[capacity];
+    locations = new long[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldHashes.length; i++) {
+      if (oldHashes[i] != 0) {
+        int slot = idealSlot(oldHashes[i], mask);
+        while (hashes[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        hashes[slot] = oldHashes[i];
+        locations[slot] = oldLocations[i];
+      }
+    }
+  }
+
+  private boolean keyEquals(long location, byte[] digest) {
+    Segment segment = segments.get(segmentId(location));
+    int keyOffset = offset(location) + 12;
+    for (int i = 0; i < RequestKey.SIZE; i++) {
+      if (segment.buffer.get(keyOffset + i) != digest[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long hash(byte[] digest) {
+    long hash = 0;
+    for (int i = 0; i < 8; i++) {
+      hash = (hash << 8) | (digest[i] & 0xff);
+    }
+    // 0 marks empty slots
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static int idealSlot(long hash, int mask) {
+    // the digest is uniformly distributed already, so its bits can be used as they are
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private static long location(int segmentId, int offset) {
+    return ((long) segmentId << 32) | (offset & 0xffffffffL);
+  }
+
+  private static int segmentId(long location) {
+    return (int) ((location & ~REFERENCED) >>> 32);
+  }
+
+  private static int offset(long location) {
+    return (int) location;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  private static int crc(ByteBuffer buffer, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(slice(buffer, offset, length));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * A memory-mapped segment file.
+   */
+  private static final class Segment {
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private int writePosition;
+
+    private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.size = buffer.capacity();
+    }
+  }
+}
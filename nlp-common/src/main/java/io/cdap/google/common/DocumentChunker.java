@@ -0,0 +1,213 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits documents which are too large for a single Language API request into chunks of at most a given number
+ * of bytes, measured in the encoding the offsets of the response are expressed in. Chunks end at a paragraph
+ * boundary if there is one in the second half of the chunk, otherwise at a sentence boundary, a whitespace, or as
+ * a last resort anywhere between two code points.
+ */
+public final class DocumentChunker {
+  /**
+   * Maximum size of the content of a document the Language API accepts.
+   */
+  public static final int MAX_DOCUMENT_BYTES = 1_000_000;
+  // no code point takes more than 4 bytes in any encoding, nor more than 2 chars
+  private static final int MAX_BYTES_PER_CHAR = 4;
+
+  private final EncodingType encoding;
+  private final int maxChunkBytes;
+
+  /**
+   * @param encoding encoding of the requests, which decides both the size of the text and its offsets
+   * @param maxChunkBytes maximum size of a chunk in bytes
+   */
+  public DocumentChunker(EncodingType encoding, int maxChunkBytes) {
+    if (maxChunkBytes < MAX_BYTES_PER_CHAR || maxChunkBytes > MAX_DOCUMENT_BYTES) {
+      throw new IllegalArgumentException(String.format("Chunk size must be between %d and %d bytes, but was %d",
+                                                       MAX_BYTES_PER_CHAR, MAX_DOCUMENT_BYTES, maxChunkBytes));
+    }
+    this.encoding = encoding;
+    this.maxChunkBytes = maxChunkBytes;
+  }
+
+  /**
+   * @return maximum size of a chunk in bytes
+   */
+  public int getMaxChunkBytes() {
+    return maxChunkBytes;
+  }
+
+  /**
+   * @return chunks of the text in order, a single chunk if the text fits
+   */
+  public List<Chunk> split(String text) {
+    if ((long) text.length() * MAX_BYTES_PER_CHAR <= maxChunkBytes ||
+      sizeOf(encoding, text, 0, text.length()) <= maxChunkBytes) {
+      return Collections.singletonList(new Chunk(text, 0));
+    }
+
+    BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+    sentences.setText(text);
+    List<Chunk> chunks = new ArrayList<>();
+    int start = 0;
+    int offset = 0;
+    while (start < text.length()) {
+      int limit = findLimit(text, start);
+      int end = limit == text.length() ? limit : findBreak(text, start, limit, sentences);
+      chunks.add(new Chunk(text.substring(start, end), offset));
+      offset += offsetOf(encoding, text, start, end);
+      start = end;
+    }
+    return chunks;
+  }
+
+  /**
+   * @return the end of the longest text starting at the given index which fits in a chunk
+   */
+  private int findLimit(String text, int start) {
+    int bytes = 0;
+    int index = start;
+    while (index < text.length()) {
+      int codePoint = text.codePointAt(index);
+      bytes += sizeOf(encoding, codePoint);
+      if (bytes > maxChunkBytes) {
+        break;
+      }
+      index += Character.charCount(codePoint);
+    }
+    return index;
+  }
+
+  /**
+   * @return the end of the chunk starting at the given index, at the best boundary before the limit
+   */
+  private static int findBreak(String text, int start, int limit, BreakIterator sentences) {
+    // breaking early would multiply the number of requests, so only the second half of a chunk is searched
+    int min = start + (limit - start) / 2;
+
+    int paragraph = text.lastIndexOf("\n\n", limit - 2);
+    if (paragraph >= min) {
+      return paragraph + 2;
+    }
+
+    int sentence = sentences.preceding(limit + 1);
+    if (sentence != BreakIterator.DONE && sentence > min) {
+      return sentence;
+    }
+
+    for (int index = limit; index > min; index--) {
+      if (Character.isWhitespace(text.charAt(index - 1))) {
+        return index;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * @return size of the text in bytes in the given encoding
+   */
+  static int sizeOf(EncodingType encoding, String text) {
+    return sizeOf(encoding, text, 0, text.length());
+  }
+
+  /**
+   * @return length of the text in the unit of the offsets the API returns for the given encoding
+   */
+  static int offsetOf(EncodingType encoding, String text) {
+    return offsetOf(encoding, text, 0, text.length());
+  }
+
+  private static int sizeOf(EncodingType encoding, String text, int start, int end) {
+    int bytes = 0;
+    for (int index = start; index < end; ) {
+      int codePoint = text.codePointAt(index);
+      bytes += sizeOf(encoding, codePoint);
+      index += Character.charCount(codePoint);
+    }
+    return bytes;
+  }
+
+  private static int sizeOf(EncodingType encoding, int codePoint) {
+    switch (encoding) {
+      case UTF16:
+        return 2 * Character.charCount(codePoint);
+      case UTF32:
+        return 4;
+      default:
+        // the text is sent as UTF-8 when no encoding is given
+        return utf8Length(codePoint);
+    }
+  }
+
+  private static int offsetOf(EncodingType encoding, String text, int start, int end) {
+    switch (encoding) {
+      case UTF8:
+        return sizeOf(encoding, text, start, end);
+      case UTF16:
+        return end - start;
+      case UTF32:
+        return text.codePointCount(start, end);
+      default:
+        // offsets are not returned without an encoding
+        return 0;
+    }
+  }
+
+  private static int utf8Length(int codePoint) {
+    if (codePoint < 0x80) {
+      return 1;
+    }
+    if (codePoint < 0x800) {
+      return 2;
+    }
+    return codePoint < 0x10000 ? 3 : 4;
+  }
+
+  /**
+   * A part of a document.
+   */
+  public static final class Chunk {
+    private final String text;
+    private final int offset;
+
+    Chunk(String text, int offset) {
+      this.text = text;
+      this.offset = offset;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    /**
+     * @return offset of the chunk in the document, in the unit of the offsets the API returns for the encoding
+     */
+    public int getOffset() {
+      return offset;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.protobuf.MessageOrBuilder;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emits Java Flight Recorder events for requests to the API, their attempts, rate limiter waits, retry backoffs and
+ * the conversion of responses, so that a flight recording links slow tasks to the calls they made instead of showing
+ * anonymous gRPC and netty frames.
+ *
+ * The events are only loaded when the JVM supports JFR and the classloader exposes it, on other JVMs every method
+ * returns {@link Span#NONE}. While JFR is not recording an event, beginning it costs a single check and no
+ * allocation.
+ */
+public final class FlightRecorderEvents {
+  private static final boolean AVAILABLE = checkAvailable();
+
+  private FlightRecorderEvents() {
+  }
+
+  /**
+   * An event which is in progress. It may be begun on one thread and finished on another, the event is recorded
+   * with the thread which finishes it.
+   */
+  public interface Span {
+
+    /**
+     * A span which records nothing.
+     */
+    Span NONE = (method, response, status) -> { };
+
+    /**
+     * Ends the event and commits it, if it is recorded.
+     *
+     * @param response response the event produced or converted, used for its size, or null if there is none
+     * @param status gRPC status code of the failure which ended the event, or null if it succeeded
+     */
+    void finish(NLPMethod method, @Nullable MessageOrBuilder response, @Nullable String status);
+  }
+
+  /**
+   * @return whether the JVM supports JFR, if not no events are ever recorded
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Begins an event for a whole request, from the first lookup of its response until it is available, including
+   * all attempts, chunks and cache lookups.
+   */
+  public static Span beginRequest(int textLength) {
+    return AVAILABLE ? JfrEvents.beginRequest(textLength) : Span.NONE;
+  }
+
+  /**
+   * Begins an event for a single attempt sent to the API.
+   */
+  public static Span beginRpc(int textLength) {
+    return AVAILABLE ? JfrEvents.beginRpc(textLength) : Span.NONE;
+  }
+
+  /**
+   * Begins an event for waiting until the rate limiter lets an attempt through.
+   */
+  public static Span beginTokenWait(int textLength) {
+    return AVAILABLE ? JfrEvents.beginTokenWait(textLength) : Span.NONE;
+  }
+
+  /**
+   * Begins an event for the delay between a failed attempt and the next one.
+   */
+  public static Span beginBackoff(int textLength) {
+    return AVAILABLE ? JfrEvents.beginBackoff(textLength) : Span.NONE;
+  }
+
+  /**
+   * Begins an event for the conversion of a response into the output of a stage or directive.
+   */
+  public static Span beginConversion() {
+    return AVAILABLE ? JfrEvents.beginConversion() : Span.NONE;
+  }
+
+  private static boolean checkAvailable() {
+    try {
+      // loads and registers the event classes, which fails if jdk.jfr is missing or not visible to this classloader
+      JfrEvents.init();
+      return true;
+    } catch (LinkageError | RuntimeException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Requests to the Language API which are currently in flight in this JVM, keyed by {@link RequestKey}. A request
+ * made while an identical one is still in flight does not go to the API, it gets the response of the outstanding
+ * request instead. This catches the duplicates a response cache cannot, the ones which arrive before the first
+ * response does.
+ *
+ * Futures returned by {@link #join} may be shared between callers and must not be cancelled.
+ */
+final class InFlightRequests {
+  private static final ConcurrentMap<RequestKey, ApiFuture<MessageOrBuilder>> REQUESTS = new ConcurrentHashMap<>();
+  private static final AtomicLong COALESCED = new AtomicLong();
+
+  private InFlightRequests() {
+  }
+
+  /**
+   * Returns the future of the in-flight request with the given key, or sends the request if there is none.
+   *
+   * @param send sends the request, only called if no identical request is in flight
+   */
+  static ApiFuture<MessageOrBuilder> join(RequestKey key, Supplier<ApiFuture<MessageOrBuilder>> send) {
+    SettableApiFuture<MessageOrBuilder> created = SettableApiFuture.create();
+    ApiFuture<MessageOrBuilder> existing = REQUESTS.putIfAbsent(key, created);
+    if (existing != null) {
+      COALESCED.incrementAndGet();
+      return existing;
+    }
+
+    // the request leaves the map before its callers are notified, so that a caller which gets the response
+    // and asks again sends a new request instead of finding a completed one
+    ApiFuture<MessageOrBuilder> sent;
+    try {
+      sent = send.get();
+    } catch (RuntimeException e) {
+      REQUESTS.remove(key, created);
+      created.setException(e);
+      return created;
+    }
+    ApiFutures.addCallback(sent, new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        REQUESTS.remove(key, created);
+        created.setException(t);
+      }
+
+      @Override
+      public void onSuccess(MessageOrBuilder response) {
+        REQUESTS.remove(key, created);
+        created.set(response);
+      }
+    }, MoreExecutors.directExecutor());
+    return created;
+  }
+
+  /**
+   * @return number of requests which were not sent because an identical one was in flight, since this JVM started
+   */
+  static long getCoalescedCount() {
+    return COALESCED.get();
+  }
+
+  /**
+   * @return number of distinct requests currently in flight
+   */
+  static int size() {
+    return REQUESTS.size();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.annotation.Nullable;
+
+/**
+ * The JFR event classes behind {@link FlightRecorderEvents}. This is the only class which refers to jdk.jfr, so it
+ * is never loaded on JVMs without JFR.
+ */
+final class JfrEvents {
+  private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+  private static final EventType RPC = EventType.getEventType(RpcEvent.class);
+  private static final EventType TOKEN_WAIT = EventType.getEventType(TokenWaitEvent.class);
+  private static final EventType BACKOFF = EventType.getEventType(BackoffEvent.class);
+  private static final EventType CONVERSION = EventType.getEventType(ConversionEvent.class);
+
+  private JfrEvents() {
+  }
+
+  /**
+   * Initializes the class, which registers the event types.
+   */
+  static void init() {
+  }
+
+  static FlightRecorderEvents.Span beginRequest(int textLength) {
+    return REQUEST.isEnabled() ? begin(new RequestEvent(), textLength) : FlightRecorderEvents.Span.NONE;
+  }
+
+  static FlightRecorderEvents.Span beginRpc(int textLength) {
+    return RPC.isEnabled() ? begin(new RpcEvent(), textLength) : FlightRecorderEvents.Span.NONE;
+  }
+
+  static FlightRecorderEvents.Span beginTokenWait(int textLength) {
+    return TOKEN_WAIT.isEnabled() ? begin(new TokenWaitEvent(), textLength) : FlightRecorderEvents.Span.NONE;
+  }
+
+  static FlightRecorderEvents.Span beginBackoff(int textLength) {
+    return BACKOFF.isEnabled() ? begin(new BackoffEvent(), textLength) : FlightRecorderEvents.Span.NONE;
+  }
+
+  static FlightRecorderEvents.Span beginConversion() {
+    if (!CONVERSION.isEnabled()) {
+      return FlightRecorderEvents.Span.NONE;
+    }
+    ConversionEvent event = new ConversionEvent();
+    event.begin();
+    return event;
+  }
+
+  private static FlightRecorderEvents.Span begin(TextEvent event, int textLength) {
+    event.textLength = textLength;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Fields shared by all events.
+   */
+  @Category({"Google Cloud", "Natural Language"})
+  private abstract static class NLPEvent extends Event implements FlightRecorderEvents.Span {
+    @Label("Method")
+    String method;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Status")
+    @Description("gRPC status code of the failure, or OK")
+    String status;
+
+    @Override
+    public void finish(NLPMethod method, @Nullable MessageOrBuilder response, @Nullable String status) {
+      end();
+      if (shouldCommit()) {
+        this.method = method.getValue();
+        this.responseBytes = response instanceof Message ? ((Message) response).getSerializedSize() : 0;
+        this.status = status == null ? "OK" : status;
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Events made for a single text or chunk.
+   */
+  private abstract static class TextEvent extends NLPEvent {
+    @Label("Text Length")
+    @Description("Length of the text in UTF-16 code units")
+    int textLength;
+  }
+
+  @Name("io.cdap.google.nlp.Request")
+  @Label("NLP Request")
+  @Description("Getting the response to a text, from a cache, an identical request in flight or the API")
+  private static final class RequestEvent extends TextEvent {
+  }
+
+  @Name("io.cdap.google.nlp.Rpc")
+  @Label("NLP RPC")
+  @Description("A single attempt of a request sent to the API")
+  private static final class RpcEvent extends TextEvent {
+  }
+
+  @Name("io.cdap.google.nlp.TokenWait")
+  @Label("NLP Rate Limiter Wait")
+  @Description("Waiting for the rate limiter to let an attempt through")
+  private static final class TokenWaitEvent extends TextEvent {
+  }
+
+  @Name("io.cdap.google.nlp.Backoff")
+  @Label("NLP Retry Backoff")
+  @Description("Delay between a failed attempt and the next one, the status is the one of the failed attempt")
+  private static final class BackoffEvent extends TextEvent {
+  }
+
+  @Name("io.cdap.google.nlp.Conversion")
+  @Label("NLP Response Conversion")
+  @Description("Converting a response into the output of a stage or directive")
+  private static final class ConversionEvent extends NLPEvent {
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.LanguageServiceSettings;
+import com.google.common.base.Throwables;
+import io.grpc.ManagedChannelBuilder;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A JVM wide registry of {@link LanguageServiceClient}s. All plugin stages and directives running in the same JVM
+ * which use equal {@link LanguageClientSettings} share a single client (and so its channels and credential
+ * refreshers) as well as an {@link AdaptiveRateLimiter}, so that together they stay within the API quota. Clients
+ * are reference counted and closed once the last user releases them.
+ */
+public final class LanguageClientPool {
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+  private static final Map<LanguageClientSettings, PooledClient> CLIENTS = new HashMap<>();
+
+  private LanguageClientPool() {
+  }
+
+  /**
+   * Returns a lease on a client created with given settings. The client is created if there is none yet.
+   * The lease must be closed once the client is no longer needed.
+   */
+  public static Lease acquire(LanguageClientSettings settings) {
+    PooledClient pooledClient;
+    boolean create = false;
+    synchronized (CLIENTS) {
+      pooledClient = CLIENTS.get(settings);
+      if (pooledClient == null) {
+        pooledClient = new PooledClient();
+        CLIENTS.put(settings, pooledClient);
+        create = true;
+      }
+      pooledClient.references++;
+    }
+    if (create) {
+      // loading credentials and setting up channels can take a while, so it is done outside of the lock and only
+      // callers with the same settings wait for it
+      try {
+        pooledClient.client.complete(createLanguageServiceClient(settings));
+      } catch (RuntimeException | Error e) {
+        synchronized (CLIENTS) {
+          CLIENTS.remove(settings, pooledClient);
+        }
+        pooledClient.client.completeExceptionally(e);
+        throw e;
+      }
+    }
+    return new Lease(settings, pooledClient.getClient(), pooledClient.rateLimiter);
+  }
+
+  /**
+   * @return number of clients which are currently open
+   */
+  public static int size() {
+    synchronized (CLIENTS) {
+      return CLIENTS.size();
+    }
+  }
+
+  private static void release(LanguageClientSettings settings) {
+    LanguageServiceClient toClose;
+    synchronized (CLIENTS) {
+      PooledClient pooledClient = CLIENTS.get(settings);
+      if (pooledClient == null || --pooledClient.references > 0) {
+        return;
+      }
+      CLIENTS.remove(settings);
+      toClose = pooledClient.getClient();
+    }
+    // shutdown can take a while, so it is done outside of the lock
+    shutdown(toClose);
+  }
+
+  /**
+   * Shuts down the language client. Calls which are already in flight are given a chance to finish before
+   * the underlying channel is forcibly terminated.
+   */
+  private static void shutdown(LanguageServiceClient client) {
+    client.shutdown();
+    try {
+      if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        client.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      client.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static LanguageServiceClient createLanguageServiceClient(LanguageClientSettings settings) {
+    String serviceFilePath = settings.getServiceFilePath();
+    String endpoint = settings.getEndpoint() == null ?
+      LanguageServiceSettings.getDefaultEndpoint() : settings.getEndpoint();
+
+    InstantiatingGrpcChannelProvider.Builder channelProviderBuilder =
+      LanguageServiceSettings.defaultGrpcTransportProviderBuilder()
+        .setEndpoint(endpoint)
+        .setPoolSize(settings.getChannelPoolSize());
+    if (settings.isPlaintext()) {
+      channelProviderBuilder.setChannelConfigurator(ManagedChannelBuilder::usePlaintext);
+    }
+
+    LanguageServiceSettings.Builder languageServiceSettingsBuilder = LanguageServiceSettings.newBuilder()
+      .setTransportChannelProvider(channelProviderBuilder.build());
+    disableRetries(languageServiceSettingsBuilder);
+    try {
+      if (settings.isPlaintext()) {
+        // credentials are never sent over an unencrypted channel
+        languageServiceSettingsBuilder.setCredentialsProvider(NoCredentialsProvider.create());
+      } else if (serviceFilePath != null) {
+        try (InputStream inputStream = new FileInputStream(serviceFilePath)) {
+          GoogleCredentials credentials = GoogleCredentials.fromStream(inputStream);
+          languageServiceSettingsBuilder.setCredentialsProvider(FixedCredentialsProvider.create(credentials));
+        }
+      }
+      return LanguageServiceClient.create(languageServiceSettingsBuilder.build());
+    } catch (IOException e) {
+      throw new IllegalArgumentException(
+        String.format("Cannot read credentials from service account key file '%s' or create a language client",
+                      serviceFilePath), e);
+    }
+  }
+
+  /**
+   * Makes the client send every request once. Retries are done by {@link NLPMethodExecutor} according to its
+   * {@link RetryPolicy}, which also knows about the record deadline and the retry budget.
+   */
+  private static void disableRetries(LanguageServiceSettings.Builder builder) {
+    try {
+      builder.applyToAllUnaryMethods(callSettings -> {
+        callSettings.setRetryableCodes(Collections.emptySet());
+        return null;
+      });
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot configure language client retries", e);
+    }
+  }
+
+  /**
+   * A client together with its rate limiter and the number of leases currently held on it.
+   */
+  private static final class PooledClient {
+    // completed by the caller which added the entry, once the client is created
+    private final CompletableFuture<LanguageServiceClient> client = new CompletableFuture<>();
+    private final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+    private int references;
+
+    /**
+     * Waits until the client is created.
+     *
+     * @throws RuntimeException the failure of creating the client
+     */
+    private LanguageServiceClient getClient() {
+      try {
+        return client.join();
+      } catch (CompletionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * A reference to a pooled client. Closing the lease releases the reference, closing it more than once has no
+   * effect.
+   */
+  public static final class Lease implements Closeable {
+    private final LanguageClientSettings settings;
+    private final LanguageServiceClient client;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Lease(LanguageClientSettings settings, LanguageServiceClient client, AdaptiveRateLimiter rateLimiter) {
+      this.settings = settings;
+      this.client = client;
+      this.rateLimiter = rateLimiter;
+    }
+
+    public LanguageClientSettings getSettings() {
+      return settings;
+    }
+
+    public LanguageServiceClient getClient() {
+      if (released.get()) {
+        throw new IllegalStateException("Language client lease has already been released");
+      }
+      return client;
+    }
+
+    /**
+     * @return the limiter every request sent over the client has to go through
+     */
+    public AdaptiveRateLimiter getRateLimiter() {
+      return rateLimiter;
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        release(settings);
+      }
+    }
+  }
+}
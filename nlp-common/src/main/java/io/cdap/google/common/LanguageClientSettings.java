@@ -0,0 +1,122 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Settings a {@link com.google.cloud.language.v1.LanguageServiceClient} is created with. Two clients created
+ * with equal settings are interchangeable, which is what allows {@link LanguageClientPool} to share them.
+ */
+public final class LanguageClientSettings {
+  public static final int DEFAULT_CHANNEL_POOL_SIZE = 1;
+
+  private final String serviceFilePath;
+  private final String endpoint;
+  private final int channelPoolSize;
+  private final boolean plaintext;
+
+  public LanguageClientSettings(@Nullable String serviceFilePath, @Nullable String endpoint, int channelPoolSize) {
+    this(serviceFilePath, endpoint, channelPoolSize, false);
+  }
+
+  /**
+   * @param plaintext whether to connect without TLS and without credentials, which is only meant for local servers
+   */
+  public LanguageClientSettings(@Nullable String serviceFilePath, @Nullable String endpoint, int channelPoolSize,
+                                boolean plaintext) {
+    if (channelPoolSize < 1) {
+      throw new IllegalArgumentException(
+        String.format("Channel pool size must be a positive number, but was %d", channelPoolSize));
+    }
+    this.serviceFilePath = serviceFilePath;
+    this.endpoint = endpoint;
+    this.channelPoolSize = channelPoolSize;
+    this.plaintext = plaintext;
+  }
+
+  /**
+   * Settings for a client that talks to the default Google endpoint using given service account key file.
+   */
+  public static LanguageClientSettings of(@Nullable String serviceFilePath) {
+    return new LanguageClientSettings(serviceFilePath, null, DEFAULT_CHANNEL_POOL_SIZE);
+  }
+
+  /**
+   * Settings for a client that talks to a local, unauthenticated server, such as a stand-in used by tests.
+   *
+   * @param endpoint host:port of the server
+   */
+  public static LanguageClientSettings plaintext(String endpoint) {
+    return new LanguageClientSettings(null, endpoint, DEFAULT_CHANNEL_POOL_SIZE, true);
+  }
+
+  /**
+   * @return path to a service account key file, or null if application default credentials should be used
+   */
+  @Nullable
+  public String getServiceFilePath() {
+    return serviceFilePath;
+  }
+
+  /**
+   * @return host:port of the Language API, or null if the default Google endpoint should be used
+   */
+  @Nullable
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public int getChannelPoolSize() {
+    return channelPoolSize;
+  }
+
+  public boolean isPlaintext() {
+    return plaintext;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    LanguageClientSettings that = (LanguageClientSettings) o;
+    return channelPoolSize == that.channelPoolSize &&
+      plaintext == that.plaintext &&
+      Objects.equals(serviceFilePath, that.serviceFilePath) &&
+      Objects.equals(endpoint, that.endpoint);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(serviceFilePath, endpoint, channelPoolSize, plaintext);
+  }
+
+  @Override
+  public String toString() {
+    return "LanguageClientSettings{" +
+      "serviceFilePath='" + serviceFilePath + '\'' +
+      ", endpoint='" + endpoint + '\'' +
+      ", channelPoolSize=" + channelPoolSize +
+      ", plaintext=" + plaintext +
+      '}';
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with the bucket layout of an HDR histogram: values below 128
+ * have a bucket each, and every following power of two is divided into 64 buckets, so every value is recorded with
+ * a relative error below 1.6% from a nanosecond up to more than two hours. Larger values are recorded as the largest
+ * trackable one.
+ *
+ * Recording is a single atomic increment of a preallocated counter, plus an update of the maximum when it grows.
+ * It does not allocate and never blocks, so histograms can stay enabled in production. Percentiles and the mean are
+ * computed from the live counters when they are read, also over JMX, see {@link MethodLatencies}.
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  // 2^43 nanoseconds is about two and a half hours
+  private static final int MAX_BITS = 43;
+  private static final long MAX_TRACKABLE = (1L << MAX_BITS) - 1;
+  private static final int BUCKETS = indexOf(MAX_TRACKABLE) + 1;
+  private static final double NANOS_PER_MILLI = 1_000_000d;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(long latencyNanos) {
+    long value = Math.min(MAX_TRACKABLE, Math.max(0, latencyNanos));
+    counts.incrementAndGet(indexOf(value));
+    max.accumulate(value);
+  }
+
+  @Override
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  /**
+   * @return mean of the recorded latencies, within the precision of the histogram
+   */
+  public double getMeanNanos() {
+    long count = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long bucketCount = counts.get(i);
+      count += bucketCount;
+      sum += bucketCount * (double) highestValueOf(i);
+    }
+    return count == 0 ? 0 : Math.min(sum / count, getMaxNanos());
+  }
+
+  /**
+   * @param percentile percentile between 0 and 100, e.g. 99.9
+   * @return latency in nanoseconds which at least the given percentage of the recorded latencies do not exceed,
+   *   within the precision of the histogram, or 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    long total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        // the bucket bound may exceed the largest value recorded, which is known exactly
+        return Math.min(highestValueOf(i), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  @Override
+  public double getMeanMillis() {
+    return getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return getMaxNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getP50Millis() {
+    return getPercentileNanos(50) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getP90Millis() {
+    return getPercentileNanos(90) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getP99Millis() {
+    return getPercentileNanos(99) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getP999Millis() {
+    return getPercentileNanos(99.9) / NANOS_PER_MILLI;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_HALF_COUNT * shift + (int) (value >>> shift);
+  }
+
+  /**
+   * @return the largest value recorded in the bucket with the given index
+   */
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    long subBucket = index - (long) SUB_BUCKET_HALF_COUNT * shift;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
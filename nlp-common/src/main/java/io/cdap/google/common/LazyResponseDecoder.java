@@ -0,0 +1,152 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Reads single fields from serialized Language API responses, as written by the plugins and directives in bytes
+ * output mode. Only the requested field is decoded, all other fields are skipped over without being parsed,
+ * so reading e.g. the document sentiment of an annotated text does not pay for its tokens and entities.
+ *
+ * A decoder is immutable and can be shared by threads.
+ */
+public final class LazyResponseDecoder {
+  private final NLPMethod method;
+
+  public LazyResponseDecoder(NLPMethod method) {
+    this.method = method;
+  }
+
+  /**
+   * @return the whole response, fully parsed
+   */
+  public Message parse(byte[] response) throws InvalidProtocolBufferException {
+    return method.getResponseParser().parseFrom(response);
+  }
+
+  public String getLanguage(byte[] response) throws IOException {
+    int fieldNumber = getFieldNumber("language");
+    CodedInputStream input = CodedInputStream.newInstance(response);
+    String language = "";
+    while (seek(input, fieldNumber)) {
+      // the last occurrence of a singular field wins
+      language = input.readStringRequireUtf8();
+    }
+    return language;
+  }
+
+  /**
+   * @return sentiment of the document, or null if it is not in the response
+   */
+  @Nullable
+  public Sentiment getDocumentSentiment(byte[] response) throws IOException {
+    int fieldNumber = getFieldNumber("document_sentiment");
+    CodedInputStream input = CodedInputStream.newInstance(response);
+    Sentiment.Builder sentiment = null;
+    while (seek(input, fieldNumber)) {
+      // occurrences of a singular message field are merged
+      if (sentiment == null) {
+        sentiment = Sentiment.newBuilder();
+      }
+      sentiment.mergeFrom(input.readBytes());
+    }
+    return sentiment == null ? null : sentiment.build();
+  }
+
+  public List<Sentence> getSentences(byte[] response) throws IOException {
+    return getRepeated(response, "sentences", Sentence.parser());
+  }
+
+  public List<Token> getTokens(byte[] response) throws IOException {
+    return getRepeated(response, "tokens", Token.parser());
+  }
+
+  public List<Entity> getEntities(byte[] response) throws IOException {
+    return getRepeated(response, "entities", Entity.parser());
+  }
+
+  public List<ClassificationCategory> getCategories(byte[] response) throws IOException {
+    return getRepeated(response, "categories", ClassificationCategory.parser());
+  }
+
+  /**
+   * Counts the elements of a repeated field, e.g. 'tokens', without decoding them.
+   */
+  public int count(byte[] response, String fieldName) throws IOException {
+    int fieldNumber = getFieldNumber(fieldName);
+    CodedInputStream input = CodedInputStream.newInstance(response);
+    int count = 0;
+    while (seek(input, fieldNumber)) {
+      input.skipRawBytes(input.readRawVarint32());
+      count++;
+    }
+    return count;
+  }
+
+  private <T> List<T> getRepeated(byte[] response, String fieldName, Parser<T> parser) throws IOException {
+    int fieldNumber = getFieldNumber(fieldName);
+    CodedInputStream input = CodedInputStream.newInstance(response);
+    List<T> values = new ArrayList<>();
+    while (seek(input, fieldNumber)) {
+      values.add(parser.parseFrom(input.readBytes()));
+    }
+    return values;
+  }
+
+  /**
+   * Skips fields until the next occurrence of the given field, leaving the input positioned at its value.
+   *
+   * @return whether the field was found before the end of the input
+   */
+  private static boolean seek(CodedInputStream input, int fieldNumber) throws IOException {
+    while (true) {
+      int tag = input.readTag();
+      if (tag == 0) {
+        return false;
+      }
+      if (WireFormat.getTagFieldNumber(tag) == fieldNumber) {
+        return true;
+      }
+      input.skipField(tag);
+    }
+  }
+
+  private int getFieldNumber(String fieldName) {
+    Descriptors.FieldDescriptor field = method.getResponseDescriptor().findFieldByName(fieldName);
+    if (field == null) {
+      throw new IllegalArgumentException(String.format("Responses of %s have no field '%s'",
+                                                       method.getValue(), fieldName));
+    }
+    return field.getNumber();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms of a method, shared by all the executors of the method in this JVM. Every histogram is
+ * registered with the platform MBean server as
+ * {@code io.cdap.google.nlp:type=Latency,method=<method>,phase=<phase>}, so live percentiles can be read from a
+ * running executor with standard JMX tools such as jconsole.
+ */
+public final class MethodLatencies {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodLatencies.class);
+  private static final String DOMAIN = "io.cdap.google.nlp";
+  private static final Map<NLPMethod, MethodLatencies> LATENCIES = createAll();
+
+  private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+
+  private MethodLatencies() {
+    for (Phase phase : Phase.values()) {
+      histograms.put(phase, new LatencyHistogram());
+    }
+  }
+
+  public static MethodLatencies of(NLPMethod method) {
+    return LATENCIES.get(method);
+  }
+
+  public LatencyHistogram get(Phase phase) {
+    return histograms.get(phase);
+  }
+
+  private static Map<NLPMethod, MethodLatencies> createAll() {
+    Map<NLPMethod, MethodLatencies> latencies = new EnumMap<>(NLPMethod.class);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (NLPMethod method : NLPMethod.values()) {
+      MethodLatencies methodLatencies = new MethodLatencies();
+      latencies.put(method, methodLatencies);
+      for (Phase phase : Phase.values()) {
+        register(server, method, phase, methodLatencies.get(phase));
+      }
+    }
+    return latencies;
+  }
+
+  private static void register(MBeanServer server, NLPMethod method, Phase phase, LatencyHistogram histogram) {
+    try {
+      ObjectName name = new ObjectName(String.format("%s:type=Latency,method=%s,phase=%s",
+                                                     DOMAIN, method.name(), phase.getValue()));
+      try {
+        server.registerMBean(histogram, name);
+      } catch (InstanceAlreadyExistsException e) {
+        // registered by another class loader, e.g. of an earlier run, whose histograms are no longer recorded to
+        server.unregisterMBean(name);
+        server.registerMBean(histogram, name);
+      }
+    } catch (JMException | RuntimeException e) {
+      LOG.debug("Cannot register latency histogram of {} {} over JMX", method, phase.getValue(), e);
+    }
+  }
+
+  /**
+   * A phase of a request whose latency is measured.
+   */
+  public enum Phase {
+    /**
+     * From the request of a response until it is available, including cache lookups, rate limiting and retries.
+     */
+    END_TO_END("endToEnd"),
+    /**
+     * A single attempt to call the API.
+     */
+    RPC("rpc"),
+    /**
+     * Conversion of a response into the output of a stage or directive.
+     */
+    CONVERSION("conversion");
+
+    private final String value;
+
+    Phase(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+}
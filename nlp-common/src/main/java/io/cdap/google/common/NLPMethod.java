@@ -16,69 +16,119 @@
 
 package io.cdap.google.common;
 
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassifyTextResponse;
 import com.google.cloud.language.v1.EncodingType;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
 
 /**
  * Represents a Google NLP method to run.
  */
 public enum NLPMethod {
-  ANALYZE_ENTITIES("Entity Analysis") {
+  ANALYZE_ENTITIES("Entity Analysis", AnalyzeEntitiesResponse.parser(),
+                   AnalyzeEntitiesResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new AnalyzeEntities(languageCode, encoding,
-                                 NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new AnalyzeEntities(languageCode, encoding, language);
     }
   },
-  ANALYZE_ENTITY_SENTIMENT("Entity Sentiment Analysis") {
+  ANALYZE_ENTITY_SENTIMENT("Entity Sentiment Analysis", AnalyzeEntitySentimentResponse.parser(),
+                           AnalyzeEntitySentimentResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new AnalyzeEntitySentiment(languageCode, encoding,
-                                        NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new AnalyzeEntitySentiment(languageCode, encoding, language);
     }
   },
-  ANALYZE_SENTIMENT("Sentiment Analysis") {
+  ANALYZE_SENTIMENT("Sentiment Analysis", AnalyzeSentimentResponse.parser(),
+                    AnalyzeSentimentResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new AnalyzeSentiment(languageCode, encoding,
-                                  NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new AnalyzeSentiment(languageCode, encoding, language);
     }
   },
-  ANALYZE_SYNTAX("Syntax Analysis") {
+  ANALYZE_SYNTAX("Syntax Analysis", AnalyzeSyntaxResponse.parser(),
+                 AnalyzeSyntaxResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new AnalyzeSyntax(languageCode, encoding, NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new AnalyzeSyntax(languageCode, encoding, language);
     }
   },
-  ANOTATE_TEXT("ALL (Anotate text)") {
+  ANOTATE_TEXT("ALL (Anotate text)", AnnotateTextResponse.parser(),
+               AnnotateTextResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new AnotateText(languageCode, encoding, NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new AnotateText(languageCode, encoding, language);
     }
   },
-  CLASSIFY_CONTENT("Text Classification") {
+  CLASSIFY_CONTENT("Text Classification", ClassifyTextResponse.parser(),
+                   ClassifyTextResponse.getDescriptor()) {
     @Override
-    public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                            EncodingType encoding) {
-      return new ClassifyContent(languageCode, encoding,
-                                 NLPMethodExecutor.createLanguageServiceClient(serviceFilePath));
+    protected NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                               EncodingType encoding) {
+      return new ClassifyContent(languageCode, encoding, language);
     }
   };
 
   private final String value;
+  private final Parser<? extends Message> responseParser;
+  private final Descriptors.Descriptor responseDescriptor;
 
-  NLPMethod(String value) {
+  NLPMethod(String value, Parser<? extends Message> responseParser, Descriptors.Descriptor responseDescriptor) {
     this.value = value;
+    this.responseParser = responseParser;
+    this.responseDescriptor = responseDescriptor;
   }
 
   public String getValue() {
     return value;
   }
 
-  public abstract NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode,
-                                                   EncodingType encoding);
+  /**
+   * @return parser of the serialized response this method returns
+   */
+  public Parser<? extends Message> getResponseParser() {
+    return responseParser;
+  }
+
+  /**
+   * @return descriptor of the response this method returns
+   */
+  public Descriptors.Descriptor getResponseDescriptor() {
+    return responseDescriptor;
+  }
+
+  /**
+   * Creates an executor which uses a client from {@link LanguageClientPool} for the given service account key file.
+   */
+  public NLPMethodExecutor createExecutor(String serviceFilePath, String languageCode, EncodingType encoding) {
+    return createExecutor(LanguageClientSettings.of(serviceFilePath), languageCode, encoding);
+  }
+
+  /**
+   * Creates an executor which uses a client from {@link LanguageClientPool} with the given settings.
+   */
+  public NLPMethodExecutor createExecutor(LanguageClientSettings clientSettings, String languageCode,
+                                         EncodingType encoding) {
+    LanguageClientPool.Lease language = LanguageClientPool.acquire(clientSettings);
+    try {
+      return createExecutor(language, languageCode, encoding);
+    } catch (RuntimeException e) {
+      language.close();
+      throw e;
+    }
+  }
+
+  protected abstract NLPMethodExecutor createExecutor(LanguageClientPool.Lease language, String languageCode,
+                                                      EncodingType encoding);
 }
@@ -16,78 +16,638 @@
 
 package io.cdap.google.common;
 
-import com.google.api.gax.core.FixedCredentialsProvider;
-import com.google.auth.oauth2.GoogleCredentials;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.grpc.GrpcCallContext;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.DeadlineExceededException;
 import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.EncodingType;
 import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.cloud.language.v1.LanguageServiceSettings;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
-import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+import org.threeten.bp.Duration;
 
 import java.io.Closeable;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Abstract class that executes a method of Google Language API.
  */
 public abstract class NLPMethodExecutor implements Closeable {
+  // only waits for the retry delays and for permits of the rate limiters, the attempts themselves are asynchronous
+  private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("nlp-retry-%d").build());
+
   private final String languageCode;
-  private final LanguageServiceClient language;
+  private final LanguageClientPool.Lease language;
   protected final EncodingType encoding;
+  private ResponseCache responseCache;
+  private volatile DiskResponseCache diskCache;
+  private RetryPolicy retryPolicy = RetryPolicy.createDefault();
+  private DocumentChunker chunker;
+  private int maxPackedTexts = 1;
+  private RequestListener listener = RequestListener.NONE;
+  private SlowRequestLog slowRequestLog;
 
-  public NLPMethodExecutor(String languageCode, EncodingType encoding, LanguageServiceClient language) {
+  public NLPMethodExecutor(String languageCode, EncodingType encoding, LanguageClientPool.Lease language) {
     this.languageCode = languageCode;
     this.encoding = encoding;
     this.language = language;
   }
 
-  public MessageOrBuilder getResponse(String text) {
-    Document.Builder documentBuilder = Document.newBuilder()
-      .setContent(text)
-      .setType(Document.Type.PLAIN_TEXT);
+  /**
+   * Makes the executor look up responses in the given cache before calling the API, and store them there
+   * afterwards.
+   *
+   * @param responseCache cache to use, or null to always call the API
+   */
+  public void setResponseCache(@Nullable ResponseCache responseCache) {
+    this.responseCache = responseCache;
+  }
 
-    if (languageCode != null) {
-      documentBuilder.setLanguage(languageCode);
+  /**
+   * Makes the executor look up responses in the given persistent cache when they are not found in the in-memory
+   * cache, and store them there after calling the API. The executor takes over the reference returned by
+   * {@link DiskResponseCache#open} and closes the cache when it is closed itself.
+   *
+   * @param diskCache cache to use, or null to not use a persistent cache
+   */
+  public void setDiskCache(@Nullable DiskResponseCache diskCache) {
+    if (this.diskCache != null) {
+      this.diskCache.close();
     }
+    this.diskCache = diskCache;
+  }
 
-    return executeRequest(language, documentBuilder.build());
+  /**
+   * Caps the rate of requests sent over the client of this executor. Without a cap the rate is only limited by
+   * the errors the API returns once the quota is exhausted.
+   *
+   * @param requestsPerSecond maximum number of requests per second
+   */
+  public void setMaxRequestsPerSecond(double requestsPerSecond) {
+    language.getRateLimiter().limitRate(requestsPerSecond);
   }
 
-  public String execute(String text) {
-    MessageOrBuilder response = getResponse(text);
+  /**
+   * Sets the policy which decides whether failed requests are sent again. By default
+   * {@link RetryPolicy#createDefault()} is used.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Makes the executor split documents larger than the given size into chunks, see {@link DocumentChunker}. The
+   * chunks are sent concurrently and their responses merged into the response to the whole document, so large
+   * documents neither exceed the size limit of the API nor take as long as a single request would.
+   *
+   * @param maxDocumentBytes maximum number of bytes sent in a single request, or 0 to never split documents
+   */
+  public void setMaxDocumentBytes(int maxDocumentBytes) {
+    this.chunker = maxDocumentBytes == 0 ? null : new DocumentChunker(encoding, maxDocumentBytes);
+  }
+
+  /**
+   * Makes {@link #getResponsesAsync} pack up to the given number of texts into a single request, see
+   * {@link PackedResponses}.
+   *
+   * @param maxPackedTexts maximum number of texts sent in a single request, or 1 to send every text on its own
+   * @throws IllegalArgumentException if responses of this executor cannot be split back into a response per text
+   */
+  public void setMaxPackedTexts(int maxPackedTexts) {
+    if (maxPackedTexts > 1) {
+      PackedResponses.checkPackable(getMethod(), encoding, languageCode);
+    }
+    this.maxPackedTexts = Math.max(1, maxPackedTexts);
+  }
+
+  /**
+   * Makes the executor report the events of its requests, such as attempts, failures and cache hits, to the given
+   * listener.
+   */
+  public void setRequestListener(RequestListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Makes {@link #startTrace(String)} return traces which are handed to the given log once finished.
+   *
+   * @param slowRequestLog log to use, or null to not trace requests
+   */
+  public void setSlowRequestLog(@Nullable SlowRequestLog slowRequestLog) {
+    this.slowRequestLog = slowRequestLog;
+  }
+
+  /**
+   * Starts timing the phases of getting the output for the given text. The trace is passed to
+   * {@link #getResponseAsync(String, RequestTrace)} and finished by the caller once the output is emitted.
+   *
+   * @return a new trace, or null if no slow request log is set
+   */
+  @Nullable
+  public RequestTrace startTrace(String text) {
+    return slowRequestLog == null ? null : slowRequestLog.start(getMethod(), encoding, text);
+  }
+
+  public MessageOrBuilder getResponse(String text) {
     try {
-      String resultJson = JsonFormat.printer().print(response);
-      return resultJson;
-    } catch (InvalidProtocolBufferException e) {
-      throw new IllegalArgumentException("Cannot convert Google NLP API response to a json", e);
+      return getResponseAsync(text).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a response from Google NLP API", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Failed to get a response from Google NLP API", e.getCause());
+    }
+  }
+
+  /**
+   * Sends the request without waiting for the response. This allows the caller to keep multiple requests in
+   * flight over the same client, see {@link RequestWindow}. Failed requests are retried in the background
+   * according to the retry policy, the returned future completes once the last attempt does.
+   *
+   * If an identical request is already in flight anywhere in this JVM, no request is sent and the returned
+   * future completes with the response of the outstanding one. The returned future must not be cancelled.
+   */
+  public ApiFuture<? extends MessageOrBuilder> getResponseAsync(String text) {
+    return getResponseAsync(text, null);
+  }
+
+  /**
+   * Same as {@link #getResponseAsync(String)}, recording the phases of the request in the given trace.
+   *
+   * @param trace trace returned by {@link #startTrace(String)}, or null to not trace the request
+   */
+  public ApiFuture<? extends MessageOrBuilder> getResponseAsync(String text, @Nullable RequestTrace trace) {
+    FlightRecorderEvents.Span event = FlightRecorderEvents.beginRequest(text.length());
+    long startNanos = System.nanoTime();
+    ApiFuture<? extends MessageOrBuilder> response = getDocumentResponseAsync(text, trace);
+    recordEndToEnd(response, startNanos, event);
+    return response;
+  }
+
+  /**
+   * Records the time it took to convert a response into the output of a stage or directive.
+   */
+  public void recordConversion(long latencyNanos) {
+    MethodLatencies.of(getMethod()).get(MethodLatencies.Phase.CONVERSION).record(latencyNanos);
+    listener.onConversion(getMethod(), latencyNanos);
+  }
+
+  private ApiFuture<? extends MessageOrBuilder> getDocumentResponseAsync(String text, @Nullable RequestTrace trace) {
+    long startNanos = System.nanoTime();
+    List<DocumentChunker.Chunk> chunks = chunker == null ? null : chunker.split(text);
+    if (trace != null) {
+      trace.record(RequestTrace.Phase.BUILD, System.nanoTime() - startNanos);
+    }
+    if (chunks == null || chunks.size() == 1) {
+      return getChunkResponseAsync(text, trace);
+    }
+    List<ApiFuture<? extends MessageOrBuilder>> responses = new ArrayList<>(chunks.size());
+    for (DocumentChunker.Chunk chunk : chunks) {
+      responses.add(getChunkResponseAsync(chunk.getText(), trace));
+    }
+    return ApiFutures.transform(ApiFutures.<MessageOrBuilder>allAsList(responses),
+                                (List<MessageOrBuilder> chunkResponses) ->
+                                  ChunkedResponses.merge(getMethod(), chunks, chunkResponses),
+                                MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Sends the requests for all the given texts without waiting for the responses, packing short texts into as few
+   * requests as the maximum number of packed texts and the document size allow. Texts which have a cached response
+   * are not packed. If the response to a pack cannot be split, or the pack fails with an error which is not
+   * transient, its texts are sent again one by one.
+   *
+   * @return a future response per text, in the order of the texts
+   */
+  public List<ApiFuture<? extends MessageOrBuilder>> getResponsesAsync(List<String> texts) {
+    return getResponsesAsync(texts, null);
+  }
+
+  /**
+   * Same as {@link #getResponsesAsync(List)}, recording the phases of the requests in the given traces. Texts
+   * which share a request all get the phases of that request.
+   *
+   * @param traces a trace per text, in the order of the texts, or null to not trace the requests
+   */
+  public List<ApiFuture<? extends MessageOrBuilder>> getResponsesAsync(List<String> texts,
+                                                                       @Nullable List<RequestTrace> traces) {
+    List<ApiFuture<? extends MessageOrBuilder>> responses = new ArrayList<>(texts.size());
+    if (maxPackedTexts == 1) {
+      for (int i = 0; i < texts.size(); i++) {
+        responses.add(getResponseAsync(texts.get(i), traces == null ? null : traces.get(i)));
+      }
+      return responses;
+    }
+
+    long startNanos = System.nanoTime();
+    List<FlightRecorderEvents.Span> events = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      events.add(FlightRecorderEvents.beginRequest(text.length()));
+    }
+    int maxBytes = chunker == null ? DocumentChunker.MAX_DOCUMENT_BYTES : chunker.getMaxChunkBytes();
+    PackedResponses pack = new PackedResponses(getMethod(), encoding);
+    List<String> packedTexts = new ArrayList<>();
+    List<SettableApiFuture<MessageOrBuilder>> packedResponses = new ArrayList<>();
+    List<RequestTrace> packedTraces = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) {
+      String text = texts.get(i);
+      Message cached = getCachedResponse(getRequestKey(text));
+      if (cached == null) {
+        cached = getCachedResponse(getPackedRequestKey(text));
+      }
+      if (cached != null) {
+        listener.onCacheHit(getMethod());
+        responses.add(ApiFutures.immediateFuture(cached));
+        continue;
+      }
+      if (pack.size() == maxPackedTexts || (pack.size() > 0 && pack.sizeWith(text) > maxBytes)) {
+        sendPack(pack, packedTexts, packedResponses, packedTraces);
+        pack = new PackedResponses(getMethod(), encoding);
+        packedTexts = new ArrayList<>();
+        packedResponses = new ArrayList<>();
+        packedTraces = new ArrayList<>();
+      }
+      SettableApiFuture<MessageOrBuilder> response = SettableApiFuture.create();
+      pack.add(text);
+      packedTexts.add(text);
+      packedResponses.add(response);
+      packedTraces.add(traces == null ? null : traces.get(i));
+      responses.add(response);
+    }
+    if (pack.size() > 0) {
+      sendPack(pack, packedTexts, packedResponses, packedTraces);
+    }
+    for (int i = 0; i < responses.size(); i++) {
+      recordEndToEnd(responses.get(i), startNanos, events.get(i));
+    }
+    return responses;
+  }
+
+  /**
+   * @param traces a trace per text, with null for texts which are not traced
+   */
+  private void sendPack(PackedResponses pack, List<String> texts, List<SettableApiFuture<MessageOrBuilder>> results,
+                        List<RequestTrace> traces) {
+    if (texts.size() == 1) {
+      forward(getDocumentResponseAsync(texts.get(0), traces.get(0)), results.get(0));
+      return;
+    }
+    // the phases of the pack are collected once and added to the trace of every text in it
+    RequestTrace packTrace = traces.contains(null) ? null : new RequestTrace(null, getMethod(), encoding, 0);
+    ApiFutures.addCallback(sendAsync(pack.getDocument(), packTrace), new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        addPackTrace();
+        if (RetryPolicy.isRetryable(t)) {
+          // the retries of the pack are exhausted, sending its texts again would only add to the load
+          for (SettableApiFuture<MessageOrBuilder> result : results) {
+            result.setException(t);
+          }
+          return;
+        }
+        // the error may be caused by a single text, such as one in an unsupported language, which must not fail
+        // the other texts of the pack
+        for (int i = 0; i < texts.size(); i++) {
+          forward(getDocumentResponseAsync(texts.get(i), traces.get(i)), results.get(i));
+        }
+      }
+
+      @Override
+      public void onSuccess(MessageOrBuilder response) {
+        addPackTrace();
+        List<MessageOrBuilder> split;
+        try {
+          split = pack.split(response);
+        } catch (RuntimeException e) {
+          for (SettableApiFuture<MessageOrBuilder> result : results) {
+            result.setException(e);
+          }
+          return;
+        }
+        for (int i = 0; i < texts.size(); i++) {
+          if (split == null) {
+            // the texts were not analyzed independently of each other
+            forward(getDocumentResponseAsync(texts.get(i), traces.get(i)), results.get(i));
+          } else {
+            cacheResponse(getPackedRequestKey(texts.get(i)), split.get(i));
+            results.get(i).set(split.get(i));
+          }
+        }
+      }
+
+      private void addPackTrace() {
+        if (packTrace != null) {
+          for (RequestTrace trace : traces) {
+            trace.add(packTrace);
+          }
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void recordEndToEnd(ApiFuture<? extends MessageOrBuilder> response, long startNanos,
+                              FlightRecorderEvents.Span event) {
+    LatencyHistogram endToEnd = MethodLatencies.of(getMethod()).get(MethodLatencies.Phase.END_TO_END);
+    ApiFutures.addCallback(response, new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        endToEnd.record(System.nanoTime() - startNanos);
+        event.finish(getMethod(), null, getStatus(t));
+      }
+
+      @Override
+      public void onSuccess(MessageOrBuilder result) {
+        endToEnd.record(System.nanoTime() - startNanos);
+        event.finish(getMethod(), result, null);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private static void forward(ApiFuture<? extends MessageOrBuilder> from, SettableApiFuture<MessageOrBuilder> to) {
+    ApiFutures.addCallback(from, new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        to.setException(t);
+      }
+
+      @Override
+      public void onSuccess(MessageOrBuilder response) {
+        to.set(response);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Gets the response to a text which is sent in a single request, from a cache, an identical request in flight
+   * or the API.
+   */
+  private ApiFuture<? extends MessageOrBuilder> getChunkResponseAsync(String text, @Nullable RequestTrace trace) {
+    RequestKey key = getRequestKey(text);
+    Message cached = getCachedResponse(key);
+    if (cached != null) {
+      listener.onCacheHit(getMethod());
+      return ApiFutures.immediateFuture(cached);
     }
+    return InFlightRequests.join(key, () -> {
+      // an identical request may have completed between the lookup above and this one becoming in flight
+      Message completed = getCachedResponse(key);
+      if (completed != null) {
+        listener.onCacheHit(getMethod());
+        return ApiFutures.<MessageOrBuilder>immediateFuture(completed);
+      }
+      return ApiFutures.transform(sendAsync(text, trace),
+                                  (MessageOrBuilder response) -> {
+                                    cacheResponse(key, response);
+                                    return response;
+                                  }, MoreExecutors.directExecutor());
+    });
+  }
+
+  public String execute(String text) {
+    return toJson(getResponse(text));
   }
 
+  /**
+   * Converts a response returned by {@link #getResponse} or {@link #getResponseAsync} to json.
+   */
+  public static String toJson(MessageOrBuilder response) {
+    return ResponseJsonWriter.PRETTY.toJson(response);
+  }
+
+  /**
+   * Releases the language client and the disk cache. Each of them is closed once no other executor in this JVM
+   * uses it.
+   */
   @Override
   public void close() {
-    if (language != null) {
-      language.close();
+    language.close();
+    if (diskCache != null) {
+      diskCache.close();
+      diskCache = null;
+    }
+  }
+
+  /**
+   * @return the method this executor calls
+   */
+  public abstract NLPMethod getMethod();
+
+  private ApiFuture<MessageOrBuilder> sendAsync(String text, @Nullable RequestTrace trace) {
+    long startNanos = System.nanoTime();
+    SettableApiFuture<MessageOrBuilder> result = SettableApiFuture.create();
+    // the API bills every started 1000 characters of a document, once per feature
+    int billingUnits = Math.max(1, (text.codePointCount(0, text.length()) + 999) / 1000) * getBilledFeatures();
+    Document document = createDocument(text);
+    if (trace != null) {
+      trace.record(RequestTrace.Phase.BUILD, System.nanoTime() - startNanos);
     }
+    attempt(document, billingUnits, retryPolicy.start(), result, trace);
+    return result;
   }
 
-  protected abstract MessageOrBuilder executeRequest(LanguageServiceClient language, Document document);
+  /**
+   * Sends a single attempt of the request once the rate limiter permits it, and schedules the next one if it fails
+   * with a retryable error.
+   */
+  private void attempt(Document document, int billingUnits, RetryPolicy.Attempts attempts,
+                       SettableApiFuture<MessageOrBuilder> result, @Nullable RequestTrace trace) {
+    FlightRecorderEvents.Span waitEvent = FlightRecorderEvents.beginTokenWait(document.getContent().length());
+    attemptWhenPermitted(document, billingUnits, attempts, result, trace, waitEvent, System.nanoTime());
+  }
 
-  public static LanguageServiceClient createLanguageServiceClient(String serviceFilePath) {
-    LanguageServiceSettings.Builder languageServiceSettingsBuilder = LanguageServiceSettings.newBuilder();
+  /**
+   * Takes a permit from the rate limiter and sends the attempt. The limiter is never waited for on the calling
+   * thread, instead the attempt is scheduled again once the limiter expects a permit to be available, so that a
+   * throttled client does not hold up the retries of other clients.
+   */
+  private void attemptWhenPermitted(Document document, int billingUnits, RetryPolicy.Attempts attempts,
+                                    SettableApiFuture<MessageOrBuilder> result, @Nullable RequestTrace trace,
+                                    FlightRecorderEvents.Span waitEvent, long waitStartNanos) {
+    long delayNanos = language.getRateLimiter().tryAcquire();
+    if (delayNanos > 0 && delayNanos < TimeUnit.MILLISECONDS.toNanos(attempts.getRemainingMillis())) {
+      RETRY_SCHEDULER.schedule(() -> attemptWhenPermitted(document, billingUnits, attempts, result, trace,
+                                                          waitEvent, waitStartNanos),
+                               delayNanos, TimeUnit.NANOSECONDS);
+      return;
+    }
+
+    waitEvent.finish(getMethod(), null, null);
+    if (trace != null) {
+      trace.record(RequestTrace.Phase.TOKEN_WAIT, System.nanoTime() - waitStartNanos);
+    }
+    if (delayNanos > 0) {
+      result.setException(new DeadlineExceededException(
+        "Record deadline passed while waiting for the rate limit of Google NLP API", null,
+        GrpcStatusCode.of(Status.Code.DEADLINE_EXCEEDED), false));
+      return;
+    }
+    send(document, billingUnits, attempts, result, trace);
+  }
+
+  private void send(Document document, int billingUnits, RetryPolicy.Attempts attempts,
+                    SettableApiFuture<MessageOrBuilder> result, @Nullable RequestTrace trace) {
+    AdaptiveRateLimiter rateLimiter = language.getRateLimiter();
+    LatencyHistogram rpcLatency = MethodLatencies.of(getMethod()).get(MethodLatencies.Phase.RPC);
+    ApiFuture<? extends MessageOrBuilder> future;
+    int textLength = document.getContent().length();
+    FlightRecorderEvents.Span rpcEvent = FlightRecorderEvents.beginRpc(textLength);
+    long startNanos = System.nanoTime();
     try {
-      if (serviceFilePath != null) {
+      // each attempt may only take the time left until the record deadline
+      ApiCallContext context = GrpcCallContext.createDefault()
+        .withTimeout(Duration.ofMillis(Math.max(1, attempts.getRemainingMillis())));
+      listener.onRequest(getMethod(), document.getSerializedSize());
+      future = executeRequestAsync(language.getClient(), document, context);
+    } catch (RuntimeException e) {
+      rateLimiter.release(e);
+      rpcEvent.finish(getMethod(), null, getStatus(e));
+      result.setException(e);
+      return;
+    }
+    ApiFutures.addCallback(future, new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        rateLimiter.release(t);
+        long latencyNanos = System.nanoTime() - startNanos;
+        rpcLatency.record(latencyNanos);
+        String status = getStatus(t);
+        rpcEvent.finish(getMethod(), null, status);
+        listener.onFailure(getMethod(), latencyNanos, status);
+        if (trace != null) {
+          trace.record(RequestTrace.Phase.RPC, latencyNanos);
+        }
+        long delayMillis = attempts.nextDelayMillis(t);
+        if (delayMillis < 0) {
+          result.setException(t);
+          return;
+        }
+        listener.onRetry(getMethod());
+        FlightRecorderEvents.Span backoffEvent = FlightRecorderEvents.beginBackoff(textLength);
+        long backoffStartNanos = System.nanoTime();
+        if (trace != null) {
+          trace.onRetry();
+        }
+        RETRY_SCHEDULER.schedule(() -> {
+          backoffEvent.finish(getMethod(), null, status);
+          if (trace != null) {
+            trace.record(RequestTrace.Phase.BACKOFF, System.nanoTime() - backoffStartNanos);
+          }
+          attempt(document, billingUnits, attempts, result, trace);
+        }, delayMillis, TimeUnit.MILLISECONDS);
+      }
 
-          GoogleCredentials credentials = GoogleCredentials.fromStream(new FileInputStream(serviceFilePath));
-          languageServiceSettingsBuilder.setCredentialsProvider(FixedCredentialsProvider.create(credentials));
+      @Override
+      public void onSuccess(MessageOrBuilder response) {
+        rateLimiter.release(null);
+        long latencyNanos = System.nanoTime() - startNanos;
+        rpcLatency.record(latencyNanos);
+        rpcEvent.finish(getMethod(), response, null);
+        if (trace != null) {
+          trace.record(RequestTrace.Phase.RPC, latencyNanos);
+        }
+        int responseBytes = response instanceof Message ? ((Message) response).getSerializedSize() : 0;
+        listener.onResponse(getMethod(), latencyNanos, responseBytes, billingUnits);
+        result.set(response);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private static String getStatus(Throwable t) {
+    return t instanceof ApiException ? ((ApiException) t).getStatusCode().getCode().name() : "UNKNOWN";
+  }
+
+  private RequestKey getRequestKey(String text) {
+    return RequestKey.of(language.getSettings(), getMethod(), languageCode, encoding, getRequestVariant(), text);
+  }
+
+  /**
+   * Responses split from a pack are cached separately, as parts of them, such as the document sentiment, are
+   * approximated from the rest of the response instead of returned by the API. They are only used by callers
+   * which pack texts themselves.
+   */
+  private RequestKey getPackedRequestKey(String text) {
+    return RequestKey.of(language.getSettings(), getMethod(), languageCode, encoding,
+                         getRequestVariant() + "/packed", text);
+  }
+
+  @Nullable
+  private Message getCachedResponse(RequestKey key) {
+    Message cached = responseCache == null ? null : responseCache.get(key);
+    // read once, as the executor may be closed while responses are still arriving
+    DiskResponseCache diskCache = this.diskCache;
+    if (cached == null && diskCache != null) {
+      cached = diskCache.get(key, getMethod().getResponseParser());
+      if (cached != null && responseCache != null) {
+        responseCache.put(key, cached);
       }
-      return LanguageServiceClient.create(languageServiceSettingsBuilder.build());
-    } catch (IOException e) {
-      throw new IllegalArgumentException(
-        String.format("Cannot read credentials from service account key file '%s' or create a language client",
-                      serviceFilePath), e);
     }
+    return cached;
   }
+
+  private void cacheResponse(RequestKey key, MessageOrBuilder response) {
+    if (!(response instanceof Message)) {
+      return;
+    }
+    if (responseCache != null) {
+      responseCache.put(key, (Message) response);
+    }
+    DiskResponseCache diskCache = this.diskCache;
+    if (diskCache != null) {
+      diskCache.put(key, (Message) response);
+    }
+  }
+
+  private Document createDocument(String text) {
+    Document.Builder documentBuilder = Document.newBuilder()
+      .setContent(text)
+      .setType(Document.Type.PLAIN_TEXT);
+
+    if (languageCode != null) {
+      documentBuilder.setLanguage(languageCode);
+    }
+
+    return documentBuilder.build();
+  }
+
+  /**
+   * Describes request options specific to the method which change the response, so that responses to requests
+   * with different options are cached separately.
+   */
+  protected String getRequestVariant() {
+    return "";
+  }
+
+  /**
+   * @return number of features a request of this executor is billed for
+   */
+  protected int getBilledFeatures() {
+    return 1;
+  }
+
+  /**
+   * Sends a single request to the API.
+   *
+   * @param context call context which sets the timeout of the request
+   */
+  protected abstract ApiFuture<? extends MessageOrBuilder> executeRequestAsync(LanguageServiceClient language,
+                                                                                Document document,
+                                                                                ApiCallContext context);
 }
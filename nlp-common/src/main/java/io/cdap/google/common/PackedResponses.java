@@ -0,0 +1,221 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Packs short texts into a single document, separated by blank lines, and splits the response to that document
+ * back into a response per text. Only responses made of sentences and tokens can be split: sentiment analysis and
+ * syntax analysis. Entities, their salience and the categories of a text are computed over the whole document, so
+ * the results for a text would depend on the texts packed with it.
+ *
+ * When a sentence or a token of the response crosses the boundary between two texts, the pack cannot be split
+ * and {@link #split} returns null.
+ */
+public final class PackedResponses {
+  static final String SEPARATOR = "\n\n";
+
+  private final NLPMethod method;
+  private final EncodingType encoding;
+  private final StringBuilder document = new StringBuilder();
+  private final List<Integer> offsets = new ArrayList<>();
+  private final List<Integer> lengths = new ArrayList<>();
+  private int documentOffset;
+  private int documentBytes;
+
+  PackedResponses(NLPMethod method, EncodingType encoding) {
+    this.method = method;
+    this.encoding = encoding;
+  }
+
+  /**
+   * Checks that responses to packed texts can be split back for the given request settings.
+   *
+   * @throws IllegalArgumentException if they cannot
+   */
+  public static void checkPackable(NLPMethod method, EncodingType encoding, @Nullable String languageCode) {
+    if (method != NLPMethod.ANALYZE_SENTIMENT && method != NLPMethod.ANALYZE_SYNTAX) {
+      throw new IllegalArgumentException(String.format(
+        "Texts cannot be packed for %s, only for %s and %s, whose results do not depend on the rest of the document",
+        method.getValue(), NLPMethod.ANALYZE_SENTIMENT.getValue(), NLPMethod.ANALYZE_SYNTAX.getValue()));
+    }
+    if (encoding == EncodingType.NONE) {
+      throw new IllegalArgumentException("Texts can only be packed with an encoding, since the response is split " +
+                                           "by the offsets it only has with an encoding");
+    }
+    if (languageCode == null || languageCode.isEmpty()) {
+      throw new IllegalArgumentException("Texts can only be packed with a language code, otherwise the language " +
+                                           "detected for the whole pack would be applied to every text");
+    }
+  }
+
+  /**
+   * @return size in bytes of the document if the given text was added
+   */
+  int sizeWith(String text) {
+    int separator = document.length() == 0 ? 0 : DocumentChunker.sizeOf(encoding, SEPARATOR);
+    return documentBytes + separator + DocumentChunker.sizeOf(encoding, text);
+  }
+
+  void add(String text) {
+    documentBytes = sizeWith(text);
+    if (document.length() > 0) {
+      document.append(SEPARATOR);
+      documentOffset += DocumentChunker.offsetOf(encoding, SEPARATOR);
+    }
+    int length = DocumentChunker.offsetOf(encoding, text);
+    offsets.add(documentOffset);
+    lengths.add(length);
+    document.append(text);
+    documentOffset += length;
+  }
+
+  int size() {
+    return offsets.size();
+  }
+
+  String getDocument() {
+    return document.toString();
+  }
+
+  /**
+   * @return a response per packed text in the order they were added, or null if the response cannot be split
+   */
+  @Nullable
+  List<MessageOrBuilder> split(MessageOrBuilder response) {
+    List<List<Sentence>> sentences = new ArrayList<>(size());
+    List<List<Token>> tokens = new ArrayList<>(size());
+    for (int i = 0; i < size(); i++) {
+      sentences.add(new ArrayList<>());
+      tokens.add(new ArrayList<>());
+    }
+
+    List<Sentence> packedSentences;
+    List<Token> packedTokens;
+    String language;
+    if (method == NLPMethod.ANALYZE_SENTIMENT) {
+      AnalyzeSentimentResponse sentimentResponse = (AnalyzeSentimentResponse) response;
+      packedSentences = sentimentResponse.getSentencesList();
+      packedTokens = new ArrayList<>();
+      language = sentimentResponse.getLanguage();
+    } else {
+      AnalyzeSyntaxResponse syntaxResponse = (AnalyzeSyntaxResponse) response;
+      packedSentences = syntaxResponse.getSentencesList();
+      packedTokens = syntaxResponse.getTokensList();
+      language = syntaxResponse.getLanguage();
+    }
+
+    for (Sentence sentence : packedSentences) {
+      int text = findText(sentence.getText());
+      if (text < 0) {
+        return null;
+      }
+      sentences.get(text).add(sentence.toBuilder().setText(shift(sentence.getText(), text)).build());
+    }
+
+    int[] textOfToken = new int[packedTokens.size()];
+    int[] indexInText = new int[packedTokens.size()];
+    for (int i = 0; i < packedTokens.size(); i++) {
+      textOfToken[i] = findText(packedTokens.get(i).getText());
+      if (textOfToken[i] < 0) {
+        return null;
+      }
+      indexInText[i] = tokens.get(textOfToken[i]).size();
+      tokens.get(textOfToken[i]).add(packedTokens.get(i));
+    }
+    for (int i = 0; i < packedTokens.size(); i++) {
+      Token token = packedTokens.get(i);
+      int head = token.getDependencyEdge().getHeadTokenIndex();
+      // a dependency on a token of another text means the parser saw the texts as one
+      if (head < 0 || head >= packedTokens.size() || textOfToken[head] != textOfToken[i]) {
+        return null;
+      }
+      Token.Builder builder = token.toBuilder().setText(shift(token.getText(), textOfToken[i]));
+      builder.getDependencyEdgeBuilder().setHeadTokenIndex(indexInText[head]);
+      tokens.get(textOfToken[i]).set(indexInText[i], builder.build());
+    }
+
+    List<MessageOrBuilder> responses = new ArrayList<>(size());
+    for (int i = 0; i < size(); i++) {
+      if (method == NLPMethod.ANALYZE_SENTIMENT) {
+        responses.add(AnalyzeSentimentResponse.newBuilder()
+                        .setDocumentSentiment(getDocumentSentiment(sentences.get(i)))
+                        .addAllSentences(sentences.get(i))
+                        .setLanguage(language)
+                        .build());
+      } else {
+        responses.add(AnalyzeSyntaxResponse.newBuilder()
+                        .addAllSentences(sentences.get(i))
+                        .addAllTokens(tokens.get(i))
+                        .setLanguage(language)
+                        .build());
+      }
+    }
+    return responses;
+  }
+
+  /**
+   * @return index of the text the span lies in, or -1 if it does not lie within a single text
+   */
+  private int findText(TextSpan span) {
+    int begin = span.getBeginOffset();
+    int end = begin + DocumentChunker.offsetOf(encoding, span.getContent());
+    for (int i = 0; i < size(); i++) {
+      int textBegin = offsets.get(i);
+      if (begin >= textBegin && begin < textBegin + lengths.get(i)) {
+        return end <= textBegin + lengths.get(i) ? i : -1;
+      }
+    }
+    return -1;
+  }
+
+  private TextSpan shift(TextSpan span, int text) {
+    return span.toBuilder().setBeginOffset(span.getBeginOffset() - offsets.get(text)).build();
+  }
+
+  /**
+   * The sentiment of a text is combined from the sentiment of its sentences: the score is averaged weighted by the
+   * length of the sentences and the magnitudes are added up.
+   */
+  private static Sentiment getDocumentSentiment(List<Sentence> sentences) {
+    double weightedScore = 0;
+    double length = 0;
+    double magnitude = 0;
+    for (Sentence sentence : sentences) {
+      int sentenceLength = sentence.getText().getContent().length();
+      weightedScore += sentence.getSentiment().getScore() * sentenceLength;
+      length += sentenceLength;
+      magnitude += sentence.getSentiment().getMagnitude();
+    }
+    return Sentiment.newBuilder()
+      .setScore(length == 0 ? 0 : (float) (weightedScore / length))
+      .setMagnitude((float) magnitude)
+      .build();
+  }
+}
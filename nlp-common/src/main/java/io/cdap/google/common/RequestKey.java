@@ -0,0 +1,124 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Identifies the response of a Language API request by a SHA-256 hash of everything the response depends on:
+ * the service the request is sent to and the credentials it is sent with, the text, the method, the language code,
+ * the encoding type and method specific options, such as the features requested from {@link AnotateText}.
+ */
+public final class RequestKey {
+  public static final int SIZE = 32;
+
+  private final byte[] digest;
+  private final int hashCode;
+
+  private RequestKey(byte[] digest) {
+    this.digest = digest;
+    this.hashCode = Arrays.hashCode(digest);
+  }
+
+  public static RequestKey of(LanguageClientSettings settings, NLPMethod method, @Nullable String languageCode,
+                              EncodingType encoding, String text) {
+    return of(settings, method, languageCode, encoding, "", text);
+  }
+
+  /**
+   * @param settings settings of the client the request is sent with, the size of the channel pool is ignored as it
+   *                 does not affect responses
+   * @param variant method specific options of the request, see {@link NLPMethodExecutor#getRequestVariant()}
+   */
+  public static RequestKey of(LanguageClientSettings settings, NLPMethod method, @Nullable String languageCode,
+                              EncodingType encoding, String variant, String text) {
+    MessageDigest messageDigest = newDigest();
+    update(messageDigest, settings.getServiceFilePath() == null ? "" : settings.getServiceFilePath());
+    update(messageDigest, settings.getEndpoint() == null ? "" : settings.getEndpoint());
+    update(messageDigest, settings.isPlaintext() ? "plaintext" : "tls");
+    update(messageDigest, method.name());
+    update(messageDigest, languageCode == null ? "" : languageCode);
+    update(messageDigest, encoding.name());
+    update(messageDigest, variant);
+    update(messageDigest, text);
+    return new RequestKey(messageDigest.digest());
+  }
+
+  /**
+   * Creates a key from a digest previously obtained through {@link #getDigest()}.
+   */
+  public static RequestKey fromDigest(byte[] digest) {
+    if (digest.length != SIZE) {
+      throw new IllegalArgumentException(String.format("Digest must be %d bytes long, but was %d",
+                                                       SIZE, digest.length));
+    }
+    return new RequestKey(Arrays.copyOf(digest, SIZE));
+  }
+
+  public byte[] getDigest() {
+    return Arrays.copyOf(digest, SIZE);
+  }
+
+  /**
+   * Returns the digest without copying it, callers must not modify it.
+   */
+  byte[] digest() {
+    return digest;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  /**
+   * Length-prefixes every component, so that different combinations of components can never hash the same input.
+   */
+  private static void update(MessageDigest messageDigest, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = bytes.length;
+    messageDigest.update(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16),
+      (byte) (length >>> 8), (byte) length});
+    messageDigest.update(bytes);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return Arrays.equals(digest, ((RequestKey) o).digest);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
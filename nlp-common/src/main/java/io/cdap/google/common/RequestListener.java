@@ -0,0 +1,75 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+/**
+ * Receives the events of the requests an {@link NLPMethodExecutor} makes, to record metrics about them.
+ * Callbacks are made on the threads which complete the requests, so implementations must be thread safe, and
+ * they should return quickly.
+ */
+public interface RequestListener {
+
+  /**
+   * A listener which ignores all events.
+   */
+  RequestListener NONE = new RequestListener() { };
+
+  /**
+   * Called when an attempt of a request is sent to the API.
+   *
+   * @param requestBytes serialized size of the document sent
+   */
+  default void onRequest(NLPMethod method, int requestBytes) {
+  }
+
+  /**
+   * Called when an attempt of a request succeeds.
+   *
+   * @param latencyNanos time from sending the attempt until its response arrived
+   * @param responseBytes serialized size of the response
+   * @param billingUnits number of units the request is billed, 1000 characters per feature requested
+   */
+  default void onResponse(NLPMethod method, long latencyNanos, int responseBytes, int billingUnits) {
+  }
+
+  /**
+   * Called when an attempt of a request fails, whether it is retried or not.
+   *
+   * @param status gRPC status code of the failure, or UNKNOWN if it did not come from the API
+   */
+  default void onFailure(NLPMethod method, long latencyNanos, String status) {
+  }
+
+  /**
+   * Called when a failed attempt is going to be followed by another one.
+   */
+  default void onRetry(NLPMethod method) {
+  }
+
+  /**
+   * Called when a response is found in a cache instead of being requested.
+   */
+  default void onCacheHit(NLPMethod method) {
+  }
+
+  /**
+   * Called when a response was converted into the output of a stage or directive, see
+   * {@link NLPMethodExecutor#recordConversion(long)}.
+   */
+  default void onConversion(NLPMethod method, long latencyNanos) {
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
+
+/**
+ * Time spent in each phase of getting the output for a single text, from the moment the text is picked up until
+ * its output is emitted. Traces are created by {@link NLPMethodExecutor#startTrace(String)} and handed to
+ * {@link SlowRequestLog} once {@link #finish(Throwable)} is called.
+ *
+ * Phases are accumulated, so when a text is split into chunks which are sent concurrently, the time of all chunks
+ * is added up and may exceed the total. Time not spent in any phase, such as waiting for a free slot of a
+ * {@link RequestWindow} or for an identical request in flight, is reported as other.
+ */
+public final class RequestTrace {
+
+  /**
+   * A phase of getting the output for a text.
+   */
+  public enum Phase {
+    // splitting or packing texts and building the request documents
+    BUILD("build"),
+    // waiting for a token of the rate limiter before an attempt is sent
+    TOKEN_WAIT("tokenWait"),
+    // attempts in flight, including the credentials the client fetches or refreshes while sending them
+    RPC("rpc"),
+    // waiting between a failed attempt and the next one
+    BACKOFF("backoff"),
+    // converting the response into a record
+    CONVERSION("conversion"),
+    // emitting the record or the error
+    EMIT("emit");
+
+    private final String value;
+
+    Phase(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  private final SlowRequestLog log;
+  private final NLPMethod method;
+  private final EncodingType encoding;
+  private final int textLength;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+  private final AtomicInteger retries = new AtomicInteger();
+
+  /**
+   * @param log log the trace is handed to once finished, or null if it is only used to collect the phases of
+   *            a request shared by several texts
+   */
+  RequestTrace(@Nullable SlowRequestLog log, NLPMethod method, EncodingType encoding, int textLength) {
+    this.log = log;
+    this.method = method;
+    this.encoding = encoding;
+    this.textLength = textLength;
+  }
+
+  /**
+   * Adds the given time to a phase.
+   */
+  public void record(Phase phase, long nanos) {
+    phaseNanos.addAndGet(phase.ordinal(), nanos);
+  }
+
+  public long getNanos(Phase phase) {
+    return phaseNanos.get(phase.ordinal());
+  }
+
+  public int getRetries() {
+    return retries.get();
+  }
+
+  void onRetry() {
+    retries.incrementAndGet();
+  }
+
+  /**
+   * Adds the phases and retries of a request which was made for several texts, such as a pack, to this trace.
+   */
+  void add(RequestTrace shared) {
+    for (Phase phase : Phase.values()) {
+      record(phase, shared.getNanos(phase));
+    }
+    retries.addAndGet(shared.getRetries());
+  }
+
+  /**
+   * Ends the trace once the output of the text was emitted, and logs it if it was slow or is sampled.
+   *
+   * @param failure failure the text was handled with, or null if its output was emitted
+   */
+  public void finish(@Nullable Throwable failure) {
+    if (log != null) {
+      log.log(this, System.nanoTime() - startNanos, failure);
+    }
+  }
+
+  /**
+   * @return the phases and properties of the request, in a form fit for a log message
+   */
+  String describe(long totalNanos, @Nullable Throwable failure) {
+    StringBuilder builder = new StringBuilder()
+      .append("method=").append(method.getValue())
+      .append(", textLength=").append(textLength)
+      .append(", encoding=").append(encoding)
+      .append(", retries=").append(getRetries());
+    if (failure != null) {
+      builder.append(", failure=").append(failure.getClass().getSimpleName());
+    }
+    builder.append(", totalMs=").append(toMillis(totalNanos));
+    long otherNanos = totalNanos;
+    for (Phase phase : Phase.values()) {
+      long nanos = getNanos(phase);
+      otherNanos -= nanos;
+      builder.append(", ").append(phase.getValue()).append("Ms=").append(toMillis(nanos));
+    }
+    return builder.append(", otherMs=").append(toMillis(Math.max(0, otherNanos))).toString();
+  }
+
+  private static String toMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
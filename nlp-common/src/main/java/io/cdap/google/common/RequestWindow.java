@@ -0,0 +1,140 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps a bounded number of asynchronous Language API requests in flight. Results are handed to a
+ * {@link ResultHandler} in the order the responses complete, always on the thread which calls
+ * {@link #submit} or {@link #flush}, so handlers do not need to be thread safe.
+ *
+ * A window is not thread safe and is meant to be driven by a single thread.
+ *
+ * @param <T> type of the item a request is made for
+ */
+public final class RequestWindow<T> {
+  private final int maxInFlight;
+  private final ResultHandler<T> handler;
+  private final BlockingQueue<Result<T>> completed = new LinkedBlockingQueue<>();
+  private int inFlight;
+
+  public RequestWindow(int maxInFlight, ResultHandler<T> handler) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException(
+        String.format("Maximum number of in-flight requests must be positive, but was %d", maxInFlight));
+    }
+    this.maxInFlight = maxInFlight;
+    this.handler = handler;
+  }
+
+  /**
+   * Handles results which are already available, waits until there is room in the window and sends the request.
+   *
+   * @param item item the request is made for, it is passed back to the handler together with the response
+   * @param request starts the request
+   */
+  public void submit(T item, Supplier<ApiFuture<? extends MessageOrBuilder>> request) throws Exception {
+    Result<T> result;
+    while ((result = completed.poll()) != null) {
+      handle(result);
+    }
+    while (inFlight >= maxInFlight) {
+      handle(completed.take());
+    }
+
+    ApiFuture<? extends MessageOrBuilder> future;
+    try {
+      future = request.get();
+    } catch (RuntimeException e) {
+      handler.onResult(item, null, e);
+      return;
+    }
+
+    inFlight++;
+    ApiFutures.addCallback(future, new ApiFutureCallback<MessageOrBuilder>() {
+      @Override
+      public void onFailure(Throwable t) {
+        Exception failure = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+        completed.add(new Result<>(item, null, failure));
+      }
+
+      @Override
+      public void onSuccess(MessageOrBuilder response) {
+        completed.add(new Result<>(item, response, null));
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Waits for all requests in flight and handles their results.
+   */
+  public void flush() throws Exception {
+    while (inFlight > 0) {
+      handle(completed.take());
+    }
+  }
+
+  /**
+   * @return number of requests whose results have not been handled yet
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  private void handle(Result<T> result) throws Exception {
+    inFlight--;
+    handler.onResult(result.item, result.response, result.failure);
+  }
+
+  /**
+   * Receives the outcome of a request sent through a {@link RequestWindow}.
+   *
+   * @param <T> type of the item a request is made for
+   */
+  public interface ResultHandler<T> {
+
+    /**
+     * Called once per submitted item, with either a response or a failure.
+     */
+    void onResult(T item, @Nullable MessageOrBuilder response, @Nullable Exception failure) throws Exception;
+  }
+
+  /**
+   * Outcome of a single request.
+   */
+  private static final class Result<T> {
+    private final T item;
+    private final MessageOrBuilder response;
+    private final Exception failure;
+
+    private Result(T item, @Nullable MessageOrBuilder response, @Nullable Exception failure) {
+      this.item = item;
+      this.response = response;
+      this.failure = failure;
+    }
+  }
+}
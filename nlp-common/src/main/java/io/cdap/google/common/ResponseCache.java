@@ -0,0 +1,95 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.protobuf.Message;
+
+import javax.annotation.Nullable;
+
+/**
+ * A bounded in-memory cache of Language API responses, keyed by {@link RequestKey}. Entries are weighed by the
+ * serialized size of the response and evicted least recently used first once the total weight exceeds the
+ * capacity.
+ *
+ * A single instance is shared by all the plugin stages and directives in a JVM, see {@link #shared(long)}.
+ */
+public final class ResponseCache {
+  private static final ResponseCache SHARED = new ResponseCache();
+
+  private volatile Cache<RequestKey, Message> cache;
+  private volatile long capacityBytes;
+  private CacheStats previousStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+  private ResponseCache() {
+    this.cache = CacheBuilder.newBuilder().maximumSize(0).build();
+  }
+
+  /**
+   * Creates a cache which is not shared, only meant for tests.
+   */
+  ResponseCache(long capacityBytes) {
+    this();
+    ensureCapacity(capacityBytes);
+  }
+
+  /**
+   * Returns the cache shared by the whole JVM, making sure it can hold at least the given number of bytes.
+   * The shared cache is as large as the largest capacity any of its users asked for.
+   */
+  public static ResponseCache shared(long capacityBytes) {
+    SHARED.ensureCapacity(capacityBytes);
+    return SHARED;
+  }
+
+  @Nullable
+  public Message get(RequestKey key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void put(RequestKey key, Message response) {
+    cache.put(key, response);
+  }
+
+  public long getCapacityBytes() {
+    return capacityBytes;
+  }
+
+  /**
+   * @return hit, miss and eviction counts accumulated since this JVM started
+   */
+  public synchronized CacheStats getStats() {
+    return previousStats.plus(cache.stats());
+  }
+
+  private synchronized void ensureCapacity(long capacityBytes) {
+    if (capacityBytes <= this.capacityBytes) {
+      return;
+    }
+    Cache<RequestKey, Message> resized = CacheBuilder.newBuilder()
+      .maximumWeight(capacityBytes)
+      .weigher((RequestKey key, Message response) -> RequestKey.SIZE + response.getSerializedSize())
+      .recordStats()
+      .build();
+    resized.putAll(cache.asMap());
+    previousStats = previousStats.plus(cache.stats());
+    this.capacityBytes = capacityBytes;
+    this.cache = resized;
+  }
+}
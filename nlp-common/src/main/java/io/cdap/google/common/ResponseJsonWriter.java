@@ -0,0 +1,445 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.ProtocolMessageEnum;
+import com.google.protobuf.util.JsonFormat;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the responses of the six Language API methods as json, producing a document equivalent to the one
+ * {@link JsonFormat} prints: it parses to the same fields and values, but strings may be escaped differently, e.g.
+ * {@code <}, {@code >}, {@code &}, {@code =} and {@code '} are written as they are rather than as unicode escapes.
+ * Fields are written straight from the generated getters into a buffer, without the reflection {@link JsonFormat}
+ * goes through, and the buffer of each thread is reused from call to call.
+ *
+ * Writers are immutable and can be shared by threads.
+ */
+public final class ResponseJsonWriter {
+  /**
+   * Indented json without fields which have default values, like {@link JsonFormat#printer()} prints.
+   */
+  public static final ResponseJsonWriter PRETTY = new ResponseJsonWriter(true, false);
+  /**
+   * Json without any whitespace and without fields which have default values.
+   */
+  public static final ResponseJsonWriter COMPACT = new ResponseJsonWriter(false, false);
+
+  // buffers which grew bigger than this are not kept for the next call, so that a single huge response does not
+  // hold on to memory for the lifetime of the thread
+  private static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+  private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+  private static final JsonFormat.Printer FALLBACK_PRINTER = JsonFormat.printer();
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final boolean pretty;
+  private final boolean includeDefaults;
+
+  private ResponseJsonWriter(boolean pretty, boolean includeDefaults) {
+    this.pretty = pretty;
+    this.includeDefaults = includeDefaults;
+  }
+
+  /**
+   * @param pretty whether the json is indented
+   * @param includeDefaults whether fields which have default values, such as a score of 0 or an empty list, are
+   *                        written. Nested messages which are not set are never written.
+   */
+  public static ResponseJsonWriter create(boolean pretty, boolean includeDefaults) {
+    return new ResponseJsonWriter(pretty, includeDefaults);
+  }
+
+  public String toJson(MessageOrBuilder response) {
+    StringBuilder buffer = BUFFERS.get();
+    buffer.setLength(0);
+    try {
+      write(response, buffer);
+      return buffer.toString();
+    } finally {
+      if (buffer.capacity() > MAX_REUSED_BUFFER_SIZE) {
+        BUFFERS.remove();
+      }
+    }
+  }
+
+  /**
+   * Appends the json of the response to the buffer. Messages other than the responses of the six methods are
+   * printed with {@link JsonFormat}.
+   */
+  public void write(MessageOrBuilder response, StringBuilder buffer) {
+    Output out = new Output(buffer);
+    if (response instanceof AnalyzeEntitiesResponse) {
+      AnalyzeEntitiesResponse message = (AnalyzeEntitiesResponse) response;
+      out.beginObject();
+      writeEntities(out, message.getEntitiesList());
+      out.string("language", message.getLanguage());
+      out.endObject();
+    } else if (response instanceof AnalyzeEntitySentimentResponse) {
+      AnalyzeEntitySentimentResponse message = (AnalyzeEntitySentimentResponse) response;
+      out.beginObject();
+      writeEntities(out, message.getEntitiesList());
+      out.string("language", message.getLanguage());
+      out.endObject();
+    } else if (response instanceof AnalyzeSentimentResponse) {
+      AnalyzeSentimentResponse message = (AnalyzeSentimentResponse) response;
+      out.beginObject();
+      if (message.hasDocumentSentiment()) {
+        writeSentiment(out, "documentSentiment", message.getDocumentSentiment());
+      }
+      out.string("language", message.getLanguage());
+      writeSentences(out, message.getSentencesList());
+      out.endObject();
+    } else if (response instanceof AnalyzeSyntaxResponse) {
+      AnalyzeSyntaxResponse message = (AnalyzeSyntaxResponse) response;
+      out.beginObject();
+      writeSentences(out, message.getSentencesList());
+      writeTokens(out, message.getTokensList());
+      out.string("language", message.getLanguage());
+      out.endObject();
+    } else if (response instanceof AnnotateTextResponse) {
+      AnnotateTextResponse message = (AnnotateTextResponse) response;
+      out.beginObject();
+      writeSentences(out, message.getSentencesList());
+      writeTokens(out, message.getTokensList());
+      writeEntities(out, message.getEntitiesList());
+      if (message.hasDocumentSentiment()) {
+        writeSentiment(out, "documentSentiment", message.getDocumentSentiment());
+      }
+      out.string("language", message.getLanguage());
+      writeCategories(out, message.getCategoriesList());
+      out.endObject();
+    } else if (response instanceof ClassifyTextResponse) {
+      out.beginObject();
+      writeCategories(out, ((ClassifyTextResponse) response).getCategoriesList());
+      out.endObject();
+    } else {
+      try {
+        buffer.append(pretty ? FALLBACK_PRINTER.print(response) :
+                        FALLBACK_PRINTER.omittingInsignificantWhitespace().print(response));
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalArgumentException("Cannot convert Google NLP API response to a json", e);
+      }
+    }
+  }
+
+  private void writeSentences(Output out, List<Sentence> sentences) {
+    if (!out.beginArray("sentences", sentences.size())) {
+      return;
+    }
+    for (Sentence sentence : sentences) {
+      out.beginElement();
+      out.beginObject();
+      if (sentence.hasText()) {
+        writeTextSpan(out, sentence.getText());
+      }
+      if (sentence.hasSentiment()) {
+        writeSentiment(out, "sentiment", sentence.getSentiment());
+      }
+      out.endObject();
+    }
+    out.endArray();
+  }
+
+  private void writeTokens(Output out, List<Token> tokens) {
+    if (!out.beginArray("tokens", tokens.size())) {
+      return;
+    }
+    for (Token token : tokens) {
+      out.beginElement();
+      out.beginObject();
+      if (token.hasText()) {
+        writeTextSpan(out, token.getText());
+      }
+      if (token.hasPartOfSpeech()) {
+        PartOfSpeech partOfSpeech = token.getPartOfSpeech();
+        out.name("partOfSpeech");
+        out.beginObject();
+        out.enumValue("tag", partOfSpeech.getTag(), partOfSpeech.getTagValue());
+        out.enumValue("aspect", partOfSpeech.getAspect(), partOfSpeech.getAspectValue());
+        out.enumValue("case", partOfSpeech.getCase(), partOfSpeech.getCaseValue());
+        out.enumValue("form", partOfSpeech.getForm(), partOfSpeech.getFormValue());
+        out.enumValue("gender", partOfSpeech.getGender(), partOfSpeech.getGenderValue());
+        out.enumValue("mood", partOfSpeech.getMood(), partOfSpeech.getMoodValue());
+        out.enumValue("number", partOfSpeech.getNumber(), partOfSpeech.getNumberValue());
+        out.enumValue("person", partOfSpeech.getPerson(), partOfSpeech.getPersonValue());
+        out.enumValue("proper", partOfSpeech.getProper(), partOfSpeech.getProperValue());
+        out.enumValue("reciprocity", partOfSpeech.getReciprocity(), partOfSpeech.getReciprocityValue());
+        out.enumValue("tense", partOfSpeech.getTense(), partOfSpeech.getTenseValue());
+        out.enumValue("voice", partOfSpeech.getVoice(), partOfSpeech.getVoiceValue());
+        out.endObject();
+      }
+      if (token.hasDependencyEdge()) {
+        DependencyEdge edge = token.getDependencyEdge();
+        out.name("dependencyEdge");
+        out.beginObject();
+        out.integer("headTokenIndex", edge.getHeadTokenIndex());
+        out.enumValue("label", edge.getLabel(), edge.getLabelValue());
+        out.endObject();
+      }
+      out.string("lemma", token.getLemma());
+      out.endObject();
+    }
+    out.endArray();
+  }
+
+  private void writeEntities(Output out, List<Entity> entities) {
+    if (!out.beginArray("entities", entities.size())) {
+      return;
+    }
+    for (Entity entity : entities) {
+      out.beginElement();
+      out.beginObject();
+      out.string("name", entity.getName());
+      out.enumValue("type", entity.getType(), entity.getTypeValue());
+      Map<String, String> metadata = entity.getMetadataMap();
+      if (!metadata.isEmpty() || includeDefaults) {
+        out.name("metadata");
+        out.beginObject();
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+          out.name(entry.getKey());
+          out.quoted(entry.getValue());
+        }
+        out.endObject();
+      }
+      out.decimal("salience", entity.getSalience());
+      if (out.beginArray("mentions", entity.getMentionsCount())) {
+        for (EntityMention mention : entity.getMentionsList()) {
+          out.beginElement();
+          out.beginObject();
+          if (mention.hasText()) {
+            writeTextSpan(out, mention.getText());
+          }
+          out.enumValue("type", mention.getType(), mention.getTypeValue());
+          if (mention.hasSentiment()) {
+            writeSentiment(out, "sentiment", mention.getSentiment());
+          }
+          out.endObject();
+        }
+        out.endArray();
+      }
+      if (entity.hasSentiment()) {
+        writeSentiment(out, "sentiment", entity.getSentiment());
+      }
+      out.endObject();
+    }
+    out.endArray();
+  }
+
+  private void writeCategories(Output out, List<ClassificationCategory> categories) {
+    if (!out.beginArray("categories", categories.size())) {
+      return;
+    }
+    for (ClassificationCategory category : categories) {
+      out.beginElement();
+      out.beginObject();
+      out.string("name", category.getName());
+      out.decimal("confidence", category.getConfidence());
+      out.endObject();
+    }
+    out.endArray();
+  }
+
+  private void writeTextSpan(Output out, TextSpan text) {
+    out.name("text");
+    out.beginObject();
+    out.string("content", text.getContent());
+    out.integer("beginOffset", text.getBeginOffset());
+    out.endObject();
+  }
+
+  private void writeSentiment(Output out, String name, Sentiment sentiment) {
+    out.name(name);
+    out.beginObject();
+    out.decimal("magnitude", sentiment.getMagnitude());
+    out.decimal("score", sentiment.getScore());
+    out.endObject();
+  }
+
+  /**
+   * Writes json tokens into a buffer, keeping track of the separators and the indentation.
+   */
+  private final class Output {
+    private final StringBuilder buffer;
+    private int depth;
+    // whether nothing was written yet into the innermost object or array
+    private boolean first = true;
+
+    private Output(StringBuilder buffer) {
+      this.buffer = buffer;
+    }
+
+    void beginObject() {
+      buffer.append('{');
+      depth++;
+      first = true;
+    }
+
+    void endObject() {
+      end('}');
+    }
+
+    /**
+     * Writes the name of an array field and opens the array, unless the array is empty and defaults are not
+     * written.
+     *
+     * @return whether the array was opened
+     */
+    boolean beginArray(String name, int size) {
+      if (size == 0 && !includeDefaults) {
+        return false;
+      }
+      name(name);
+      buffer.append('[');
+      depth++;
+      first = true;
+      return true;
+    }
+
+    void beginElement() {
+      if (!first) {
+        buffer.append(',');
+      }
+      newLine();
+      first = false;
+    }
+
+    void endArray() {
+      end(']');
+    }
+
+    void name(String name) {
+      beginElement();
+      quoted(name);
+      buffer.append(pretty ? ": " : ":");
+    }
+
+    void string(String name, String value) {
+      if (!value.isEmpty() || includeDefaults) {
+        name(name);
+        quoted(value);
+      }
+    }
+
+    void integer(String name, int value) {
+      if (value != 0 || includeDefaults) {
+        name(name);
+        buffer.append(value);
+      }
+    }
+
+    void decimal(String name, float value) {
+      if (Float.floatToRawIntBits(value) == 0 && !includeDefaults) {
+        return;
+      }
+      name(name);
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        // json has no literals for these, so they are written as strings the way JsonFormat does
+        buffer.append('"').append(Float.toString(value)).append('"');
+      } else {
+        buffer.append(Float.toString(value));
+      }
+    }
+
+    <E extends Enum<E> & ProtocolMessageEnum> void enumValue(String name, E value, int number) {
+      if (number == 0 && !includeDefaults) {
+        return;
+      }
+      name(name);
+      if ("UNRECOGNIZED".equals(value.name())) {
+        // a value added to the API after this client was built
+        buffer.append(number);
+      } else {
+        buffer.append('"').append(value.name()).append('"');
+      }
+    }
+
+    void quoted(String value) {
+      buffer.append('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '"':
+            buffer.append("\\\"");
+            break;
+          case '\\':
+            buffer.append("\\\\");
+            break;
+          case '\n':
+            buffer.append("\\n");
+            break;
+          case '\r':
+            buffer.append("\\r");
+            break;
+          case '\t':
+            buffer.append("\\t");
+            break;
+          case '\b':
+            buffer.append("\\b");
+            break;
+          case '\f':
+            buffer.append("\\f");
+            break;
+          default:
+            if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+              buffer.append("\\u").append(HEX[c >> 12 & 0xf]).append(HEX[c >> 8 & 0xf])
+                .append(HEX[c >> 4 & 0xf]).append(HEX[c & 0xf]);
+            } else {
+              buffer.append(c);
+            }
+        }
+      }
+      buffer.append('"');
+    }
+
+    private void end(char end) {
+      depth--;
+      if (!first) {
+        newLine();
+      }
+      buffer.append(end);
+      first = false;
+    }
+
+    private void newLine() {
+      if (pretty) {
+        buffer.append('\n');
+        for (int i = 0; i < depth; i++) {
+          buffer.append("  ");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether and when a failed request is sent again.
+ *
+ * Only errors with a transient gRPC status are retried. Delays between attempts follow exponential backoff with
+ * decorrelated jitter: every delay is picked at random between the initial delay and three times the previous
+ * delay, capped at the maximum delay. All attempts for a record must finish within the record deadline.
+ *
+ * Retries are also limited by a budget: every first attempt earns a tenth of a retry, and every retry spends one.
+ * So when the API is down, retries add at most 10% to the load instead of multiplying it.
+ */
+public final class RetryPolicy {
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 10_000;
+  public static final long DEFAULT_DEADLINE_MILLIS = 60_000;
+
+  private static final Set<StatusCode.Code> RETRYABLE_CODES = EnumSet.of(StatusCode.Code.UNAVAILABLE,
+                                                                         StatusCode.Code.DEADLINE_EXCEEDED,
+                                                                         StatusCode.Code.RESOURCE_EXHAUSTED,
+                                                                         StatusCode.Code.ABORTED);
+  private static final double BUDGET_PER_REQUEST = 0.1;
+  private static final double MAX_BUDGET = 100;
+
+  private final int maxRetries;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final long deadlineMillis;
+  private double budget = MAX_BUDGET;
+  private long retryCount;
+
+  /**
+   * @param maxRetries maximum number of times a request is sent again, 0 disables retries
+   * @param initialDelayMillis minimum delay before a retry
+   * @param maxDelayMillis maximum delay before a retry
+   * @param deadlineMillis time within which all attempts for a record must finish
+   */
+  public RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis, long deadlineMillis) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException(
+        String.format("Maximum number of retries must not be negative, but was %d", maxRetries));
+    }
+    if (initialDelayMillis < 1 || maxDelayMillis < initialDelayMillis) {
+      throw new IllegalArgumentException(
+        String.format("Retry delays must be positive and the maximum delay (%d ms) must not be less than the " +
+                        "initial delay (%d ms)", maxDelayMillis, initialDelayMillis));
+    }
+    if (deadlineMillis < 1) {
+      throw new IllegalArgumentException(
+        String.format("Record deadline must be positive, but was %d ms", deadlineMillis));
+    }
+    this.maxRetries = maxRetries;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /**
+   * A policy with the default settings.
+   */
+  public static RetryPolicy createDefault() {
+    return new RetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                           DEFAULT_DEADLINE_MILLIS);
+  }
+
+  /**
+   * Starts tracking the attempts for a single record.
+   */
+  public Attempts start() {
+    synchronized (this) {
+      budget = Math.min(MAX_BUDGET, budget + BUDGET_PER_REQUEST);
+    }
+    return new Attempts(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+  }
+
+  /**
+   * @return number of retries made so far
+   */
+  public synchronized long getRetryCount() {
+    return retryCount;
+  }
+
+  /**
+   * @return whether the error is transient, so that the same request may succeed later
+   */
+  public static boolean isRetryable(Throwable failure) {
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t instanceof ApiException) {
+        return RETRYABLE_CODES.contains(((ApiException) t).getStatusCode().getCode());
+      }
+    }
+    return false;
+  }
+
+  private synchronized boolean spendBudget() {
+    if (budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    retryCount++;
+    return true;
+  }
+
+  /**
+   * The attempts made for a single record.
+   */
+  public final class Attempts {
+    private final long deadlineNanos;
+    private int retries;
+    private long previousDelayMillis = initialDelayMillis;
+
+    private Attempts(long deadlineNanos) {
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return time left until the record deadline, it is 0 or less once the deadline has passed
+     */
+    public long getRemainingMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Decides whether the request which failed with the given error should be sent again.
+     *
+     * @return delay in milliseconds before the next attempt, or -1 if the request should not be retried
+     */
+    public long nextDelayMillis(Throwable failure) {
+      if (retries >= maxRetries || !isRetryable(failure)) {
+        return -1;
+      }
+      long upperBound = Math.min(maxDelayMillis, previousDelayMillis * 3);
+      long delayMillis = upperBound <= initialDelayMillis ?
+        initialDelayMillis : ThreadLocalRandom.current().nextLong(initialDelayMillis, upperBound + 1);
+      // there is no point in a retry which can not get a response before the deadline
+      if (delayMillis >= getRemainingMillis() || !spendBudget()) {
+        return -1;
+      }
+      retries++;
+      previousDelayMillis = delayMillis;
+      return delayMillis;
+    }
+  }
+}
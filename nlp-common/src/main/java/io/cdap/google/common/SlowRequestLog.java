@@ -0,0 +1,74 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Logs the {@link RequestTrace} of texts which took longer than a threshold, at warn level, and of a random sample
+ * of all texts, at info level. A trace costs a few timestamps per phase, so the log can stay enabled in production
+ * to explain latency outliers without attaching a profiler.
+ */
+public final class SlowRequestLog {
+  private static final Logger LOG = LoggerFactory.getLogger(SlowRequestLog.class);
+
+  private final long thresholdNanos;
+  private final double sampleRate;
+
+  /**
+   * @param thresholdMillis texts which take longer than this are always logged, or 0 to only log samples
+   * @param sampleRate fraction of all texts which are logged regardless of their latency, between 0 and 1
+   */
+  public SlowRequestLog(long thresholdMillis, double sampleRate) {
+    if (thresholdMillis < 0) {
+      throw new IllegalArgumentException(
+        String.format("Slow request threshold must not be negative, but was %d", thresholdMillis));
+    }
+    if (sampleRate < 0 || sampleRate > 1) {
+      throw new IllegalArgumentException(
+        String.format("Sample rate must be between 0 and 1, but was %s", sampleRate));
+    }
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Starts the trace of a text.
+   */
+  RequestTrace start(NLPMethod method, EncodingType encoding, String text) {
+    return new RequestTrace(this, method, encoding, text.length());
+  }
+
+  void log(RequestTrace trace, long totalNanos, @Nullable Throwable failure) {
+    if (thresholdNanos > 0 && totalNanos > thresholdNanos) {
+      if (LOG.isWarnEnabled()) {
+        LOG.warn("Slow request, took longer than {} ms: {}", TimeUnit.NANOSECONDS.toMillis(thresholdNanos),
+                 trace.describe(totalNanos, failure));
+      }
+    } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Sampled request: {}", trace.describe(totalNanos, failure));
+      }
+    }
+  }
+}
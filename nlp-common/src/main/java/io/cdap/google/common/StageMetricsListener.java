@@ -0,0 +1,114 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import io.cdap.cdap.etl.api.StageMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the events of the requests of a stage or directive as CDAP stage metrics, which show up in the metrics
+ * of the pipeline:
+ * <ul>
+ *   <li>{@code nlp.requests}, {@code nlp.retries} and {@code nlp.cache.hits} count attempts sent to the API,
+ *   attempts which were retried and responses found in a cache;</li>
+ *   <li>{@code nlp.errors.<status>} counts failed attempts by gRPC status, e.g. {@code nlp.errors.UNAVAILABLE};</li>
+ *   <li>{@code nlp.request.bytes}, {@code nlp.response.bytes} and {@code nlp.billing.units} add up the sizes of
+ *   requests and responses and the units they are billed;</li>
+ *   <li>{@code nlp.rpc.latency.<percentile>.ms} and {@code nlp.conversion.latency.<percentile>.us} are gauges of the
+ *   50th, 90th and 99th percentile of the time an attempt takes and of the time to convert a response, set by
+ *   {@link #publishLatencies()}.</li>
+ * </ul>
+ */
+public final class StageMetricsListener implements RequestListener {
+  public static final String REQUESTS = "nlp.requests";
+  public static final String RETRIES = "nlp.retries";
+  public static final String CACHE_HITS = "nlp.cache.hits";
+  public static final String ERRORS_PREFIX = "nlp.errors.";
+  public static final String REQUEST_BYTES = "nlp.request.bytes";
+  public static final String RESPONSE_BYTES = "nlp.response.bytes";
+  public static final String BILLING_UNITS = "nlp.billing.units";
+  public static final String RPC_LATENCY_PREFIX = "nlp.rpc.latency.";
+  public static final String CONVERSION_LATENCY_PREFIX = "nlp.conversion.latency.";
+  private static final int[] PERCENTILES = {50, 90, 99};
+  private static final long PUBLISH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final StageMetrics metrics;
+  private final LatencyHistogram rpcLatency = new LatencyHistogram();
+  private final LatencyHistogram conversionLatency = new LatencyHistogram();
+  private long lastPublishNanos = System.nanoTime() - PUBLISH_INTERVAL_NANOS;
+
+  public StageMetricsListener(StageMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void onRequest(NLPMethod method, int requestBytes) {
+    metrics.count(REQUESTS, 1);
+    metrics.count(REQUEST_BYTES, requestBytes);
+  }
+
+  @Override
+  public void onResponse(NLPMethod method, long latencyNanos, int responseBytes, int billingUnits) {
+    rpcLatency.record(latencyNanos);
+    metrics.count(RESPONSE_BYTES, responseBytes);
+    metrics.count(BILLING_UNITS, billingUnits);
+  }
+
+  @Override
+  public void onFailure(NLPMethod method, long latencyNanos, String status) {
+    rpcLatency.record(latencyNanos);
+    metrics.count(ERRORS_PREFIX + status, 1);
+  }
+
+  @Override
+  public void onRetry(NLPMethod method) {
+    metrics.count(RETRIES, 1);
+  }
+
+  @Override
+  public void onCacheHit(NLPMethod method) {
+    metrics.count(CACHE_HITS, 1);
+  }
+
+  @Override
+  public void onConversion(NLPMethod method, long latencyNanos) {
+    conversionLatency.record(latencyNanos);
+  }
+
+  /**
+   * Sets the latency gauges to the percentiles of all the latencies recorded so far. Gauges are only sampled by the
+   * metrics system, so they are set at most once a second, however often this is called.
+   */
+  public void publishLatencies() {
+    long now = System.nanoTime();
+    if (now - lastPublishNanos < PUBLISH_INTERVAL_NANOS) {
+      return;
+    }
+    lastPublishNanos = now;
+    for (int percentile : PERCENTILES) {
+      if (rpcLatency.getCount() > 0) {
+        metrics.gauge(RPC_LATENCY_PREFIX + "p" + percentile + ".ms",
+                      TimeUnit.NANOSECONDS.toMillis(rpcLatency.getPercentileNanos(percentile)));
+      }
+      if (conversionLatency.getCount() > 0) {
+        metrics.gauge(CONVERSION_LATENCY_PREFIX + "p" + percentile + ".us",
+                      TimeUnit.NANOSECONDS.toMicros(conversionLatency.getPercentileNanos(percentile)));
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.api.gax.rpc.ResourceExhaustedException;
+import com.google.api.gax.rpc.UnavailableException;
+import io.grpc.Status;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AdaptiveRateLimiter}.
+ */
+public class AdaptiveRateLimiterTest {
+
+  @Test
+  public void testTryAcquireReturnsTheDelayUntilTheNextPermit() throws InterruptedException {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+    Assert.assertEquals(0, limiter.tryAcquire());
+
+    // the limiter starts at 10 requests per second with a single token
+    long delayNanos = limiter.tryAcquire();
+    Assert.assertTrue(delayNanos > 0);
+    Assert.assertTrue(delayNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+
+    TimeUnit.NANOSECONDS.sleep(delayNanos);
+    Assert.assertEquals(0, limiter.tryAcquire());
+  }
+
+  @Test
+  public void testSlowStartGrowsTheRateByOnePerSuccess() throws InterruptedException {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+    double rate = limiter.getRate();
+    for (int i = 1; i <= 3; i++) {
+      acquire(limiter);
+      // the rate only grows while it holds requests back, which is the case right after a permit was taken
+      limiter.release(null);
+      Assert.assertEquals(rate + i, limiter.getRate(), 0.0);
+    }
+  }
+
+  @Test
+  public void testResourceExhaustedHalvesTheLimits() throws InterruptedException {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+    acquire(limiter);
+    limiter.release(null);
+    double rate = limiter.getRate();
+    int concurrencyLimit = limiter.getConcurrencyLimit();
+
+    acquire(limiter);
+    acquire(limiter);
+    limiter.release(new ResourceExhaustedException("Quota exceeded", null,
+                                                   GrpcStatusCode.of(Status.Code.RESOURCE_EXHAUSTED), false));
+    Assert.assertEquals(rate / 2, limiter.getRate(), 0.0);
+    Assert.assertEquals(concurrencyLimit / 2, limiter.getConcurrencyLimit());
+    // the burst is dropped, so that the lower rate applies right away
+    Assert.assertTrue(limiter.tryAcquire() > 0);
+
+    // requests sent before the decrease do not decrease the limits again
+    limiter.release(new UnavailableException("Unavailable", null, GrpcStatusCode.of(Status.Code.UNAVAILABLE),
+                                             true));
+    Assert.assertEquals(rate / 2, limiter.getRate(), 0.0);
+    Assert.assertEquals(2, limiter.getThrottledCount());
+
+    // slow start is over, the rate grows by one request per second per second from now on
+    acquire(limiter);
+    limiter.release(null);
+    Assert.assertEquals(rate / 2 + 1 / (rate / 2), limiter.getRate(), 1e-9);
+  }
+
+  @Test
+  public void testOtherErrorsDoNotChangeTheLimits() throws InterruptedException {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter();
+    double rate = limiter.getRate();
+    acquire(limiter);
+    limiter.release(new InvalidArgumentException("Invalid", null, GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT),
+                                                 false));
+    Assert.assertEquals(rate, limiter.getRate(), 0.0);
+    Assert.assertEquals(0, limiter.getThrottledCount());
+  }
+
+  @Test
+  public void testIsThrottling() {
+    Assert.assertTrue(AdaptiveRateLimiter.isThrottling(new ExecutionException(
+      new ResourceExhaustedException("Quota exceeded", null, GrpcStatusCode.of(Status.Code.RESOURCE_EXHAUSTED),
+                                     false))));
+    Assert.assertTrue(AdaptiveRateLimiter.isThrottling(
+      new UnavailableException("Unavailable", null, GrpcStatusCode.of(Status.Code.UNAVAILABLE), true)));
+    Assert.assertFalse(AdaptiveRateLimiter.isThrottling(
+      new InvalidArgumentException("Invalid", null, GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT), false)));
+    Assert.assertFalse(AdaptiveRateLimiter.isThrottling(new IllegalStateException()));
+  }
+
+  private static void acquire(AdaptiveRateLimiter limiter) throws InterruptedException {
+    long delayNanos;
+    while ((delayNanos = limiter.tryAcquire()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(delayNanos);
+    }
+  }
+}
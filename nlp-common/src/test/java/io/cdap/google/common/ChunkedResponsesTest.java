@@ -0,0 +1,210 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.protobuf.MessageOrBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link ChunkedResponses}. The offsets of the chunk responses are computed here from the encoded text,
+ * independently of {@link DocumentChunker}, and the merged offsets are checked to point at the same text in the
+ * whole document.
+ */
+public class ChunkedResponsesTest {
+  private static final Pattern WORD = Pattern.compile("\\S+");
+  private static final String EMOJI = "😀";
+  private static final EncodingType[] ENCODINGS = {EncodingType.UTF8, EncodingType.UTF16, EncodingType.UTF32};
+
+  @Test
+  public void testTokenAndSentenceOffsets() {
+    String document = document();
+    for (EncodingType encoding : ENCODINGS) {
+      List<DocumentChunker.Chunk> chunks = new DocumentChunker(encoding, 60).split(document);
+      Assert.assertTrue(chunks.size() > 1);
+
+      List<MessageOrBuilder> responses = new ArrayList<>();
+      for (DocumentChunker.Chunk chunk : chunks) {
+        responses.add(syntax(encoding, chunk.getText()));
+      }
+      AnalyzeSyntaxResponse merged =
+        (AnalyzeSyntaxResponse) ChunkedResponses.merge(NLPMethod.ANALYZE_SYNTAX, chunks, responses);
+
+      List<Token> tokens = merged.getTokensList();
+      Assert.assertEquals(count(WORD, document), tokens.size());
+      int from = 0;
+      for (Token token : tokens) {
+        // tokens are in document order, so each is the next occurrence of its content
+        int index = document.indexOf(token.getText().getContent(), from);
+        Assert.assertEquals(encoding + " " + token, index, index(encoding, document, token.getText().getBeginOffset()));
+        from = index + token.getText().getContent().length();
+      }
+
+      // the head token of each token is the first token of its chunk, whose index is shifted by the tokens before
+      int firstToken = 0;
+      for (MessageOrBuilder response : responses) {
+        int chunkTokens = ((AnalyzeSyntaxResponse) response).getTokensCount();
+        for (int i = firstToken; i < firstToken + chunkTokens; i++) {
+          Assert.assertEquals(firstToken, tokens.get(i).getDependencyEdge().getHeadTokenIndex());
+        }
+        firstToken += chunkTokens;
+      }
+
+      for (Sentence sentence : merged.getSentencesList()) {
+        TextSpan text = sentence.getText();
+        Assert.assertTrue(encoding + " " + sentence,
+                          document.startsWith(text.getContent(), index(encoding, document, text.getBeginOffset())));
+      }
+    }
+  }
+
+  @Test
+  public void testMentionOffsetsAfterSurrogatePairs() {
+    String document = document();
+    List<Integer> expected = new ArrayList<>();
+    for (int index = document.indexOf(EMOJI); index >= 0; index = document.indexOf(EMOJI, index + 1)) {
+      expected.add(index);
+    }
+
+    for (EncodingType encoding : ENCODINGS) {
+      List<DocumentChunker.Chunk> chunks = new DocumentChunker(encoding, 60).split(document);
+      List<MessageOrBuilder> responses = new ArrayList<>();
+      for (DocumentChunker.Chunk chunk : chunks) {
+        Entity.Builder entity = Entity.newBuilder().setName(EMOJI).setType(Entity.Type.OTHER).setSalience(1);
+        String text = chunk.getText();
+        for (int index = text.indexOf(EMOJI); index >= 0; index = text.indexOf(EMOJI, index + 1)) {
+          entity.addMentions(EntityMention.newBuilder().setText(span(encoding, text, index, EMOJI)));
+        }
+        responses.add(AnalyzeEntitiesResponse.newBuilder().addEntities(entity).setLanguage("en").build());
+      }
+      AnalyzeEntitiesResponse merged =
+        (AnalyzeEntitiesResponse) ChunkedResponses.merge(NLPMethod.ANALYZE_ENTITIES, chunks, responses);
+
+      // the entity of all chunks is merged into one, with the mentions of all of them
+      Assert.assertEquals(1, merged.getEntitiesCount());
+      List<Integer> actual = new ArrayList<>();
+      for (EntityMention mention : merged.getEntities(0).getMentionsList()) {
+        actual.add(index(encoding, document, mention.getText().getBeginOffset()));
+      }
+      Assert.assertEquals(encoding.toString(), expected, actual);
+    }
+  }
+
+  @Test
+  public void testOffsetsWithoutEncodingAreNotShifted() {
+    String document = document();
+    List<DocumentChunker.Chunk> chunks = new DocumentChunker(EncodingType.NONE, 60).split(document);
+    List<MessageOrBuilder> responses = new ArrayList<>();
+    for (DocumentChunker.Chunk chunk : chunks) {
+      responses.add(syntax(EncodingType.NONE, chunk.getText()));
+    }
+    AnalyzeSyntaxResponse merged =
+      (AnalyzeSyntaxResponse) ChunkedResponses.merge(NLPMethod.ANALYZE_SYNTAX, chunks, responses);
+    for (Token token : merged.getTokensList()) {
+      Assert.assertEquals(-1, token.getText().getBeginOffset());
+    }
+  }
+
+  /**
+   * @return a text with code points of one to four bytes in UTF-8, including ones outside of the Basic
+   *   Multilingual Plane which take a surrogate pair in UTF-16, long enough to be split into several chunks
+   */
+  private static String document() {
+    StringBuilder document = new StringBuilder();
+    for (int i = 0; i < 8; i++) {
+      document.append("Café ").append(i).append(" 日本 says ").append(EMOJI).append(" to 𝄞 naïve users. ");
+    }
+    return document.toString();
+  }
+
+  /**
+   * @return a response with a sentence per chunk and a token per word, all tokens depending on the first one
+   */
+  private static AnalyzeSyntaxResponse syntax(EncodingType encoding, String text) {
+    AnalyzeSyntaxResponse.Builder response = AnalyzeSyntaxResponse.newBuilder().setLanguage("en");
+    response.addSentences(Sentence.newBuilder().setText(span(encoding, text, 0, text)));
+    Matcher matcher = WORD.matcher(text);
+    while (matcher.find()) {
+      response.addTokens(Token.newBuilder()
+                           .setText(span(encoding, text, matcher.start(), matcher.group()))
+                           .setDependencyEdge(DependencyEdge.newBuilder().setHeadTokenIndex(0)));
+    }
+    return response.build();
+  }
+
+  private static TextSpan span(EncodingType encoding, String text, int index, String content) {
+    return TextSpan.newBuilder().setContent(content).setBeginOffset(offset(encoding, text, index)).build();
+  }
+
+  /**
+   * @return offset of the given char index, in the unit of the offsets the API returns for the encoding
+   */
+  private static int offset(EncodingType encoding, String text, int index) {
+    switch (encoding) {
+      case UTF8:
+        return text.substring(0, index).getBytes(StandardCharsets.UTF_8).length;
+      case UTF16:
+        return index;
+      case UTF32:
+        return text.codePointCount(0, index);
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * @return char index of the given offset, in the unit of the offsets the API returns for the encoding
+   */
+  private static int index(EncodingType encoding, String text, int offset) {
+    switch (encoding) {
+      case UTF8:
+        byte[] prefix = Arrays.copyOf(text.getBytes(StandardCharsets.UTF_8), offset);
+        return new String(prefix, StandardCharsets.UTF_8).length();
+      case UTF16:
+        return offset;
+      case UTF32:
+        return text.offsetByCodePoints(0, offset);
+      default:
+        throw new IllegalArgumentException("No offsets for " + encoding);
+    }
+  }
+
+  private static int count(Pattern pattern, String text) {
+    Matcher matcher = pattern.matcher(text);
+    int count = 0;
+    while (matcher.find()) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.common.base.Strings;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests for {@link DiskResponseCache}.
+ */
+public class DiskResponseCacheTest {
+  private static final LanguageClientSettings SETTINGS = LanguageClientSettings.of(null);
+  private static final long MB = 1L << 20;
+  // segment record header: magic, value length, CRC32 and the key digest
+  private static final int HEADER_SIZE = 12 + RequestKey.SIZE;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    try (DiskResponseCache cache = DiskResponseCache.open(temporaryFolder.newFolder().toPath(), 4 * MB)) {
+      cache.put(key(0), response(0, 100));
+      cache.put(key(0), response(1, 100));
+
+      Assert.assertEquals(response(0, 100), cache.get(key(0), AnalyzeSentimentResponse.parser()));
+      ByteBuffer bytes = cache.getBytes(key(0));
+      Assert.assertNotNull(bytes);
+      Assert.assertTrue(bytes.isReadOnly());
+      Assert.assertEquals(response(0, 100).getSerializedSize(), bytes.remaining());
+      Assert.assertNull(cache.get(key(1), AnalyzeSentimentResponse.parser()));
+
+      Assert.assertEquals(1, cache.size());
+      Assert.assertEquals(2, cache.getHitCount());
+      Assert.assertEquals(1, cache.getMissCount());
+    }
+  }
+
+  @Test
+  public void testOldestResponsesAreEvicted() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB)) {
+      for (int i = 0; i < 10_000; i++) {
+        cache.put(key(i), response(i, 1000));
+      }
+
+      Assert.assertTrue(cache.size() < 10_000);
+      Assert.assertEquals(10_000 - cache.size(), cache.getEvictionCount());
+      Assert.assertNull(cache.get(key(0), AnalyzeSentimentResponse.parser()));
+      Assert.assertEquals(response(9_999, 1000), cache.get(key(9_999), AnalyzeSentimentResponse.parser()));
+      Assert.assertTrue("Cache uses " + cache.getSizeBytes() + " bytes", cache.getSizeBytes() <= 4 * MB);
+      Assert.assertTrue(directorySize(directory) <= 4 * MB);
+    }
+  }
+
+  @Test
+  public void testReadResponsesSurviveCompaction() throws IOException {
+    try (DiskResponseCache cache = DiskResponseCache.open(temporaryFolder.newFolder().toPath(), 4 * MB)) {
+      cache.put(key(0), response(0, 1000));
+      cache.put(key(1), response(1, 1000));
+      Assert.assertNotNull(cache.getBytes(key(0)));
+      // enough to compact the first segment once, but not the segment its read responses are moved to
+      for (int i = 2; i < 5000; i++) {
+        cache.put(key(i), response(i, 1000));
+      }
+
+      Assert.assertNull(cache.getBytes(key(1)));
+      Assert.assertEquals(response(0, 1000), cache.get(key(0), AnalyzeSentimentResponse.parser()));
+    }
+  }
+
+  @Test
+  public void testReopenRecoversResponses() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB);
+    for (int i = 0; i < 100; i++) {
+      cache.put(key(i), response(i, 100));
+    }
+    cache.close();
+    Assert.assertNull(cache.getBytes(key(0)));
+
+    DiskResponseCache reopened = DiskResponseCache.open(directory, 4 * MB);
+    Assert.assertNotSame(cache, reopened);
+    Assert.assertEquals(100, reopened.size());
+    Assert.assertEquals(response(42, 100), reopened.get(key(42), AnalyzeSentimentResponse.parser()));
+    reopened.close();
+
+    // segments written with a different maximum size are kept
+    try (DiskResponseCache resized = DiskResponseCache.open(directory, 64 * MB)) {
+      Assert.assertEquals(100, resized.size());
+      Assert.assertEquals(response(99, 100), resized.get(key(99), AnalyzeSentimentResponse.parser()));
+      resized.put(key(100), response(100, 100));
+      Assert.assertEquals(101, resized.size());
+    }
+  }
+
+  @Test
+  public void testOpenKeepsLargestMaximumSize() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB);
+         DiskResponseCache larger = DiskResponseCache.open(directory, 8 * MB);
+         DiskResponseCache smaller = DiskResponseCache.open(directory.resolve("..")
+                                                              .resolve(directory.getFileName()), 2 * MB)) {
+      Assert.assertSame(cache, larger);
+      Assert.assertSame(cache, smaller);
+      Assert.assertEquals(8 * MB, cache.getMaxBytes());
+    }
+  }
+
+  @Test
+  public void testCacheIsClosedByItsLastUser() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    DiskResponseCache first = DiskResponseCache.open(directory, 4 * MB);
+    DiskResponseCache second = DiskResponseCache.open(directory, 4 * MB);
+    first.put(key(0), response(0, 100));
+
+    first.close();
+    Assert.assertEquals(response(0, 100), second.get(key(0), AnalyzeSentimentResponse.parser()));
+
+    second.close();
+    Assert.assertNull(second.getBytes(key(0)));
+    // the directory is released, so the same shard is taken again
+    try (DiskResponseCache reopened = DiskResponseCache.open(directory, 4 * MB)) {
+      Assert.assertNotSame(second, reopened);
+      Assert.assertNotNull(reopened.getBytes(key(0)));
+    }
+  }
+
+  @Test
+  public void testTruncatedSegmentIsRecoveredUpToTheLastCompleteRecord() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB)) {
+      for (int i = 0; i < 3; i++) {
+        cache.put(key(i), response(i, 100));
+      }
+    }
+    List<Path> segments = segmentFiles(directory);
+    Assert.assertEquals(1, segments.size());
+    long complete = 2L * (HEADER_SIZE + response(0, 100).getSerializedSize());
+    try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.WRITE)) {
+      channel.truncate(complete + HEADER_SIZE + 10);
+    }
+
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB)) {
+      Assert.assertEquals(2, cache.size());
+      Assert.assertEquals(response(1, 100), cache.get(key(1), AnalyzeSentimentResponse.parser()));
+      Assert.assertNull(cache.getBytes(key(2)));
+      cache.put(key(2), response(2, 100));
+    }
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB)) {
+      Assert.assertEquals(3, cache.size());
+      Assert.assertEquals(response(2, 100), cache.get(key(2), AnalyzeSentimentResponse.parser()));
+    }
+  }
+
+  @Test
+  public void testMaximumSizeCoversAllShards() throws IOException {
+    Path directory = temporaryFolder.newFolder().toPath();
+    // left behind by a JVM of an earlier run, which no JVM has open now
+    Path idleShard = Files.createDirectories(directory.resolve("shard-5"));
+    for (int i = 0; i < 3; i++) {
+      try (FileChannel channel = FileChannel.open(idleShard.resolve(String.format("segment-%010d.dat", i)),
+                                                  StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        channel.truncate(0);
+        channel.write(ByteBuffer.allocate((int) MB));
+      }
+    }
+
+    try (DiskResponseCache cache = DiskResponseCache.open(directory, 4 * MB)) {
+      for (int i = 0; i < 2500; i++) {
+        cache.put(key(i), response(i, 1000));
+        Assert.assertTrue(directorySize(directory) <= 4 * MB);
+      }
+      Assert.assertEquals(2500, cache.size());
+      Assert.assertTrue(cache.getSizeBytes() >= 3 * MB);
+      // the oldest segments of the idle shard were removed first
+      Assert.assertEquals(1, segmentFiles(idleShard).size());
+      Assert.assertTrue(Files.exists(idleShard.resolve(String.format("segment-%010d.dat", 2))));
+    }
+  }
+
+  private static List<Path> segmentFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(path -> path.getFileName().toString().endsWith(".dat")).sorted()
+        .collect(Collectors.toList());
+    }
+  }
+
+  private static long directorySize(Path directory) throws IOException {
+    long size = 0;
+    for (Path path : segmentFiles(directory)) {
+      size += Files.size(path);
+    }
+    return size;
+  }
+
+  private static RequestKey key(int i) {
+    return RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "text " + i);
+  }
+
+  private static AnalyzeSentimentResponse response(int i, int size) {
+    String language = Integer.toString(i);
+    return AnalyzeSentimentResponse.newBuilder()
+      .setLanguage(language + Strings.repeat(" ", size - language.length()))
+      .build();
+  }
+}
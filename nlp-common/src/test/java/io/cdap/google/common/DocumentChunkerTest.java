@@ -0,0 +1,138 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for {@link DocumentChunker}.
+ */
+public class DocumentChunkerTest {
+
+  @Test
+  public void testSmallTextIsNotSplit() {
+    List<DocumentChunker.Chunk> chunks = new DocumentChunker(EncodingType.UTF8, 100).split("Short text.");
+    Assert.assertEquals(1, chunks.size());
+    Assert.assertEquals("Short text.", chunks.get(0).getText());
+    Assert.assertEquals(0, chunks.get(0).getOffset());
+  }
+
+  @Test
+  public void testSplitAtSentences() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      text.append("This is sentence number ").append(i).append(". ");
+    }
+    List<DocumentChunker.Chunk> chunks = assertChunks(text.toString(), EncodingType.UTF8, 100);
+    for (DocumentChunker.Chunk chunk : chunks.subList(0, chunks.size() - 1)) {
+      Assert.assertTrue(chunk.getText(), chunk.getText().endsWith(". "));
+    }
+  }
+
+  @Test
+  public void testSplitAtParagraphs() {
+    String paragraph = "First sentence of a paragraph. Second sentence of a paragraph.\n\n";
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      text.append(paragraph);
+    }
+    List<DocumentChunker.Chunk> chunks = assertChunks(text.toString(), EncodingType.UTF8, paragraph.length() * 2 + 10);
+    for (DocumentChunker.Chunk chunk : chunks) {
+      Assert.assertTrue(chunk.getText(), chunk.getText().endsWith("\n\n"));
+    }
+  }
+
+  @Test
+  public void testSplitWithoutBoundaries() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      text.append("ab😀");
+    }
+    for (EncodingType encoding : EncodingType.values()) {
+      if (encoding != EncodingType.UNRECOGNIZED) {
+        for (DocumentChunker.Chunk chunk : assertChunks(text.toString(), encoding, 13)) {
+          // a code point is never split
+          Assert.assertFalse(Character.isLowSurrogate(chunk.getText().charAt(0)));
+          Assert.assertFalse(Character.isHighSurrogate(chunk.getText().charAt(chunk.getText().length() - 1)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOffsetsFollowEncoding() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      text.append("Café 😀 number ").append(i).append(". ");
+    }
+    for (EncodingType encoding : new EncodingType[] {EncodingType.UTF8, EncodingType.UTF16, EncodingType.UTF32}) {
+      int start = 0;
+      for (DocumentChunker.Chunk chunk : assertChunks(text.toString(), encoding, 64)) {
+        String before = text.substring(0, start);
+        int expected;
+        switch (encoding) {
+          case UTF8:
+            expected = before.getBytes(StandardCharsets.UTF_8).length;
+            break;
+          case UTF16:
+            expected = before.length();
+            break;
+          default:
+            expected = before.codePointCount(0, before.length());
+        }
+        Assert.assertEquals(encoding.name(), expected, chunk.getOffset());
+        start += chunk.getText().length();
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testChunkSizeAboveApiLimit() {
+    new DocumentChunker(EncodingType.UTF8, DocumentChunker.MAX_DOCUMENT_BYTES + 1);
+  }
+
+  /**
+   * Checks that the chunks add up to the text and that each of them fits.
+   */
+  private static List<DocumentChunker.Chunk> assertChunks(String text, EncodingType encoding, int maxBytes) {
+    List<DocumentChunker.Chunk> chunks = new DocumentChunker(encoding, maxBytes).split(text);
+    Assert.assertTrue(chunks.size() > 1);
+    StringBuilder joined = new StringBuilder();
+    for (DocumentChunker.Chunk chunk : chunks) {
+      Assert.assertTrue(chunk.getText(), size(chunk.getText(), encoding) <= maxBytes);
+      joined.append(chunk.getText());
+    }
+    Assert.assertEquals(text, joined.toString());
+    return chunks;
+  }
+
+  private static int size(String text, EncodingType encoding) {
+    switch (encoding) {
+      case UTF16:
+        return text.length() * 2;
+      case UTF32:
+        return text.codePointCount(0, text.length()) * 4;
+      default:
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+  }
+}
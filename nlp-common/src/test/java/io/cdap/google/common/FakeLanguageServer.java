@@ -0,0 +1,420 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentRequest;
+import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSentimentRequest;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxRequest;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextRequest;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.ClassifyTextRequest;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.LanguageServiceGrpc;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Sentiment;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A local stand-in for Google Natural Language API, listening on a local plaintext port.
+ * It answers all six methods with synthetic responses which only depend on the request, and can be made to
+ * respond slowly, throttle and fail, so that executors can be tested and benchmarked without network access or
+ * credentials. Point an executor at it with {@link #getSettings()}.
+ */
+public final class FakeLanguageServer extends LanguageServiceGrpc.LanguageServiceImplBase implements Closeable {
+  private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+|[^\\s\\p{L}\\p{N}]");
+  private static final Pattern SENTENCE = Pattern.compile("[^.!?]+[.!?]*");
+  private static final PartOfSpeech.Tag[] TAGS = {
+    PartOfSpeech.Tag.NOUN, PartOfSpeech.Tag.VERB, PartOfSpeech.Tag.ADJ, PartOfSpeech.Tag.DET, PartOfSpeech.Tag.ADP
+  };
+  private static final DependencyEdge.Label[] LABELS = {
+    DependencyEdge.Label.NSUBJ, DependencyEdge.Label.DOBJ, DependencyEdge.Label.AMOD, DependencyEdge.Label.DET,
+    DependencyEdge.Label.PREP
+  };
+
+  private final Server server;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-language-server-%d").build());
+  private final Random random = new Random(0);
+  private final ConcurrentLinkedQueue<Status.Code> scriptedFailures = new ConcurrentLinkedQueue<>();
+  private final Map<String, Status.Code> contentFailures = new ConcurrentHashMap<>();
+  private final AtomicLong requestCount = new AtomicLong();
+
+  private volatile LongSupplier latencyMillis = () -> 0;
+  private volatile double failureRate;
+  private volatile Status.Code failureCode = Status.Code.UNAVAILABLE;
+  private volatile int maxRequestsPerSecond;
+  private long currentSecond;
+  private int requestsInCurrentSecond;
+
+  private FakeLanguageServer() throws IOException {
+    server = ServerBuilder.forPort(0).addService(this).build().start();
+  }
+
+  /**
+   * Starts a server on a free port.
+   */
+  public static FakeLanguageServer start() throws IOException {
+    return new FakeLanguageServer();
+  }
+
+  /**
+   * @return settings of a client which talks to this server
+   */
+  public LanguageClientSettings getSettings() {
+    return LanguageClientSettings.plaintext("localhost:" + server.getPort());
+  }
+
+  /**
+   * Delays every response by the given constant.
+   */
+  public FakeLanguageServer setLatency(long millis) {
+    return setLatency(() -> millis);
+  }
+
+  /**
+   * Delays every response by a value taken from the given distribution.
+   */
+  public FakeLanguageServer setLatency(LongSupplier millis) {
+    this.latencyMillis = millis;
+    return this;
+  }
+
+  /**
+   * Delays responses by exponentially distributed times with the given mean, which resembles the latency of a
+   * remote service under moderate load.
+   */
+  public FakeLanguageServer setExponentialLatency(long meanMillis) {
+    Random latencyRandom = new Random(1);
+    return setLatency(() -> {
+      synchronized (latencyRandom) {
+        return (long) (-meanMillis * Math.log(1 - latencyRandom.nextDouble()));
+      }
+    });
+  }
+
+  /**
+   * Fails the given fraction of requests, picked with a fixed seed, with the given status.
+   */
+  public FakeLanguageServer setFailureRate(double rate, Status.Code code) {
+    this.failureRate = rate;
+    this.failureCode = code;
+    return this;
+  }
+
+  /**
+   * Fails the next requests, one for each given status, in order.
+   */
+  public FakeLanguageServer failNext(Status.Code... codes) {
+    for (Status.Code code : codes) {
+      scriptedFailures.add(code);
+    }
+    return this;
+  }
+
+  /**
+   * Fails every request for a document with the given content, like the API does for documents it cannot process.
+   */
+  public FakeLanguageServer failContent(String content, Status.Code code) {
+    contentFailures.put(content, code);
+    return this;
+  }
+
+  /**
+   * Fails requests above the given number per second with RESOURCE_EXHAUSTED, like an exhausted quota.
+   *
+   * @param maxRequestsPerSecond allowed number of requests per second, 0 for no limit
+   */
+  public FakeLanguageServer setQuota(int maxRequestsPerSecond) {
+    this.maxRequestsPerSecond = maxRequestsPerSecond;
+    return this;
+  }
+
+  /**
+   * @return number of requests received, including the failed ones
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void close() {
+    server.shutdownNow();
+    scheduler.shutdownNow();
+  }
+
+  @Override
+  public void analyzeSentiment(AnalyzeSentimentRequest request,
+                               StreamObserver<AnalyzeSentimentResponse> responseObserver) {
+    respond(request.getDocument(), responseObserver, () -> AnalyzeSentimentResponse.newBuilder()
+      .setDocumentSentiment(sentiment(request.getDocument().getContent()))
+      .addAllSentences(sentences(request.getDocument(), request.getEncodingType()))
+      .setLanguage(language(request.getDocument()))
+      .build());
+  }
+
+  @Override
+  public void analyzeEntities(AnalyzeEntitiesRequest request,
+                              StreamObserver<AnalyzeEntitiesResponse> responseObserver) {
+    respond(request.getDocument(), responseObserver, () -> AnalyzeEntitiesResponse.newBuilder()
+      .addAllEntities(entities(request.getDocument(), request.getEncodingType(), false))
+      .setLanguage(language(request.getDocument()))
+      .build());
+  }
+
+  @Override
+  public void analyzeEntitySentiment(AnalyzeEntitySentimentRequest request,
+                                     StreamObserver<AnalyzeEntitySentimentResponse> responseObserver) {
+    respond(request.getDocument(), responseObserver, () -> AnalyzeEntitySentimentResponse.newBuilder()
+      .addAllEntities(entities(request.getDocument(), request.getEncodingType(), true))
+      .setLanguage(language(request.getDocument()))
+      .build());
+  }
+
+  @Override
+  public void analyzeSyntax(AnalyzeSyntaxRequest request, StreamObserver<AnalyzeSyntaxResponse> responseObserver) {
+    respond(request.getDocument(), responseObserver, () -> AnalyzeSyntaxResponse.newBuilder()
+      .addAllSentences(sentences(request.getDocument(), request.getEncodingType()))
+      .addAllTokens(tokens(request.getDocument(), request.getEncodingType()))
+      .setLanguage(language(request.getDocument()))
+      .build());
+  }
+
+  @Override
+  public void classifyText(ClassifyTextRequest request, StreamObserver<ClassifyTextResponse> responseObserver) {
+    respond(request.getDocument(), responseObserver, () -> ClassifyTextResponse.newBuilder()
+      .addAllCategories(categories(request.getDocument().getContent()))
+      .build());
+  }
+
+  @Override
+  public void annotateText(AnnotateTextRequest request, StreamObserver<AnnotateTextResponse> responseObserver) {
+    Document document = request.getDocument();
+    respond(document, responseObserver, () -> {
+      EncodingType encoding = request.getEncodingType();
+      AnnotateTextRequest.Features features = request.getFeatures();
+      AnnotateTextResponse.Builder response = AnnotateTextResponse.newBuilder().setLanguage(language(document));
+      if (features.getExtractSyntax() || features.getExtractDocumentSentiment()) {
+        response.addAllSentences(sentences(document, encoding));
+      }
+      if (features.getExtractSyntax()) {
+        response.addAllTokens(tokens(document, encoding));
+      }
+      if (features.getExtractEntities() || features.getExtractEntitySentiment()) {
+        response.addAllEntities(entities(document, encoding, features.getExtractEntitySentiment()));
+      }
+      if (features.getExtractDocumentSentiment()) {
+        response.setDocumentSentiment(sentiment(document.getContent()));
+      }
+      if (features.getClassifyText()) {
+        response.addAllCategories(categories(document.getContent()));
+      }
+      return response.build();
+    });
+  }
+
+  private <T> void respond(Document document, StreamObserver<T> responseObserver, Supplier<T> response) {
+    requestCount.incrementAndGet();
+    Status.Code failure = nextFailure(document);
+    Runnable complete = () -> {
+      if (failure != null) {
+        responseObserver.onError(Status.fromCode(failure).withDescription("Injected by FakeLanguageServer")
+                                   .asRuntimeException());
+        return;
+      }
+      responseObserver.onNext(response.get());
+      responseObserver.onCompleted();
+    };
+
+    long latency = latencyMillis.getAsLong();
+    if (latency > 0) {
+      scheduler.schedule(complete, latency, TimeUnit.MILLISECONDS);
+    } else {
+      complete.run();
+    }
+  }
+
+  @Nullable
+  private synchronized Status.Code nextFailure(Document document) {
+    Status.Code contentFailure = contentFailures.get(document.getContent());
+    if (contentFailure != null) {
+      return contentFailure;
+    }
+    Status.Code scripted = scriptedFailures.poll();
+    if (scripted != null) {
+      return scripted;
+    }
+    if (maxRequestsPerSecond > 0) {
+      long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+      if (second != currentSecond) {
+        currentSecond = second;
+        requestsInCurrentSecond = 0;
+      }
+      if (++requestsInCurrentSecond > maxRequestsPerSecond) {
+        return Status.Code.RESOURCE_EXHAUSTED;
+      }
+    }
+    return failureRate > 0 && random.nextDouble() < failureRate ? failureCode : null;
+  }
+
+  private static String language(Document document) {
+    return document.getLanguage().isEmpty() ? "en" : document.getLanguage();
+  }
+
+  /**
+   * A score in [-1, 1] and a magnitude in (0, 2] derived from the hash of the text. Neither is ever 0, so that they
+   * are not left out of json output, which skips default values.
+   */
+  private static Sentiment sentiment(String text) {
+    int hash = text.hashCode();
+    float score = ((hash & 0xff) - 127.5f) / 127.5f;
+    float magnitude = (((hash >>> 8) & 0xff) + 1) / 128f;
+    return Sentiment.newBuilder().setScore(score).setMagnitude(magnitude).build();
+  }
+
+  private static List<Sentence> sentences(Document document, EncodingType encoding) {
+    List<Sentence> sentences = new ArrayList<>();
+    Matcher matcher = SENTENCE.matcher(document.getContent());
+    while (matcher.find()) {
+      String content = matcher.group().trim();
+      if (content.isEmpty()) {
+        continue;
+      }
+      int begin = document.getContent().indexOf(content, matcher.start());
+      sentences.add(Sentence.newBuilder()
+                      .setText(span(content, begin, encoding))
+                      .setSentiment(sentiment(content))
+                      .build());
+    }
+    return sentences;
+  }
+
+  /**
+   * One token per word or punctuation mark. Every token depends on the first token of the text.
+   */
+  private static List<Token> tokens(Document document, EncodingType encoding) {
+    List<Token> tokens = new ArrayList<>();
+    Matcher matcher = WORD.matcher(document.getContent());
+    while (matcher.find()) {
+      String word = matcher.group();
+      int index = tokens.size();
+      int variant = Math.abs(word.hashCode() % TAGS.length);
+      tokens.add(Token.newBuilder()
+                   .setText(span(word, matcher.start(), encoding))
+                   .setPartOfSpeech(PartOfSpeech.newBuilder().setTag(TAGS[variant]))
+                   .setDependencyEdge(DependencyEdge.newBuilder()
+                                        .setHeadTokenIndex(0)
+                                        .setLabel(index == 0 ? DependencyEdge.Label.ROOT : LABELS[variant]))
+                   .setLemma(word.toLowerCase())
+                   .build());
+    }
+    return tokens;
+  }
+
+  /**
+   * One entity per distinct capitalized word, with a mention for each of its occurrences.
+   */
+  private static List<Entity> entities(Document document, EncodingType encoding, boolean withSentiment) {
+    List<Entity.Builder> entities = new ArrayList<>();
+    Matcher matcher = WORD.matcher(document.getContent());
+    while (matcher.find()) {
+      String word = matcher.group();
+      if (!Character.isUpperCase(word.charAt(0))) {
+        continue;
+      }
+      Entity.Builder entity = entities.stream().filter(e -> e.getName().equals(word)).findFirst().orElse(null);
+      if (entity == null) {
+        entity = Entity.newBuilder()
+          .setName(word)
+          .setType(Entity.Type.forNumber(1 + Math.abs(word.hashCode() % 7)))
+          .setSalience(1f / (entities.size() + 1));
+        if (withSentiment) {
+          entity.setSentiment(sentiment(word));
+        }
+        entities.add(entity);
+      }
+      EntityMention.Builder mention = EntityMention.newBuilder()
+        .setText(span(word, matcher.start(), encoding))
+        .setType(EntityMention.Type.PROPER);
+      if (withSentiment) {
+        mention.setSentiment(sentiment(word));
+      }
+      entity.addMentions(mention);
+    }
+
+    List<Entity> result = new ArrayList<>();
+    for (Entity.Builder entity : entities) {
+      result.add(entity.build());
+    }
+    return result;
+  }
+
+  private static List<ClassificationCategory> categories(String text) {
+    List<ClassificationCategory> categories = new ArrayList<>();
+    categories.add(ClassificationCategory.newBuilder()
+                     .setName(text.length() % 2 == 0 ? "/Science/Computer Science" : "/Arts & Entertainment")
+                     .setConfidence(0.5f + (Math.abs(text.hashCode()) % 50) / 100f)
+                     .build());
+    return categories;
+  }
+
+  /**
+   * Offsets are counted in UTF-16 code units whatever the encoding is. Like in the API, they are -1 when no
+   * encoding is requested.
+   */
+  private static TextSpan span(String content, int begin, EncodingType encoding) {
+    return TextSpan.newBuilder()
+      .setContent(content)
+      .setBeginOffset(encoding == EncodingType.NONE ? -1 : begin)
+      .build();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+import io.grpc.Status;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link FlightRecorderEvents}, recording the events of requests to a {@link FakeLanguageServer}.
+ */
+public class FlightRecorderEventsTest {
+  private FakeLanguageServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    Assume.assumeTrue(FlightRecorderEvents.isAvailable());
+    server = FakeLanguageServer.start();
+  }
+
+  @After
+  public void stopServer() {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testRequestsAreRecorded() throws Exception {
+    server.failNext(Status.Code.UNAVAILABLE);
+    String text = "A flight recorder test, which is not sent by other tests.";
+    Path file = Files.createTempFile("nlp", ".jfr");
+    List<String> events = new ArrayList<>();
+    try (Recording recording = new Recording();
+         NLPMethodExecutor executor = NLPMethod.ANALYZE_SENTIMENT.createExecutor(server.getSettings(), "en",
+                                                                                  EncodingType.UTF16)) {
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 10_000));
+      recording.start();
+      executor.getResponseAsync(text).get(10, TimeUnit.SECONDS);
+
+      // the request event is committed by a listener of the response, which may run after the response is returned,
+      // so the recording is read until the event shows up
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!events.contains("Request:OK")) {
+        Assert.assertTrue("Request event was not recorded, only " + events, System.nanoTime() < deadline);
+        TimeUnit.MILLISECONDS.sleep(10);
+        recording.dump(file);
+        events = readEvents(file, text);
+      }
+      recording.stop();
+    } finally {
+      Files.delete(file);
+    }
+    events.sort(null);
+    Assert.assertEquals(Arrays.asList("Backoff:UNAVAILABLE", "Request:OK", "Rpc:OK", "Rpc:UNAVAILABLE",
+                                      "TokenWait:OK", "TokenWait:OK"), events);
+  }
+
+  /**
+   * @return events of this library in the recording, as their name without the package and their status
+   */
+  private static List<String> readEvents(Path file, String text) throws IOException {
+    List<String> events = new ArrayList<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+      String name = event.getEventType().getName();
+      if (!name.startsWith("io.cdap.google.nlp.")) {
+        continue;
+      }
+      Assert.assertEquals(NLPMethod.ANALYZE_SENTIMENT.getValue(), event.getString("method"));
+      Assert.assertEquals(text.length(), event.getInt("textLength"));
+      events.add(name.substring("io.cdap.google.nlp.".length()) + ":" + event.getString("status"));
+      if (name.endsWith("Rpc") && "OK".equals(event.getString("status"))) {
+        Assert.assertTrue(event.getLong("responseBytes") > 0);
+      }
+    }
+    return events;
+  }
+}
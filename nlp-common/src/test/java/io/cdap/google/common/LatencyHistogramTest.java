@@ -0,0 +1,96 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import javax.management.ObjectName;
+
+/**
+ * Tests for {@link LatencyHistogram} and its registration over JMX by {@link MethodLatencies}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentilesAreWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Random random = new Random(0);
+    long[] values = new long[100_000];
+    for (int i = 0; i < values.length; i++) {
+      // log-normal around 160 microseconds, with a tail up to seconds
+      values[i] = (long) Math.exp(random.nextGaussian() * 2 + 12);
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+
+    Assert.assertEquals(values.length, histogram.getCount());
+    Assert.assertEquals(values[values.length - 1], histogram.getMaxNanos());
+    for (double percentile : new double[] {50, 90, 99, 99.9}) {
+      long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+      long actual = histogram.getPercentileNanos(percentile);
+      Assert.assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+      Assert.assertTrue(percentile + ": " + actual + " > " + expected, actual <= expected * 1.016);
+    }
+  }
+
+  @Test
+  public void testSmallAndOutOfRangeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.getPercentileNanos(99));
+    histogram.record(-1);
+    histogram.record(3);
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(0, histogram.getPercentileNanos(30));
+    Assert.assertEquals(3, histogram.getPercentileNanos(60));
+    Assert.assertTrue(histogram.getPercentileNanos(100) > 1L << 42);
+  }
+
+  @Test
+  public void testRecordingDoesNotAllocate() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    long threadId = Thread.currentThread().getId();
+    // warms up the code, so that the interpreter does not count
+    for (int i = 0; i < 100_000; i++) {
+      histogram.record(i * 31L);
+    }
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 1_000_000; i++) {
+      histogram.record(i * 31L);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+  }
+
+  @Test
+  public void testHistogramsAreReadableOverJmx() throws Exception {
+    MethodLatencies.of(NLPMethod.ANALYZE_SYNTAX).get(MethodLatencies.Phase.RPC).record(5_000_000);
+    ObjectName name = new ObjectName("io.cdap.google.nlp:type=Latency,method=ANALYZE_SYNTAX,phase=rpc");
+    long count = (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count");
+    double max = (Double) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MaxMillis");
+    Assert.assertTrue(count >= 1);
+    Assert.assertTrue(max >= 5);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.ClassifyTextResponse;
+import com.google.cloud.language.v1.EncodingType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link LazyResponseDecoder} reads the same fields as a full parse of the response.
+ */
+public class LazyResponseDecoderTest {
+  private static final String TEXT = "Google, headquartered in Mountain View, unveiled the new Android phone. " +
+    "It was great!";
+
+  @Test
+  public void testAnotateText() throws Exception {
+    try (FakeLanguageServer server = FakeLanguageServer.start();
+         NLPMethodExecutor executor = NLPMethod.ANOTATE_TEXT.createExecutor(server.getSettings(), "en",
+                                                                            EncodingType.UTF8)) {
+      AnnotateTextResponse response = (AnnotateTextResponse) executor.getResponse(TEXT);
+      byte[] bytes = response.toByteArray();
+      LazyResponseDecoder decoder = new LazyResponseDecoder(NLPMethod.ANOTATE_TEXT);
+
+      Assert.assertEquals(response, decoder.parse(bytes));
+      Assert.assertEquals(response.getLanguage(), decoder.getLanguage(bytes));
+      Assert.assertEquals(response.getDocumentSentiment(), decoder.getDocumentSentiment(bytes));
+      Assert.assertEquals(response.getSentencesList(), decoder.getSentences(bytes));
+      Assert.assertEquals(response.getTokensList(), decoder.getTokens(bytes));
+      Assert.assertEquals(response.getEntitiesList(), decoder.getEntities(bytes));
+      Assert.assertEquals(response.getCategoriesList(), decoder.getCategories(bytes));
+      Assert.assertEquals(response.getTokensCount(), decoder.count(bytes, "tokens"));
+    }
+  }
+
+  @Test
+  public void testMissingFields() throws Exception {
+    LazyResponseDecoder decoder = new LazyResponseDecoder(NLPMethod.CLASSIFY_CONTENT);
+    byte[] bytes = ClassifyTextResponse.getDefaultInstance().toByteArray();
+    Assert.assertTrue(decoder.getCategories(bytes).isEmpty());
+    Assert.assertEquals(0, decoder.count(bytes, "categories"));
+    try {
+      decoder.getTokens(bytes);
+      Assert.fail("Classify response has no tokens");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Entity;
+import com.google.protobuf.MessageOrBuilder;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link NLPMethodExecutor} against a {@link FakeLanguageServer}, which run without network access.
+ */
+public class NLPMethodExecutorTest {
+  private static final String TEXT = "Google, headquartered in Mountain View, unveiled the new Android phone. " +
+    "It was great!";
+
+  private FakeLanguageServer server;
+
+  @Before
+  public void startServer() throws Exception {
+    server = FakeLanguageServer.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.close();
+  }
+
+  @Test
+  public void testAllMethods() {
+    for (NLPMethod method : NLPMethod.values()) {
+      try (NLPMethodExecutor executor = method.createExecutor(server.getSettings(), "en", EncodingType.UTF8)) {
+        String json = executor.execute(TEXT);
+        Assert.assertFalse(method.name(), json.isEmpty());
+      }
+    }
+    Assert.assertEquals(NLPMethod.values().length, server.getRequestCount());
+  }
+
+  @Test
+  public void testResponsesAreDeterministic() {
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SYNTAX)) {
+      AnalyzeSyntaxResponse response = (AnalyzeSyntaxResponse) executor.getResponse(TEXT);
+      Assert.assertEquals(response, executor.getResponse(TEXT));
+      Assert.assertEquals("Google", response.getTokens(0).getText().getContent());
+      Assert.assertEquals(2, response.getSentencesCount());
+    }
+  }
+
+  @Test
+  public void testIdenticalRequestsInFlightAreCoalesced() throws Exception {
+    server.setLatency(200);
+    long coalesced = InFlightRequests.getCoalescedCount();
+    try (NLPMethodExecutor first = createExecutor(NLPMethod.ANALYZE_SENTIMENT);
+         NLPMethodExecutor second = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      List<ApiFuture<? extends MessageOrBuilder>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        futures.add(first.getResponseAsync(TEXT));
+        futures.add(second.getResponseAsync(TEXT));
+      }
+      ApiFuture<? extends MessageOrBuilder> other = first.getResponseAsync("It was great!");
+      for (ApiFuture<? extends MessageOrBuilder> future : futures) {
+        Assert.assertEquals(futures.get(0).get(), future.get());
+      }
+      Assert.assertNotEquals(futures.get(0).get(), other.get());
+    }
+    Assert.assertEquals(2, server.getRequestCount());
+    Assert.assertEquals(5, InFlightRequests.getCoalescedCount() - coalesced);
+    Assert.assertEquals(0, InFlightRequests.size());
+
+    // completed requests are not shared with later ones
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.getResponse(TEXT);
+    }
+    Assert.assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  public void testLargeDocumentsAreChunked() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      text.append("Sentence ").append(i).append(" is about Google. ").append(TEXT).append(' ');
+    }
+    try (NLPMethodExecutor whole = createExecutor(NLPMethod.ANOTATE_TEXT);
+         NLPMethodExecutor chunked = createExecutor(NLPMethod.ANOTATE_TEXT)) {
+      chunked.setMaxDocumentBytes(500);
+      AnnotateTextResponse expected = (AnnotateTextResponse) whole.getResponse(text.toString());
+      AnnotateTextResponse actual = (AnnotateTextResponse) chunked.getResponse(text.toString());
+      Assert.assertTrue(server.getRequestCount() > 2);
+
+      Assert.assertEquals(expected.getSentencesList(), actual.getSentencesList());
+      Assert.assertEquals(expected.getTokensCount(), actual.getTokensCount());
+      for (int i = 0; i < expected.getTokensCount(); i++) {
+        Assert.assertEquals(expected.getTokens(i).getText(), actual.getTokens(i).getText());
+      }
+      Assert.assertEquals(expected.getEntitiesCount(), actual.getEntitiesCount());
+      for (Entity entity : actual.getEntitiesList()) {
+        Entity expectedEntity = expected.getEntitiesList().stream()
+          .filter(e -> e.getName().equals(entity.getName()))
+          .findFirst()
+          .orElseThrow(() -> new AssertionError("Unexpected entity " + entity.getName()));
+        Assert.assertEquals(expectedEntity.getMentionsList(), entity.getMentionsList());
+      }
+      Assert.assertEquals(expected.getLanguage(), actual.getLanguage());
+      Assert.assertTrue(actual.hasDocumentSentiment());
+    }
+  }
+
+  @Test
+  public void testShortTextsArePacked() throws Exception {
+    List<String> texts = Arrays.asList("Great phone!", "The battery died after a day.", "Café was ok.",
+                                       "Would not buy again.", "Shipping was fast.");
+    try (NLPMethodExecutor packing = createExecutor(NLPMethod.ANALYZE_SENTIMENT);
+         NLPMethodExecutor single = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      packing.setMaxPackedTexts(10);
+      List<ApiFuture<? extends MessageOrBuilder>> responses = packing.getResponsesAsync(texts);
+      Assert.assertEquals(texts.size(), responses.size());
+      for (int i = 0; i < texts.size(); i++) {
+        AnalyzeSentimentResponse packed = (AnalyzeSentimentResponse) responses.get(i).get();
+        AnalyzeSentimentResponse expected = (AnalyzeSentimentResponse) single.getResponse(texts.get(i));
+        Assert.assertEquals(expected.getSentencesList(), packed.getSentencesList());
+        Assert.assertEquals(expected.getLanguage(), packed.getLanguage());
+      }
+    }
+    Assert.assertEquals(1 + texts.size(), server.getRequestCount());
+  }
+
+  @Test
+  public void testPackedResponsesAreNotUsedForSingleTexts() throws Exception {
+    List<String> texts = Arrays.asList("A packed cache test.", "It is not sent by other tests.");
+    ResponseCache cache = ResponseCache.shared(1024 * 1024);
+    try (NLPMethodExecutor packing = createExecutor(NLPMethod.ANALYZE_SENTIMENT);
+         NLPMethodExecutor single = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      packing.setResponseCache(cache);
+      packing.setMaxPackedTexts(10);
+      single.setResponseCache(cache);
+      for (ApiFuture<? extends MessageOrBuilder> response : packing.getResponsesAsync(texts)) {
+        response.get();
+      }
+      Assert.assertEquals(1, server.getRequestCount());
+
+      // the document sentiment of a packed response is approximated, so the API is called for single texts
+      for (String text : texts) {
+        single.getResponse(text);
+      }
+      Assert.assertEquals(1 + texts.size(), server.getRequestCount());
+
+      // both kinds of responses are cached for packing executors
+      for (ApiFuture<? extends MessageOrBuilder> response : packing.getResponsesAsync(texts)) {
+        response.get();
+      }
+      Assert.assertEquals(1 + texts.size(), server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testFailedPackIsSentAgainTextByText() throws Exception {
+    List<String> texts = Arrays.asList("Great phone!", "Unsupported text.", "Shipping was fast.");
+    server.failNext(Status.Code.INVALID_ARGUMENT);
+    server.failContent(texts.get(1), Status.Code.INVALID_ARGUMENT);
+    try (NLPMethodExecutor packing = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      packing.setMaxPackedTexts(10);
+      List<ApiFuture<? extends MessageOrBuilder>> responses = packing.getResponsesAsync(texts);
+      Assert.assertNotNull(responses.get(0).get());
+      try {
+        responses.get(1).get();
+        Assert.fail("The unsupported text must fail");
+      } catch (ExecutionException e) {
+        Assert.assertEquals(StatusCode.Code.INVALID_ARGUMENT,
+                            ((ApiException) e.getCause()).getStatusCode().getCode());
+      }
+      Assert.assertNotNull(responses.get(2).get());
+    }
+    Assert.assertEquals(1 + texts.size(), server.getRequestCount());
+  }
+
+  @Test
+  public void testPacksAreSentAgainWhenTextsDependOnEachOther() throws Exception {
+    // tokens of the stand-in server depend on the first token of the document, so packs cannot be split
+    List<String> texts = Arrays.asList("Great phone!", "The battery died after a day.");
+    try (NLPMethodExecutor packing = createExecutor(NLPMethod.ANALYZE_SYNTAX);
+         NLPMethodExecutor single = createExecutor(NLPMethod.ANALYZE_SYNTAX)) {
+      packing.setMaxPackedTexts(10);
+      List<ApiFuture<? extends MessageOrBuilder>> responses = packing.getResponsesAsync(texts);
+      for (int i = 0; i < texts.size(); i++) {
+        Assert.assertEquals(single.getResponse(texts.get(i)), responses.get(i).get());
+      }
+    }
+    Assert.assertEquals(1 + 2 * 2, server.getRequestCount());
+  }
+
+  @Test
+  public void testPackingRequiresIndependentResults() {
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_ENTITIES)) {
+      executor.setMaxPackedTexts(10);
+      Assert.fail("Entities depend on the whole document");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try (NLPMethodExecutor executor = NLPMethod.ANALYZE_SYNTAX.createExecutor(server.getSettings(), null,
+                                                                               EncodingType.UTF16)) {
+      executor.setMaxPackedTexts(10);
+      Assert.fail("The language detected for a pack would apply to all its texts");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTransientErrorsAreRetried() {
+    server.failNext(Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED);
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 10_000));
+      Assert.assertNotNull(executor.getResponse(TEXT));
+    }
+    Assert.assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  public void testListenerReceivesRequestEvents() {
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger billingUnits = new AtomicInteger();
+    server.failNext(Status.Code.UNAVAILABLE);
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 10_000));
+      executor.setResponseCache(ResponseCache.shared(1024 * 1024));
+      executor.setRequestListener(new RequestListener() {
+        @Override
+        public void onRequest(NLPMethod method, int requestBytes) {
+          events.add("request");
+        }
+
+        @Override
+        public void onResponse(NLPMethod method, long latencyNanos, int responseBytes, int units) {
+          billingUnits.addAndGet(units);
+          events.add("response");
+        }
+
+        @Override
+        public void onFailure(NLPMethod method, long latencyNanos, String status) {
+          events.add(status);
+        }
+
+        @Override
+        public void onRetry(NLPMethod method) {
+          events.add("retry");
+        }
+
+        @Override
+        public void onCacheHit(NLPMethod method) {
+          events.add("hit");
+        }
+      });
+      String text = "A listener test, which is not sent by other tests.";
+      executor.getResponse(text);
+      executor.getResponse(text);
+    }
+    Assert.assertEquals(Arrays.asList("request", "UNAVAILABLE", "retry", "request", "response", "hit"), events);
+    Assert.assertEquals(1, billingUnits.get());
+  }
+
+  @Test
+  public void testTraceRecordsPhasesOfRequest() throws Exception {
+    server.failNext(Status.Code.UNAVAILABLE);
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      Assert.assertNull(executor.startTrace(TEXT));
+      executor.setRetryPolicy(new RetryPolicy(3, 20, 20, 10_000));
+      executor.setSlowRequestLog(new SlowRequestLog(0, 1));
+      String text = "A trace test, which is not sent by other tests.";
+      RequestTrace trace = executor.startTrace(text);
+      Assert.assertNotNull(executor.getResponseAsync(text, trace).get());
+      trace.finish(null);
+
+      Assert.assertEquals(1, trace.getRetries());
+      Assert.assertTrue(trace.getNanos(RequestTrace.Phase.BUILD) > 0);
+      Assert.assertTrue(trace.getNanos(RequestTrace.Phase.RPC) > 0);
+      Assert.assertTrue(trace.getNanos(RequestTrace.Phase.BACKOFF) >= TimeUnit.MILLISECONDS.toNanos(20));
+      Assert.assertEquals(0, trace.getNanos(RequestTrace.Phase.CONVERSION));
+    }
+  }
+
+  @Test
+  public void testPermanentErrorsAreNotRetried() {
+    server.failNext(Status.Code.INVALID_ARGUMENT);
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 10_000));
+      executor.getResponse(TEXT);
+      Assert.fail("Request must fail");
+    } catch (ApiException e) {
+      Assert.assertEquals(StatusCode.Code.INVALID_ARGUMENT, e.getStatusCode().getCode());
+    }
+    Assert.assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void testRetriesAreLimited() {
+    server.failNext(Status.Code.UNAVAILABLE, Status.Code.UNAVAILABLE, Status.Code.UNAVAILABLE);
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.setRetryPolicy(new RetryPolicy(2, 1, 10, 10_000));
+      executor.getResponse(TEXT);
+      Assert.fail("Request must fail");
+    } catch (ApiException e) {
+      Assert.assertEquals(StatusCode.Code.UNAVAILABLE, e.getStatusCode().getCode());
+    }
+    Assert.assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  public void testThrottlingLowersRate() {
+    server.failNext(Status.Code.RESOURCE_EXHAUSTED);
+    try (LanguageClientPool.Lease lease = LanguageClientPool.acquire(server.getSettings());
+         NLPMethodExecutor executor = createExecutor(NLPMethod.CLASSIFY_CONTENT)) {
+      double initialRate = lease.getRateLimiter().getRate();
+      Assert.assertNotNull(executor.getResponse(TEXT));
+      Assert.assertTrue(lease.getRateLimiter().getRate() < initialRate);
+      Assert.assertEquals(1, lease.getRateLimiter().getThrottledCount());
+    }
+  }
+
+  @Test
+  public void testWaitingForRateLimitIsBoundedByDeadline() {
+    try (NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      executor.setMaxRequestsPerSecond(0.1);
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 500));
+      Assert.assertNotNull(executor.getResponse(TEXT));
+
+      // the next permit is ten seconds away, which is past the record deadline
+      long startNanos = System.nanoTime();
+      try {
+        executor.getResponse("It was great!");
+        Assert.fail("Request must fail");
+      } catch (ApiException e) {
+        Assert.assertEquals(StatusCode.Code.DEADLINE_EXCEEDED, e.getStatusCode().getCode());
+      }
+      Assert.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+    }
+    Assert.assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void testThrottledClientDoesNotHoldUpRetriesOfOthers() throws Exception {
+    try (FakeLanguageServer throttledServer = FakeLanguageServer.start();
+         NLPMethodExecutor throttled = NLPMethod.ANALYZE_SENTIMENT.createExecutor(throttledServer.getSettings(), "en",
+                                                                                  EncodingType.UTF16);
+         NLPMethodExecutor executor = createExecutor(NLPMethod.ANALYZE_SENTIMENT)) {
+      // the retry of the throttled client waits ten seconds for its rate limiter
+      throttled.setMaxRequestsPerSecond(0.1);
+      throttled.setRetryPolicy(new RetryPolicy(3, 1, 10, 60_000));
+      throttledServer.failNext(Status.Code.UNAVAILABLE);
+      ApiFuture<? extends MessageOrBuilder> waiting = throttled.getResponseAsync(TEXT);
+      while (throttledServer.getRequestCount() == 0) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      TimeUnit.MILLISECONDS.sleep(100);
+
+      server.failNext(Status.Code.UNAVAILABLE);
+      executor.setRetryPolicy(new RetryPolicy(3, 1, 10, 60_000));
+      long startNanos = System.nanoTime();
+      Assert.assertNotNull(executor.getResponse(TEXT));
+      Assert.assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+      Assert.assertFalse(waiting.isDone());
+    }
+  }
+
+  private NLPMethodExecutor createExecutor(NLPMethod method) {
+    return method.createExecutor(server.getSettings(), "en", EncodingType.UTF16);
+  }
+}
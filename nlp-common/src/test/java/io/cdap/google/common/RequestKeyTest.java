@@ -0,0 +1,87 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.EncodingType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RequestKey}.
+ */
+public class RequestKeyTest {
+  private static final LanguageClientSettings SETTINGS = LanguageClientSettings.of("/keys/a.json");
+
+  @Test
+  public void testEqualRequestsHaveEqualKeys() {
+    RequestKey key = RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "text");
+    RequestKey same = RequestKey.of(LanguageClientSettings.of("/keys/a.json"), NLPMethod.ANALYZE_SENTIMENT, "en",
+                                    EncodingType.UTF8, "", "text");
+    Assert.assertEquals(key, same);
+    Assert.assertEquals(key.hashCode(), same.hashCode());
+    Assert.assertEquals(key, RequestKey.fromDigest(key.getDigest()));
+  }
+
+  @Test
+  public void testEveryComponentIsPartOfTheKey() {
+    RequestKey key = RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "v", "text");
+
+    Assert.assertNotEquals(key, RequestKey.of(LanguageClientSettings.of("/keys/b.json"), NLPMethod.ANALYZE_SENTIMENT,
+                                              "en", EncodingType.UTF8, "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(LanguageClientSettings.of(null), NLPMethod.ANALYZE_SENTIMENT,
+                                              "en", EncodingType.UTF8, "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(new LanguageClientSettings("/keys/a.json", "localhost:443", 1),
+                                              NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "v", "text"));
+    Assert.assertNotEquals(RequestKey.of(new LanguageClientSettings(null, "localhost:443", 1, false),
+                                         NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "v", "text"),
+                           RequestKey.of(new LanguageClientSettings(null, "localhost:443", 1, true),
+                                         NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SYNTAX, "en", EncodingType.UTF8,
+                                              "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "de", EncodingType.UTF8,
+                                              "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, null, EncodingType.UTF8,
+                                              "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF16,
+                                              "v", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8,
+                                              "w", "text"));
+    Assert.assertNotEquals(key, RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8,
+                                              "v", "text "));
+  }
+
+  @Test
+  public void testChannelPoolSizeIsNotPartOfTheKey() {
+    Assert.assertEquals(RequestKey.of(new LanguageClientSettings("/keys/a.json", null, 1),
+                                      NLPMethod.ANALYZE_ENTITIES, "en", EncodingType.UTF8, "text"),
+                        RequestKey.of(new LanguageClientSettings("/keys/a.json", null, 8),
+                                      NLPMethod.ANALYZE_ENTITIES, "en", EncodingType.UTF8, "text"));
+  }
+
+  @Test
+  public void testComponentsDoNotRunIntoEachOther() {
+    Assert.assertNotEquals(RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "ab", "c"),
+                           RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "a", "bc"));
+    Assert.assertNotEquals(RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "", EncodingType.UTF8, "en", "c"),
+                           RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "", "c"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDigestMustHaveTheKeySize() {
+    RequestKey.fromDigest(new byte[RequestKey.SIZE - 1]);
+  }
+}
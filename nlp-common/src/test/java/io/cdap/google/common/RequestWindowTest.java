@@ -0,0 +1,164 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link RequestWindow}.
+ */
+public class RequestWindowTest {
+
+  @Test
+  public void testResultsAreHandledInCompletionOrder() throws Exception {
+    Map<String, SettableApiFuture<AnalyzeSentimentResponse>> responses = new HashMap<>();
+    List<String> handled = new ArrayList<>();
+    RequestWindow<String> window = new RequestWindow<>(3, (item, response, failure) -> {
+      Assert.assertNull(failure);
+      Assert.assertEquals(item, ((AnalyzeSentimentResponse) response).getLanguage());
+      handled.add(item);
+    });
+    for (String item : Arrays.asList("a", "b", "c")) {
+      SettableApiFuture<AnalyzeSentimentResponse> response = SettableApiFuture.create();
+      responses.put(item, response);
+      window.submit(item, () -> response);
+    }
+    Assert.assertEquals(3, window.getInFlight());
+    // results are only handled on the next submit or flush, not on the thread completing the response
+    for (String item : Arrays.asList("c", "a", "b")) {
+      responses.get(item).set(response(item));
+    }
+    Assert.assertTrue(handled.isEmpty());
+
+    window.flush();
+    Assert.assertEquals(Arrays.asList("c", "a", "b"), handled);
+    Assert.assertEquals(0, window.getInFlight());
+  }
+
+  @Test
+  public void testRequestsInFlightAreBounded() throws Exception {
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+    AtomicInteger outstanding = new AtomicInteger();
+    AtomicInteger maxOutstanding = new AtomicInteger();
+    List<String> handled = new ArrayList<>();
+    try {
+      RequestWindow<String> window = new RequestWindow<>(3, (item, response, failure) -> handled.add(item));
+      for (int i = 0; i < 20; i++) {
+        String item = Integer.toString(i);
+        window.submit(item, () -> {
+          maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+          SettableApiFuture<AnalyzeSentimentResponse> response = SettableApiFuture.create();
+          executor.schedule(() -> {
+            outstanding.decrementAndGet();
+            response.set(response(item));
+          }, 2, TimeUnit.MILLISECONDS);
+          return response;
+        });
+        Assert.assertTrue(window.getInFlight() <= 3);
+      }
+      window.flush();
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(20, handled.size());
+    Assert.assertTrue("At most 3 requests may be in flight, but were " + maxOutstanding,
+                      maxOutstanding.get() <= 3);
+  }
+
+  @Test
+  public void testFailureInTheMiddleOfAWindow() throws Exception {
+    Map<String, SettableApiFuture<AnalyzeSentimentResponse>> responses = new HashMap<>();
+    List<String> handled = new ArrayList<>();
+    RequestWindow<String> window = new RequestWindow<>(4, (item, response, failure) -> {
+      handled.add(failure == null ? item : item + ":" + failure.getMessage());
+    });
+    for (String item : Arrays.asList("a", "b", "c")) {
+      SettableApiFuture<AnalyzeSentimentResponse> response = SettableApiFuture.create();
+      responses.put(item, response);
+      window.submit(item, () -> response);
+    }
+    // a request which cannot be sent is handled right away and does not take a place in the window
+    window.submit("d", () -> {
+      throw new IllegalArgumentException("invalid");
+    });
+    Assert.assertEquals(Arrays.asList("d:invalid"), handled);
+    Assert.assertEquals(3, window.getInFlight());
+
+    responses.get("a").set(response("a"));
+    responses.get("b").setException(new IllegalStateException("unavailable"));
+    responses.get("c").set(response("c"));
+    window.flush();
+
+    Assert.assertEquals(Arrays.asList("d:invalid", "a", "b:unavailable", "c"), handled);
+    Assert.assertEquals(0, window.getInFlight());
+  }
+
+  @Test
+  public void testHandlerFailureStopsTheWindow() throws Exception {
+    List<String> handled = new ArrayList<>();
+    RequestWindow<String> window = new RequestWindow<>(2, (item, response, failure) -> {
+      if (failure != null) {
+        throw failure;
+      }
+      handled.add(item);
+    });
+    window.submit("a", () -> immediate(response("a")));
+    window.submit("b", () -> failed(new IllegalStateException("unavailable")));
+    try {
+      window.submit("c", () -> immediate(response("c")));
+      Assert.fail("Failure of the handler must be thrown");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("unavailable", e.getMessage());
+    }
+    Assert.assertEquals(Arrays.asList("a"), handled);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWindowMustHoldARequest() {
+    new RequestWindow<String>(0, (item, response, failure) -> { });
+  }
+
+  private static AnalyzeSentimentResponse response(String language) {
+    return AnalyzeSentimentResponse.newBuilder().setLanguage(language).build();
+  }
+
+  private static ApiFuture<AnalyzeSentimentResponse> immediate(AnalyzeSentimentResponse response) {
+    SettableApiFuture<AnalyzeSentimentResponse> future = SettableApiFuture.create();
+    future.set(response);
+    return future;
+  }
+
+  private static ApiFuture<AnalyzeSentimentResponse> failed(Exception failure) {
+    SettableApiFuture<AnalyzeSentimentResponse> future = SettableApiFuture.create();
+    future.setException(failure);
+    return future;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeSentimentResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.common.base.Strings;
+import com.google.protobuf.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResponseCache}.
+ */
+public class ResponseCacheTest {
+  private static final LanguageClientSettings SETTINGS = LanguageClientSettings.of(null);
+
+  @Test
+  public void testEntriesAreWeighedBySerializedSize() {
+    ResponseCache cache = new ResponseCache(4000);
+    for (int i = 0; i < 100; i++) {
+      cache.put(key(i), response(i, 60));
+    }
+
+    long retainedBytes = 0;
+    int retained = 0;
+    for (int i = 0; i < 100; i++) {
+      Message response = cache.get(key(i));
+      if (response != null) {
+        Assert.assertEquals(response(i, 60), response);
+        retainedBytes += RequestKey.SIZE + response.getSerializedSize();
+        retained++;
+      }
+    }
+    // a hundred entries of roughly a hundred bytes each do not fit into four thousand bytes
+    Assert.assertTrue("Cache must evict entries, but retained " + retained, retained < 100);
+    Assert.assertTrue("Cache retained " + retainedBytes + " bytes", retainedBytes <= 4000);
+    Assert.assertTrue("Cache retained " + retainedBytes + " bytes", retainedBytes >= 2000);
+    Assert.assertEquals(100 - retained, cache.getStats().evictionCount());
+  }
+
+  @Test
+  public void testEntryLargerThanCapacityIsNotKept() {
+    ResponseCache cache = new ResponseCache(1000);
+    cache.put(key(0), response(0, 2000));
+    Assert.assertNull(cache.get(key(0)));
+
+    cache.put(key(1), response(1, 10));
+    Assert.assertEquals(response(1, 10), cache.get(key(1)));
+  }
+
+  @Test
+  public void testRecentlyUsedEntryIsNotEvicted() {
+    ResponseCache cache = new ResponseCache(4000);
+    cache.put(key(0), response(0, 60));
+    for (int i = 1; i < 1000; i++) {
+      Assert.assertNotNull(cache.get(key(0)));
+      cache.put(key(i), response(i, 60));
+    }
+    Assert.assertEquals(response(0, 60), cache.get(key(0)));
+    Assert.assertNull(cache.get(key(1)));
+  }
+
+  @Test
+  public void testSharedCacheOnlyGrows() {
+    long capacity = ResponseCache.shared(1L << 20).getCapacityBytes();
+    Assert.assertTrue(capacity >= 1L << 20);
+    Assert.assertEquals(capacity, ResponseCache.shared(1L << 10).getCapacityBytes());
+    Assert.assertSame(ResponseCache.shared(0), ResponseCache.shared(1L << 10));
+  }
+
+  private static RequestKey key(int i) {
+    return RequestKey.of(SETTINGS, NLPMethod.ANALYZE_SENTIMENT, "en", EncodingType.UTF8, "text " + i);
+  }
+
+  private static AnalyzeSentimentResponse response(int i, int size) {
+    String language = Integer.toString(i);
+    return AnalyzeSentimentResponse.newBuilder()
+      .setLanguage(language + Strings.repeat(" ", size - language.length()))
+      .build();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import com.google.gson.JsonParser;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ResponseJsonWriter} writes json equivalent to the one of {@link JsonFormat}, parsing both into
+ * the same tree, since strings are escaped differently.
+ */
+public class ResponseJsonWriterTest {
+  private static final String TEXT = "Google, headquartered in Mountain View, unveiled the new Android phone. " +
+    "It was \"great\"!\n";
+  private static final JsonParser PARSER = new JsonParser();
+
+  @Test
+  public void testAllMethods() throws Exception {
+    try (FakeLanguageServer server = FakeLanguageServer.start()) {
+      for (NLPMethod method : NLPMethod.values()) {
+        try (NLPMethodExecutor executor = method.createExecutor(server.getSettings(), "en", EncodingType.UTF8)) {
+          assertSameJson(executor.getResponse(TEXT));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSpecialValues() throws Exception {
+    AnalyzeEntitiesResponse entities = AnalyzeEntitiesResponse.newBuilder()
+      .addEntities(Entity.newBuilder()
+                     .setName("quote \" backslash \\ tab \t control \u0001 line separator \u2028")
+                     .putMetadata("wikipedia_url", "https://en.wikipedia.org/wiki/Google")
+                     .putMetadata("mid", "/m/045c7b")
+                     .setSalience(Float.NaN)
+                     .addMentions(EntityMention.newBuilder().setText(TextSpan.newBuilder().setContent("Google"))))
+      .addEntities(Entity.getDefaultInstance())
+      .build();
+    assertSameJson(entities);
+
+    AnalyzeSyntaxResponse syntax = AnalyzeSyntaxResponse.newBuilder()
+      .addTokens(Token.newBuilder().setPartOfSpeech(PartOfSpeech.newBuilder().setTagValue(1000)))
+      .build();
+    assertSameJson(syntax);
+  }
+
+  @Test
+  public void testHtmlCharactersAreNotEscaped() throws Exception {
+    String name = "<b>AT&T</b> a='1'";
+    AnalyzeEntitiesResponse entities = AnalyzeEntitiesResponse.newBuilder()
+      .addEntities(Entity.newBuilder().setName(name))
+      .build();
+    assertSameJson(entities);
+    Assert.assertTrue(ResponseJsonWriter.COMPACT.toJson(entities).contains("\"name\":\"" + name + "\""));
+  }
+
+  private static void assertSameJson(MessageOrBuilder response) throws Exception {
+    Assert.assertEquals(PARSER.parse(JsonFormat.printer().print(response)),
+                        PARSER.parse(ResponseJsonWriter.PRETTY.toJson(response)));
+    Assert.assertEquals(PARSER.parse(JsonFormat.printer().print(response)),
+                        PARSER.parse(ResponseJsonWriter.COMPACT.toJson(response)));
+    Assert.assertEquals(PARSER.parse(JsonFormat.printer().includingDefaultValueFields().print(response)),
+                        PARSER.parse(ResponseJsonWriter.create(true, true).toJson(response)));
+
+    String compact = ResponseJsonWriter.COMPACT.toJson(response);
+    Assert.assertFalse(compact, compact.contains("\n"));
+  }
+}
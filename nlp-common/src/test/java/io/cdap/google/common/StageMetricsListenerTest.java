@@ -0,0 +1,152 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.common;
+
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link StageMetricsListener}.
+ */
+public class StageMetricsListenerTest {
+  private final Map<String, Long> counts = new HashMap<>();
+  private final Map<String, Long> gauges = new HashMap<>();
+  private final List<String> gaugeCalls = new ArrayList<>();
+  private StageMetricsListener listener;
+
+  @Before
+  public void setUp() {
+    listener = new StageMetricsListener(recordingMetrics());
+  }
+
+  @Test
+  public void testCounters() {
+    listener.onRequest(NLPMethod.ANALYZE_SENTIMENT, 100);
+    listener.onFailure(NLPMethod.ANALYZE_SENTIMENT, TimeUnit.MILLISECONDS.toNanos(5), "UNAVAILABLE");
+    listener.onRetry(NLPMethod.ANALYZE_SENTIMENT);
+    listener.onRequest(NLPMethod.ANALYZE_SENTIMENT, 100);
+    listener.onResponse(NLPMethod.ANALYZE_SENTIMENT, TimeUnit.MILLISECONDS.toNanos(20), 300, 1);
+    listener.onCacheHit(NLPMethod.ANALYZE_SENTIMENT);
+    listener.onRequest(NLPMethod.ANALYZE_SENTIMENT, 2500);
+    listener.onResponse(NLPMethod.ANALYZE_SENTIMENT, TimeUnit.MILLISECONDS.toNanos(30), 700, 3);
+
+    Assert.assertEquals(3L, (long) counts.get(StageMetricsListener.REQUESTS));
+    Assert.assertEquals(2700L, (long) counts.get(StageMetricsListener.REQUEST_BYTES));
+    Assert.assertEquals(1000L, (long) counts.get(StageMetricsListener.RESPONSE_BYTES));
+    Assert.assertEquals(4L, (long) counts.get(StageMetricsListener.BILLING_UNITS));
+    Assert.assertEquals(1L, (long) counts.get(StageMetricsListener.RETRIES));
+    Assert.assertEquals(1L, (long) counts.get(StageMetricsListener.CACHE_HITS));
+    // conversions are only published as latency gauges
+    listener.onConversion(NLPMethod.ANALYZE_SENTIMENT, 1000);
+    Assert.assertEquals(7, counts.size());
+  }
+
+  @Test
+  public void testErrorsAreCountedByStatus() {
+    listener.onFailure(NLPMethod.ANALYZE_ENTITIES, 1000, "UNAVAILABLE");
+    listener.onFailure(NLPMethod.ANALYZE_ENTITIES, 1000, "RESOURCE_EXHAUSTED");
+    listener.onFailure(NLPMethod.ANALYZE_ENTITIES, 1000, "UNAVAILABLE");
+    listener.onFailure(NLPMethod.ANALYZE_ENTITIES, 1000, "UNKNOWN");
+
+    Assert.assertEquals(2L, (long) counts.get("nlp.errors.UNAVAILABLE"));
+    Assert.assertEquals(1L, (long) counts.get("nlp.errors.RESOURCE_EXHAUSTED"));
+    Assert.assertEquals(1L, (long) counts.get("nlp.errors.UNKNOWN"));
+    Assert.assertNull(counts.get(StageMetricsListener.REQUESTS));
+  }
+
+  @Test
+  public void testLatencyGauges() {
+    // gauges are only set for the latencies recorded so far
+    new StageMetricsListener(recordingMetrics()).publishLatencies();
+    Assert.assertTrue(gaugeCalls.isEmpty());
+
+    for (int i = 1; i <= 100; i++) {
+      listener.onResponse(NLPMethod.ANALYZE_SYNTAX, TimeUnit.MILLISECONDS.toNanos(i), 10, 1);
+    }
+    listener.onConversion(NLPMethod.ANALYZE_SYNTAX, TimeUnit.MICROSECONDS.toNanos(40));
+    listener.publishLatencies();
+
+    assertGauge(50, gauges.get("nlp.rpc.latency.p50.ms"));
+    assertGauge(90, gauges.get("nlp.rpc.latency.p90.ms"));
+    assertGauge(99, gauges.get("nlp.rpc.latency.p99.ms"));
+    for (String percentile : new String[] {"p50", "p90", "p99"}) {
+      assertGauge(40, gauges.get("nlp.conversion.latency." + percentile + ".us"));
+    }
+    Assert.assertEquals(6, gaugeCalls.size());
+  }
+
+  @Test
+  public void testGaugesArePublishedAtMostOncePerSecond() throws InterruptedException {
+    listener.onResponse(NLPMethod.ANALYZE_SYNTAX, TimeUnit.MILLISECONDS.toNanos(10), 10, 1);
+    long publishedNanos = System.nanoTime();
+    listener.publishLatencies();
+    Assert.assertEquals(3, gaugeCalls.size());
+
+    // calls within the second after publishing do not set the gauges again
+    listener.onResponse(NLPMethod.ANALYZE_SYNTAX, TimeUnit.MILLISECONDS.toNanos(500), 10, 1);
+    listener.onResponse(NLPMethod.ANALYZE_SYNTAX, TimeUnit.MILLISECONDS.toNanos(500), 10, 1);
+    for (int i = 0; i < 100; i++) {
+      listener.publishLatencies();
+    }
+    if (System.nanoTime() - publishedNanos < TimeUnit.SECONDS.toNanos(1)) {
+      Assert.assertEquals(3, gaugeCalls.size());
+      assertGauge(10, gauges.get("nlp.rpc.latency.p50.ms"));
+    }
+
+    TimeUnit.MILLISECONDS.sleep(1100);
+    listener.publishLatencies();
+    Assert.assertEquals(6, gaugeCalls.size());
+    assertGauge(500, gauges.get("nlp.rpc.latency.p50.ms"));
+  }
+
+  /**
+   * Latencies are recorded with a relative error below 1.6%, so gauges are only checked to within 2%.
+   */
+  private static void assertGauge(long expected, Long actual) {
+    Assert.assertNotNull(actual);
+    Assert.assertEquals((double) expected, actual, Math.max(1, expected / 50d));
+  }
+
+  /**
+   * @return stage metrics which record the counters and gauges set, whatever other methods the interface has
+   */
+  private StageMetrics recordingMetrics() {
+    return (StageMetrics) Proxy.newProxyInstance(
+      StageMetrics.class.getClassLoader(), new Class<?>[] {StageMetrics.class}, (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "count":
+            counts.merge((String) args[0], ((Number) args[1]).longValue(), Long::sum);
+            return null;
+          case "gauge":
+            gauges.put((String) args[0], ((Number) args[1]).longValue());
+            gaugeCalls.add((String) args[0]);
+            return null;
+          default:
+            throw new UnsupportedOperationException("Unexpected call of " + method);
+        }
+      });
+  }
+}
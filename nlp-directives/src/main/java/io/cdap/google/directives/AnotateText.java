@@ -19,10 +19,15 @@ package io.cdap.google.directives;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.google.common.AnotateTextFeature;
 import io.cdap.google.common.NLPMethod;
+import io.cdap.google.common.NLPMethodExecutor;
 import io.cdap.wrangler.api.Directive;
+import io.cdap.wrangler.api.DirectiveParseException;
 import io.cdap.wrangler.api.annotations.Categories;
 
+import java.util.Set;
+
 /**
  * A directive that provides all the features that
  * nlp-analyze-entities, nlp-analyze-entity-sentiment, nlp-analyze-sentiment,
@@ -36,12 +41,36 @@ import io.cdap.wrangler.api.annotations.Categories;
   "nlp-analyze-syntax, nlp-classify-text provide in one call.")
 public class AnotateText extends BaseGoogleLanguageDirective implements Directive {
   public static final String NAME = "nlp-anotate-text";
+  private static final String OPTION_FEATURES = "features";
+
+  private Set<AnotateTextFeature> features;
 
   @Override
   protected NLPMethod getNLPMethod() {
     return NLPMethod.ANOTATE_TEXT;
   }
 
+  @Override
+  protected Set<String> getSupportedOptions() {
+    Set<String> options = super.getSupportedOptions();
+    options.add(OPTION_FEATURES);
+    return options;
+  }
+
+  @Override
+  protected void initializeOptions(DirectiveOptions options) throws DirectiveParseException {
+    try {
+      features = AnotateTextFeature.parse(options.get(OPTION_FEATURES));
+    } catch (IllegalArgumentException e) {
+      throw new DirectiveParseException(String.format("Invalid option '%s': %s", OPTION_FEATURES, e.getMessage()));
+    }
+  }
+
+  @Override
+  protected void configureExecutor(NLPMethodExecutor executor) {
+    ((io.cdap.google.common.AnotateText) executor).setFeatures(features);
+  }
+
   @Override
   protected String getName() {
     return NAME;
@@ -17,8 +17,18 @@
 package io.cdap.google.directives;
 
 import com.google.cloud.language.v1.EncodingType;
+import com.google.protobuf.Message;
+import io.cdap.google.common.DiskResponseCache;
+import io.cdap.google.common.DocumentChunker;
+import io.cdap.google.common.FlightRecorderEvents;
+import io.cdap.google.common.LanguageClientSettings;
 import io.cdap.google.common.NLPMethod;
 import io.cdap.google.common.NLPMethodExecutor;
+import io.cdap.google.common.RequestWindow;
+import io.cdap.google.common.ResponseCache;
+import io.cdap.google.common.ResponseJsonWriter;
+import io.cdap.google.common.RetryPolicy;
+import io.cdap.google.common.StageMetricsListener;
 import io.cdap.wrangler.api.Arguments;
 import io.cdap.wrangler.api.DirectiveExecutionException;
 import io.cdap.wrangler.api.DirectiveParseException;
@@ -29,19 +39,69 @@ import io.cdap.wrangler.api.parser.ColumnName;
 import io.cdap.wrangler.api.parser.Text;
 import io.cdap.wrangler.api.parser.TokenType;
 import io.cdap.wrangler.api.parser.UsageDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A base class for nlp directives. The class is responsible for most directive related work as well as
  * Getting the json response from Google NLP API.
  */
 public abstract class BaseGoogleLanguageDirective {
+  private static final Logger LOG = LoggerFactory.getLogger(BaseGoogleLanguageDirective.class);
+  private static final String OPTION_CACHE_SIZE = "cache-size-mb";
+  private static final String OPTION_DISK_CACHE_DIRECTORY = "disk-cache-dir";
+  private static final String OPTION_DISK_CACHE_SIZE = "disk-cache-size-mb";
+  private static final String OPTION_MAX_REQUESTS_PER_SECOND = "max-requests-per-second";
+  private static final String OPTION_MAX_IN_FLIGHT_REQUESTS = "max-in-flight-requests";
+  // interactive sessions run small batches, so a few requests in parallel already make a big difference
+  private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 10;
+  private static final String OPTION_MAX_RETRIES = "max-retries";
+  private static final String OPTION_RETRY_INITIAL_DELAY = "retry-initial-delay-ms";
+  private static final String OPTION_RETRY_MAX_DELAY = "retry-max-delay-ms";
+  private static final String OPTION_RECORD_DEADLINE = "record-deadline-seconds";
+  private static final int DEFAULT_RECORD_DEADLINE_SECONDS = 60;
+  private static final String OPTION_MAX_DOCUMENT_BYTES = "max-document-bytes";
+  private static final int DEFAULT_DISK_CACHE_SIZE_MB = 1024;
+  private static final String OPTION_OUTPUT = "output";
+  private static final String OUTPUT_JSON = "json";
+  private static final String OUTPUT_COMPACT_JSON = "compact-json";
+  private static final String OUTPUT_MAP = "map";
+  private static final String OUTPUT_BYTES = "bytes";
+  private static final String OPTION_INCLUDE_DEFAULTS = "include-defaults";
+  // sends requests without TLS and credentials to a local server instead of Google, only meant for tests
+  private static final String OPTION_PLAINTEXT_ENDPOINT = "plaintext-endpoint";
+  private static final long BYTES_PER_MB = 1024 * 1024;
+
   protected EncodingType encoding = EncodingType.UTF8;
   private ColumnName source;
   private ColumnName destination;
   private String serviceFilePath;
   private String languageCode;
+  private int cacheSizeMB;
+  private String diskCacheDirectory;
+  private int diskCacheSizeMB;
+  private int maxRequestsPerSecond;
+  private int maxInFlightRequests;
+  private int maxRetries;
+  private long retryInitialDelayMillis;
+  private long retryMaxDelayMillis;
+  private long recordDeadlineMillis;
+  private int maxDocumentBytes;
+  private boolean mapOutput;
+  private boolean bytesOutput;
+  private boolean compactJson;
+  private boolean includeDefaults;
+  private String plaintextEndpoint;
+  private transient NLPMethodExecutor nlpMethodExecutor;
+  private transient StageMetricsListener metrics;
 
   public UsageDefinition define() {
     UsageDefinition.Builder builder = UsageDefinition.builder(getName());
@@ -50,6 +110,7 @@ public abstract class BaseGoogleLanguageDirective {
     builder.define("authentication-file", TokenType.TEXT, Optional.TRUE);
     builder.define("encoding", TokenType.TEXT, Optional.TRUE);
     builder.define("language", TokenType.TEXT, Optional.TRUE);
+    builder.define("options", TokenType.TEXT, Optional.TRUE);
     return builder.build();
   }
 
@@ -88,14 +149,126 @@ public abstract class BaseGoogleLanguageDirective {
     if (args.contains("language")) {
       languageCode = ((Text) args.value("language")).value();
     }
+
+    String optionsString = args.contains("options") ? ((Text) args.value("options")).value() : null;
+    DirectiveOptions options = DirectiveOptions.parse(getName(), optionsString, getSupportedOptions());
+    cacheSizeMB = options.getInt(OPTION_CACHE_SIZE, 0);
+    if (cacheSizeMB < 0) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must not be negative, but was %d", OPTION_CACHE_SIZE, cacheSizeMB));
+    }
+    diskCacheDirectory = options.get(OPTION_DISK_CACHE_DIRECTORY);
+    diskCacheSizeMB = options.getInt(OPTION_DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_SIZE_MB);
+    if (diskCacheSizeMB < 1) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must be positive, but was %d", OPTION_DISK_CACHE_SIZE, diskCacheSizeMB));
+    }
+    maxRequestsPerSecond = options.getInt(OPTION_MAX_REQUESTS_PER_SECOND, 0);
+    if (maxRequestsPerSecond < 0) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must not be negative, but was %d", OPTION_MAX_REQUESTS_PER_SECOND, maxRequestsPerSecond));
+    }
+    maxInFlightRequests = options.getInt(OPTION_MAX_IN_FLIGHT_REQUESTS, DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+    if (maxInFlightRequests < 1) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must be positive, but was %d", OPTION_MAX_IN_FLIGHT_REQUESTS, maxInFlightRequests));
+    }
+    maxRetries = options.getInt(OPTION_MAX_RETRIES, RetryPolicy.DEFAULT_MAX_RETRIES);
+    retryInitialDelayMillis = options.getInt(OPTION_RETRY_INITIAL_DELAY,
+                                             (int) RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS);
+    retryMaxDelayMillis = options.getInt(OPTION_RETRY_MAX_DELAY, (int) RetryPolicy.DEFAULT_MAX_DELAY_MILLIS);
+    recordDeadlineMillis = TimeUnit.SECONDS.toMillis(options.getInt(OPTION_RECORD_DEADLINE,
+                                                                    DEFAULT_RECORD_DEADLINE_SECONDS));
+    maxDocumentBytes = options.getInt(OPTION_MAX_DOCUMENT_BYTES, 0);
+    if (maxDocumentBytes != 0 && (maxDocumentBytes < 4 || maxDocumentBytes > DocumentChunker.MAX_DOCUMENT_BYTES)) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must be 0 or between 4 and %d, but was %d",
+        OPTION_MAX_DOCUMENT_BYTES, DocumentChunker.MAX_DOCUMENT_BYTES, maxDocumentBytes));
+    }
+    String output = options.get(OPTION_OUTPUT);
+    if (output != null && !OUTPUT_JSON.equalsIgnoreCase(output) && !OUTPUT_COMPACT_JSON.equalsIgnoreCase(output) &&
+      !OUTPUT_MAP.equalsIgnoreCase(output) && !OUTPUT_BYTES.equalsIgnoreCase(output)) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' must be one of '%s', '%s', '%s' or '%s', but was '%s'",
+        OPTION_OUTPUT, OUTPUT_JSON, OUTPUT_COMPACT_JSON, OUTPUT_MAP, OUTPUT_BYTES, output));
+    }
+    mapOutput = OUTPUT_MAP.equalsIgnoreCase(output);
+    bytesOutput = OUTPUT_BYTES.equalsIgnoreCase(output);
+    compactJson = OUTPUT_COMPACT_JSON.equalsIgnoreCase(output);
+    includeDefaults = options.getBoolean(OPTION_INCLUDE_DEFAULTS, false);
+    plaintextEndpoint = options.get(OPTION_PLAINTEXT_ENDPOINT);
+    try {
+      createRetryPolicy();
+    } catch (IllegalArgumentException e) {
+      throw new DirectiveParseException(String.format("Invalid retry options: %s", e.getMessage()));
+    }
+    initializeOptions(options);
+  }
+
+  /**
+   * Called at the end of {@link #initialize(Arguments)} to let a directive read its own options.
+   */
+  protected void initializeOptions(DirectiveOptions options) throws DirectiveParseException {
+    // no-op by default
+  }
+
+  /**
+   * Called when the executor is created to let a directive apply its own options to it.
+   */
+  protected void configureExecutor(NLPMethodExecutor executor) {
+    // no-op by default
+  }
+
+  /**
+   * @return keys of the options this directive accepts
+   */
+  protected Set<String> getSupportedOptions() {
+    return new HashSet<>(Arrays.asList(OPTION_CACHE_SIZE, OPTION_DISK_CACHE_DIRECTORY, OPTION_DISK_CACHE_SIZE,
+                                       OPTION_MAX_REQUESTS_PER_SECOND, OPTION_MAX_RETRIES, OPTION_RETRY_INITIAL_DELAY,
+                                       OPTION_RETRY_MAX_DELAY, OPTION_RECORD_DEADLINE, OPTION_MAX_IN_FLIGHT_REQUESTS,
+                                       OPTION_OUTPUT, OPTION_INCLUDE_DEFAULTS, OPTION_MAX_DOCUMENT_BYTES,
+                                       OPTION_PLAINTEXT_ENDPOINT));
   }
 
   public void destroy() {
-    // no-op
+    if (nlpMethodExecutor != null) {
+      nlpMethodExecutor.close();
+      nlpMethodExecutor = null;
+      metrics = null;
+    }
   }
 
+  /**
+   * Sends the requests for up to {@code max-in-flight-requests} rows at a time. Each response is written to its own
+   * row, so the rows keep their order no matter in which order the responses arrive.
+   */
   public List<Row> execute(List<Row> rows, ExecutorContext context) throws DirectiveExecutionException {
-    try (NLPMethodExecutor nlpMethodExecutor = getNLPMethod().createExecutor(serviceFilePath, languageCode, encoding)) {
+    NLPMethodExecutor nlpMethodExecutor = getExecutor();
+    if (metrics == null && context != null && context.getMetrics() != null) {
+      metrics = new StageMetricsListener(context.getMetrics());
+      nlpMethodExecutor.setRequestListener(metrics);
+    }
+    ResponseJsonWriter jsonWriter = ResponseJsonWriter.create(!compactJson, includeDefaults);
+    RequestWindow<Row> window = new RequestWindow<>(maxInFlightRequests, (row, response, failure) -> {
+      if (failure != null) {
+        throw failure;
+      }
+      FlightRecorderEvents.Span event = FlightRecorderEvents.beginConversion();
+      long startNanos = System.nanoTime();
+      if (bytesOutput) {
+        row.addOrSet(destination.value(), ((Message) response).toByteArray());
+      } else if (mapOutput) {
+        // a map is built straight from the response, saving the json round trip for recipes which read its fields
+        row.addOrSet(destination.value(), ResponseMaps.toMap(response));
+      } else {
+        row.addOrSet(destination.value(), jsonWriter.toJson(response));
+      }
+      long conversionNanos = System.nanoTime() - startNanos;
+      event.finish(nlpMethodExecutor.getMethod(), response, null);
+      nlpMethodExecutor.recordConversion(conversionNanos);
+    });
+
+    try {
       for (Row row : rows) {
         int sidx = row.find(source.value());
         if (sidx == -1) {
@@ -104,11 +277,54 @@ public abstract class BaseGoogleLanguageDirective {
         }
 
         String text = (String) row.getValue(sidx);
-        String resultJson = nlpMethodExecutor.execute(text);
-        row.addOrSet(destination.value(), resultJson);
+        window.submit(row, () -> nlpMethodExecutor.getResponseAsync(text));
+      }
+      window.flush();
+      if (metrics != null) {
+        metrics.publishLatencies();
       }
-      return rows;
+    } catch (DirectiveExecutionException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new DirectiveExecutionException(String.format(
+        "Error encountered while executing '%s' : %s", getName(), e.getMessage()), e);
     }
+    return rows;
+  }
+
+  /**
+   * The executor is created on first use rather than in {@link #initialize(Arguments)}, since directives are also
+   * initialized when a recipe is only parsed. It is kept for all following batches and released in
+   * {@link #destroy()}.
+   */
+  private NLPMethodExecutor getExecutor() {
+    if (nlpMethodExecutor == null) {
+      LanguageClientSettings clientSettings = plaintextEndpoint == null ? LanguageClientSettings.of(serviceFilePath)
+        : LanguageClientSettings.plaintext(plaintextEndpoint);
+      nlpMethodExecutor = getNLPMethod().createExecutor(clientSettings, languageCode, encoding);
+      if (cacheSizeMB > 0) {
+        nlpMethodExecutor.setResponseCache(ResponseCache.shared(cacheSizeMB * BYTES_PER_MB));
+      }
+      nlpMethodExecutor.setRetryPolicy(createRetryPolicy());
+      if (maxRequestsPerSecond > 0) {
+        nlpMethodExecutor.setMaxRequestsPerSecond(maxRequestsPerSecond);
+      }
+      nlpMethodExecutor.setMaxDocumentBytes(maxDocumentBytes);
+      if (diskCacheDirectory != null) {
+        try {
+          nlpMethodExecutor.setDiskCache(DiskResponseCache.open(Paths.get(diskCacheDirectory),
+                                                                diskCacheSizeMB * BYTES_PER_MB));
+        } catch (IOException e) {
+          LOG.warn("Cannot open disk cache in '{}', responses will not be persisted", diskCacheDirectory, e);
+        }
+      }
+      configureExecutor(nlpMethodExecutor);
+    }
+    return nlpMethodExecutor;
+  }
+
+  private RetryPolicy createRetryPolicy() {
+    return new RetryPolicy(maxRetries, retryInitialDelayMillis, retryMaxDelayMillis, recordDeadlineMillis);
   }
 
   protected abstract String getName();
@@ -0,0 +1,95 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.directives;
+
+import io.cdap.wrangler.api.DirectiveParseException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Options of an nlp directive, given as space separated 'key=value' pairs, e.g. 'cache-size-mb=64'.
+ */
+final class DirectiveOptions {
+  private final String directiveName;
+  private final Map<String, String> options;
+
+  private DirectiveOptions(String directiveName, Map<String, String> options) {
+    this.directiveName = directiveName;
+    this.options = options;
+  }
+
+  /**
+   * Parses the options, failing if any of them is not one of the supported keys.
+   */
+  static DirectiveOptions parse(String directiveName, @Nullable String value,
+                                Collection<String> supportedKeys) throws DirectiveParseException {
+    Map<String, String> options = new HashMap<>();
+    if (value != null) {
+      for (String option : value.trim().split("\\s+")) {
+        if (option.isEmpty()) {
+          continue;
+        }
+        int idx = option.indexOf('=');
+        if (idx <= 0) {
+          throw new DirectiveParseException(String.format(
+            "Option '%s' of directive '%s' must be in form 'key=value'", option, directiveName));
+        }
+        String key = option.substring(0, idx);
+        if (!supportedKeys.contains(key)) {
+          throw new DirectiveParseException(String.format(
+            "Option '%s' is not supported by directive '%s'. Supported options are %s",
+            key, directiveName, supportedKeys));
+        }
+        options.put(key, option.substring(idx + 1));
+      }
+    }
+    return new DirectiveOptions(directiveName, options);
+  }
+
+  @Nullable
+  String get(String key) {
+    return options.get(key);
+  }
+
+  boolean getBoolean(String key, boolean defaultValue) throws DirectiveParseException {
+    String value = options.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' of directive '%s' must be 'true' or 'false', but was '%s'", key, directiveName, value));
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  int getInt(String key, int defaultValue) throws DirectiveParseException {
+    String value = options.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new DirectiveParseException(String.format(
+        "Option '%s' of directive '%s' must be an integer, but was '%s'", key, directiveName, value));
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.directives;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.MapEntry;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts Language API responses into nested maps, keyed by the same field names as the json the API returns.
+ * Unlike the json, scalar fields are always present, so a score of 0 can be told apart from a missing score.
+ * Nested messages become maps, repeated fields lists and enums their names.
+ */
+final class ResponseMaps {
+
+  private ResponseMaps() {
+  }
+
+  static Map<String, Object> toMap(MessageOrBuilder message) {
+    List<Descriptors.FieldDescriptor> fields = message.getDescriptorForType().getFields();
+    Map<String, Object> map = new LinkedHashMap<>(fields.size() * 2);
+    for (Descriptors.FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        map.put(field.getJsonName(), toMapField(message, field));
+      } else if (field.isRepeated()) {
+        int count = message.getRepeatedFieldCount(field);
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          values.add(toValue(field, message.getRepeatedField(field, i)));
+        }
+        map.put(field.getJsonName(), values);
+      } else if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE || message.hasField(field)) {
+        map.put(field.getJsonName(), toValue(field, message.getField(field)));
+      }
+    }
+    return map;
+  }
+
+  private static Map<Object, Object> toMapField(MessageOrBuilder message, Descriptors.FieldDescriptor field) {
+    int count = message.getRepeatedFieldCount(field);
+    Map<Object, Object> map = new LinkedHashMap<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      MapEntry<?, ?> entry = (MapEntry<?, ?>) message.getRepeatedField(field, i);
+      Descriptors.FieldDescriptor valueField = entry.getDescriptorForType().findFieldByName("value");
+      map.put(entry.getKey(), toValue(valueField, entry.getValue()));
+    }
+    return map;
+  }
+
+  private static Object toValue(Descriptors.FieldDescriptor field, Object value) {
+    switch (field.getJavaType()) {
+      case MESSAGE:
+        return toMap((MessageOrBuilder) value);
+      case ENUM:
+        return ((Descriptors.EnumValueDescriptor) value).getName();
+      default:
+        return value;
+    }
+  }
+}
@@ -16,28 +16,34 @@
 
 package io.cdap.google.directives;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import io.cdap.google.common.FakeLanguageServer;
 import io.cdap.wrangler.api.RecipePipeline;
 import io.cdap.wrangler.api.Row;
 import io.cdap.wrangler.test.TestingRig;
 import io.cdap.wrangler.test.api.TestRecipe;
 import io.cdap.wrangler.test.api.TestRows;
+import io.grpc.Status;
 import org.apache.commons.lang3.StringUtils;
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Assume;
-import org.junit.AssumptionViolatedException;
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Tests for the google nlp directives.
  *
- * To run the tests the path to a service account key must be provided.
+ * By default the tests run against {@link FakeLanguageServer}, a local stand-in for Natural Language API. To run
+ * them against the API instead, the path to a service account key must be provided.
  * The service account key can be found on the Dashboard in the Cloud Platform Console.
  * Make sure the account key has permission to access Natural Language API.
  *
@@ -45,18 +51,22 @@ import java.util.List;
  *
  */
 public class TestDirectives {
-  private static final Logger LOG = LoggerFactory.getLogger(TestDirectives.class);
-
   private static final JsonParser PARSER = new JsonParser();
   private static final String AUTHENTICATION_FILE = System.getProperty("service.account.file");
 
+  private static FakeLanguageServer server;
+
   @BeforeClass
-  public static void initializeTests() {
-    try {
-      Assume.assumeNotNull(AUTHENTICATION_FILE);
-    } catch (AssumptionViolatedException e) {
-      LOG.warn("ETL tests are skipped. Please find the instructions on enabling it at README.md");
-      throw e;
+  public static void startServer() throws IOException {
+    if (AUTHENTICATION_FILE == null) {
+      server = FakeLanguageServer.start();
+    }
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    if (server != null) {
+      server.close();
     }
   }
 
@@ -66,7 +76,7 @@ public class TestDirectives {
       "irreversible succession from the past, through the present, to the future.";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-analyze-syntax :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-analyze-syntax", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -91,10 +101,11 @@ public class TestDirectives {
 
   @Test
   public void testAnalyzeEntities() throws Exception {
-    String text = "Washington is the 18th largest state, with an area of 71,362 square miles (184,827 square km).";
+    String text = "Washington is the 18th largest state of the United States, with an area of 71,362 square miles " +
+      "(184,827 square km).";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-analyze-entities :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-analyze-entities", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -109,8 +120,8 @@ public class TestDirectives {
 
     Assert.assertEquals("en", jsonObject.getAsJsonPrimitive("language").getAsString());
 
-    // There are 5 entities: Washington ; area ; 71,362 ; 18 ; 184,827. Check that there are at least two since API
-    // results can change
+    // There are 7 entities: Washington ; United States ; state ; area ; 71,362 ; 18 ; 184,827. Check that there are at
+    // least two since API results can change
     Assert.assertTrue(jsonObject.getAsJsonArray("entities").size() > 1);
   }
 
@@ -119,7 +130,7 @@ public class TestDirectives {
     String text = "This test is so awesome!";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-analyze-sentiment :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-analyze-sentiment", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -148,13 +159,40 @@ public class TestDirectives {
     Assert.assertEquals(documentSentiment, sentence.getAsJsonObject("sentiment"));
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAnalyzeSentimentMapOutput() throws Exception {
+    String text = "This test is so awesome!";
+    TestRecipe recipe = new TestRecipe();
+
+    recipe.add(recipe("nlp-analyze-sentiment", "output=map"));
+
+    TestRows rows = new TestRows();
+    rows.add(new Row("body", text));
+
+    RecipePipeline pipeline = TestingRig.pipeline(AnalyzeSentiment.class, recipe);
+    List<Row> actuals = pipeline.execute(rows.toList());
+    Assert.assertEquals(1, actuals.size());
+
+    Map<String, Object> result = (Map<String, Object>) actuals.get(0).getValue("result");
+    Assert.assertEquals("en", result.get("language"));
+
+    Map<String, Object> documentSentiment = (Map<String, Object>) result.get("documentSentiment");
+    Assert.assertTrue(documentSentiment.get("score") instanceof Float);
+    Assert.assertTrue(documentSentiment.get("magnitude") instanceof Float);
+
+    List<Map<String, Object>> sentences = (List<Map<String, Object>>) result.get("sentences");
+    Assert.assertEquals(1, sentences.size());
+    Assert.assertEquals(text, ((Map<String, Object>) sentences.get(0).get("text")).get("content"));
+  }
+
 
   @Test
   public void testAnalyzeEntititySentiment() throws Exception {
     String text = "This test is so awesome!";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-analyze-entity-sentiment :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-analyze-entity-sentiment", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -185,7 +223,7 @@ public class TestDirectives {
       "as described by Newton's Second Law.";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-classify-text :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-classify-text", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -199,8 +237,10 @@ public class TestDirectives {
 
     Assert.assertTrue(jsonObject.getAsJsonArray("categories").size() > 0);
     JsonObject category = jsonObject.getAsJsonArray("categories").get(0).getAsJsonObject();
-    Assert.assertTrue(StringUtils.containsIgnoreCase(category.getAsJsonPrimitive("name").getAsString(),
-                                                     "physics"));
+    if (server == null) {
+      Assert.assertTrue(StringUtils.containsIgnoreCase(category.getAsJsonPrimitive("name").getAsString(),
+                                                       "physics"));
+    }
     Assert.assertTrue(category.getAsJsonPrimitive("confidence").isNumber());
   }
 
@@ -211,7 +251,7 @@ public class TestDirectives {
       "with its members identifiable by their distinct military uniform.";
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-anotate-text :body :result '%s'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-anotate-text", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -240,8 +280,8 @@ public class TestDirectives {
     Assert.assertTrue(documentSentiment.getAsJsonPrimitive("magnitude").isNumber());
     Assert.assertTrue(documentSentiment.getAsJsonPrimitive("score").isNumber());
 
-    // there are currently 7 entities
-    Assert.assertTrue(jsonObject.getAsJsonArray("entities").size() > 2);
+    // there are currently 7 entities, the local server only finds the capitalized "A" and "It"
+    Assert.assertTrue(jsonObject.getAsJsonArray("entities").size() > 1);
 
     JsonObject entity = jsonObject.getAsJsonArray("entities").get(0).getAsJsonObject();
     Assert.assertTrue(entity.has("name"));
@@ -265,7 +305,7 @@ public class TestDirectives {
 
     TestRecipe recipe = new TestRecipe();
 
-    recipe.add(String.format("nlp-analyze-sentiment :body :result '%s' 'UTF8' 'en'", AUTHENTICATION_FILE));
+    recipe.add(recipe("nlp-analyze-sentiment", ""));
 
     TestRows rows = new TestRows();
     rows.add(new Row("body", text));
@@ -293,4 +333,86 @@ public class TestDirectives {
     Assert.assertEquals(text, sentence.getAsJsonObject("text").getAsJsonPrimitive("content").getAsString());
     Assert.assertEquals(documentSentiment, sentence.getAsJsonObject("sentiment"));
   }
+
+  @Test
+  public void testWindowKeepsRowOrder() throws Exception {
+    TestRecipe recipe = new TestRecipe();
+    recipe.add(recipe("nlp-analyze-sentiment", "max-in-flight-requests=8"));
+
+    TestRows rows = new TestRows();
+    for (int i = 0; i < 40; i++) {
+      rows.add(new Row("body", String.format("This is row number %d.", i)));
+    }
+
+    if (server != null) {
+      // responses arrive in a different order than the requests were sent in
+      Random random = new Random(0);
+      server.setLatency(() -> random.nextInt(30));
+    }
+    List<Row> actuals;
+    try {
+      RecipePipeline pipeline = TestingRig.pipeline(AnalyzeSentiment.class, recipe);
+      actuals = pipeline.execute(rows.toList());
+    } finally {
+      if (server != null) {
+        server.setLatency(0);
+      }
+    }
+
+    Assert.assertEquals(40, actuals.size());
+    for (int i = 0; i < actuals.size(); i++) {
+      String text = String.format("This is row number %d.", i);
+      Assert.assertEquals(text, actuals.get(i).getValue("body"));
+      JsonObject jsonObject = PARSER.parse(actuals.get(i).getValue("result").toString()).getAsJsonObject();
+      JsonObject sentence = jsonObject.getAsJsonArray("sentences").get(0).getAsJsonObject();
+      Assert.assertEquals(text, sentence.getAsJsonObject("text").getAsJsonPrimitive("content").getAsString());
+    }
+  }
+
+  @Test
+  public void testFailureInTheMiddleOfWindow() throws Exception {
+    // the API cannot be made to fail a given request
+    Assume.assumeNotNull(server);
+    String invalidText = "This row cannot be analyzed.";
+    server.failContent(invalidText, Status.Code.INVALID_ARGUMENT);
+
+    TestRecipe recipe = new TestRecipe();
+    recipe.add(recipe("nlp-analyze-sentiment", "max-in-flight-requests=4"));
+
+    TestRows rows = new TestRows();
+    for (int i = 0; i < 20; i++) {
+      rows.add(new Row("body", i == 10 ? invalidText : String.format("This is row number %d.", i)));
+    }
+
+    try {
+      TestingRig.pipeline(AnalyzeSentiment.class, recipe).execute(rows.toList());
+      Assert.fail("Expected the failed request to fail the batch");
+    } catch (Exception e) {
+      // depending on the wrangler version, the failure may or may not be wrapped in a RecipeException
+      Throwable cause = e;
+      while (cause != null && !(cause instanceof ApiException)) {
+        cause = cause.getCause();
+      }
+      Assert.assertNotNull("Expected the failure of the request as the cause", cause);
+      Assert.assertEquals(StatusCode.Code.INVALID_ARGUMENT, ((ApiException) cause).getStatusCode().getCode());
+    }
+
+    // the requests left in flight by the failed batch do not affect the next one
+    TestRows valid = new TestRows();
+    valid.add(new Row("body", "This test is so awesome!"));
+    List<Row> actuals = TestingRig.pipeline(AnalyzeSentiment.class, recipe).execute(valid.toList());
+    Assert.assertEquals(1, actuals.size());
+    Assert.assertNotNull(actuals.get(0).getValue("result"));
+  }
+
+  /**
+   * @return a recipe line running the directive on the body column, against the local server unless the tests run
+   *   against Natural Language API
+   */
+  private static String recipe(String directive, String options) {
+    if (server != null) {
+      options = String.format("%s plaintext-endpoint=%s", options, server.getSettings().getEndpoint()).trim();
+    }
+    return String.format("%s :body :result '%s' 'UTF8' 'en' '%s'", directive, AUTHENTICATION_FILE, options);
+  }
 }
@@ -0,0 +1,44 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+
+/**
+ * Spark compute version of {@link AnalyzeEntitiesTransform}, which processes whole partitions at a time.
+ */
+@Plugin(type = SparkCompute.PLUGIN_TYPE)
+@Name("NLPAnalyzeEntities")
+@Description("Detects known entities like public figures or landmarks. " +
+  "Processes whole partitions at a time, keeping several requests to the API in flight, and emits the same " +
+  "records as the transform of the same name.")
+public class AnalyzeEntitiesSparkCompute extends NLPSparkCompute {
+  private final NLPConfig config;
+
+  public AnalyzeEntitiesSparkCompute(NLPConfig config) {
+    super(config);
+    this.config = config;
+  }
+
+  @Override
+  protected NLPTransform createTransform() {
+    return new AnalyzeEntitiesTransform(config);
+  }
+}
@@ -17,11 +17,9 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.google.common.NLPMethod;
@@ -124,13 +122,16 @@ public class AnalyzeEntitiesTransform extends NLPTransform {
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    AnalyzeEntitiesResponse response = (AnalyzeEntitiesResponse) message;
+  protected RecordConverter<AnalyzeEntitiesResponse> createConverter(Schema schema) {
+    return RecordConverter.<AnalyzeEntitiesResponse>builder(schema)
+      .field("language", AnalyzeEntitiesResponse::getLanguage)
+      .records("entities", AnalyzeEntitiesResponse::getEntitiesList, ResponseConverters::entities)
+      .build();
+  }
 
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
-    builder.set("language", response.getLanguage());
-    builder.set("entities", getEntities(response.getEntitiesList(), ENTITY, MENTION));
-    return builder.build();
+  @Override
+  protected Schema getDefaultSchema() {
+    return SCHEMA;
   }
 
   protected NLPMethod getMethod() {
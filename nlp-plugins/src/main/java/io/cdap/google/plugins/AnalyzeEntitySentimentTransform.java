@@ -17,11 +17,9 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.AnalyzeEntitySentimentResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.google.common.NLPMethod;
@@ -108,13 +106,16 @@ public class AnalyzeEntitySentimentTransform extends NLPTransform {
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    AnalyzeEntitySentimentResponse response = (AnalyzeEntitySentimentResponse) message;
+  protected RecordConverter<AnalyzeEntitySentimentResponse> createConverter(Schema schema) {
+    return RecordConverter.<AnalyzeEntitySentimentResponse>builder(schema)
+      .field("language", AnalyzeEntitySentimentResponse::getLanguage)
+      .records("entities", AnalyzeEntitySentimentResponse::getEntitiesList, ResponseConverters::entities)
+      .build();
+  }
 
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
-    builder.set("language", response.getLanguage());
-    builder.set("entities", getEntities(response.getEntitiesList(), ENTITY_SCORED, MENTION_SCORED));
-    return builder.build();
+  @Override
+  protected Schema getDefaultSchema() {
+    return SCHEMA;
   }
 
   protected NLPMethod getMethod() {
@@ -17,11 +17,9 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.AnalyzeSentimentResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.google.common.NLPMethod;
@@ -87,18 +85,18 @@ public class AnalyzeSentimentTransform extends NLPTransform {
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    AnalyzeSentimentResponse response = (AnalyzeSentimentResponse) message;
-
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
-    builder.set("language", response.getLanguage());
-
-    builder.set("score", response.getDocumentSentiment().getScore());
-    builder.set("magnitude", response.getDocumentSentiment().getMagnitude());
-
-    builder.set("sentences", getSentences(response.getSentencesList(), SENTENCE_SCORED));
+  protected RecordConverter<AnalyzeSentimentResponse> createConverter(Schema schema) {
+    return RecordConverter.<AnalyzeSentimentResponse>builder(schema)
+      .field("language", AnalyzeSentimentResponse::getLanguage)
+      .field("score", response -> response.getDocumentSentiment().getScore())
+      .field("magnitude", response -> response.getDocumentSentiment().getMagnitude())
+      .records("sentences", AnalyzeSentimentResponse::getSentencesList, ResponseConverters::sentences)
+      .build();
+  }
 
-    return builder.build();
+  @Override
+  protected Schema getDefaultSchema() {
+    return SCHEMA;
   }
 
   protected NLPMethod getMethod() {
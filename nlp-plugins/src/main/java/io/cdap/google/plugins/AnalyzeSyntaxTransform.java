@@ -17,11 +17,9 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.AnalyzeSyntaxResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.google.common.NLPMethod;
@@ -140,16 +138,17 @@ public class AnalyzeSyntaxTransform extends NLPTransform {
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    AnalyzeSyntaxResponse response = (AnalyzeSyntaxResponse) message;
-
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
-    builder.set("language", response.getLanguage());
-
-    builder.set("sentences", getSentences(response.getSentencesList(), SENTENCE));
-    builder.set("tokens", getTokens(response.getTokensList()));
+  protected RecordConverter<AnalyzeSyntaxResponse> createConverter(Schema schema) {
+    return RecordConverter.<AnalyzeSyntaxResponse>builder(schema)
+      .field("language", AnalyzeSyntaxResponse::getLanguage)
+      .records("sentences", AnalyzeSyntaxResponse::getSentencesList, ResponseConverters::sentences)
+      .records("tokens", AnalyzeSyntaxResponse::getTokensList, ResponseConverters::tokens)
+      .build();
+  }
 
-    return builder.build();
+  @Override
+  protected Schema getDefaultSchema() {
+    return SCHEMA;
   }
 
   protected NLPMethod getMethod() {
@@ -0,0 +1,71 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.google.common.AnotateTextFeature;
+
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A config for {@link AnotateTextTransform} plugin
+ */
+public class AnotateTextConfig extends NLPConfig {
+  public static final String PROPERTY_FEATURES = "features";
+
+  public AnotateTextConfig(String sourceField, @Nullable String encoding, @Nullable String languageCode,
+                           String errorHandling, @Nullable String serviceFilePath, @Nullable String features) {
+    this(sourceField, encoding, languageCode, errorHandling, serviceFilePath, features, null);
+  }
+
+  public AnotateTextConfig(String sourceField, @Nullable String encoding, @Nullable String languageCode,
+                           String errorHandling, @Nullable String serviceFilePath, @Nullable String features,
+                           @Nullable String schema) {
+    super(sourceField, encoding, languageCode, errorHandling, serviceFilePath, schema);
+    this.features = features;
+  }
+
+  @Name(PROPERTY_FEATURES)
+  @Description("Comma separated list of features to request: syntax, entities, documentSentiment, " +
+    "entitySentiment, classify. The output only contains the fields of the requested features. " +
+    "If not provided, all features are requested.")
+  @Macro
+  @Nullable
+  private String features;
+
+  public Set<AnotateTextFeature> getFeatures() {
+    return AnotateTextFeature.parse(features);
+  }
+
+  @Override
+  public void validate(FailureCollector failureCollector, Schema inputSchema) {
+    super.validate(failureCollector, inputSchema);
+
+    if (!containsMacro(PROPERTY_FEATURES)) {
+      try {
+        getFeatures();
+      } catch (IllegalArgumentException e) {
+        failureCollector.addFailure(e.getMessage(), null).withConfigProperty(PROPERTY_FEATURES);
+      }
+    }
+  }
+}
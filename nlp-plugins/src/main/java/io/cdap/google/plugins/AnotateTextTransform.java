@@ -17,14 +17,20 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.AnnotateTextResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
+import io.cdap.google.common.AnotateText;
+import io.cdap.google.common.AnotateTextFeature;
 import io.cdap.google.common.NLPMethod;
+import io.cdap.google.common.NLPMethodExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Provides all the features that
@@ -164,40 +170,94 @@ import io.cdap.google.common.NLPMethod;
 @Description("Provides all the features that Analyze entities, Analyze entity sentiment, " +
   "Analyze sentiment, Analyze syntax, Classify text provide in one call.")
 public class AnotateTextTransform extends NLPTransform {
-  private static final Schema SCHEMA =
-    Schema.recordOf(AnotateTextTransform.class.getSimpleName(),
-                    Schema.Field.of("language", Schema.of(Schema.Type.STRING)),
-                    Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
-                    Schema.Field.of("magnitude", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
-                    Schema.Field.of("tokens", Schema.arrayOf(TOKEN)),
-                    Schema.Field.of("sentences", Schema.arrayOf(SENTENCE_SCORED)),
-                    Schema.Field.of("entities", Schema.arrayOf(ENTITY_SCORED)),
-                    Schema.Field.of("categories", Schema.arrayOf(CATEGORY)));
+  private final AnotateTextConfig config;
+  private Set<AnotateTextFeature> features;
+  private Schema defaultSchema;
 
-  public AnotateTextTransform(NLPConfig config) {
+  public AnotateTextTransform(AnotateTextConfig config) {
     super(config);
+    this.config = config;
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    AnnotateTextResponse response = (AnnotateTextResponse) message;
+  protected void configureExecutor(NLPMethodExecutor executor) {
+    ((AnotateText) executor).setFeatures(getFeatures());
+  }
 
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
+  /**
+   * The output schema only has fields of the requested features, so only those are converted.
+   */
+  @Override
+  protected RecordConverter<AnnotateTextResponse> createConverter(Schema schema) {
+    return RecordConverter.<AnnotateTextResponse>builder(schema)
+      .field("language", AnnotateTextResponse::getLanguage)
+      .field("score", response -> response.getDocumentSentiment().getScore())
+      .field("magnitude", response -> response.getDocumentSentiment().getMagnitude())
+      .records("tokens", AnnotateTextResponse::getTokensList, ResponseConverters::tokens)
+      .records("sentences", AnnotateTextResponse::getSentencesList, ResponseConverters::sentences)
+      .records("entities", AnnotateTextResponse::getEntitiesList, ResponseConverters::entities)
+      .records("categories", AnnotateTextResponse::getCategoriesList, ResponseConverters::categories)
+      .build();
+  }
+
+  /**
+   * The default schema depends on the requested features, so it is only known once they are not a macro.
+   */
+  @Nullable
+  @Override
+  protected Schema getDefaultSchema() {
+    if (config.containsMacro(AnotateTextConfig.PROPERTY_FEATURES)) {
+      return null;
+    }
+    if (defaultSchema == null) {
+      defaultSchema = createSchema(getFeatures());
+    }
+    return defaultSchema;
+  }
 
-    builder.set("language", response.getLanguage());
+  protected NLPMethod getMethod() {
+    return NLPMethod.ANOTATE_TEXT;
+  }
 
-    builder.set("score", response.getDocumentSentiment().getScore());
-    builder.set("magnitude", response.getDocumentSentiment().getMagnitude());
+  /**
+   * The output schema only has the fields of the requested features, with the same field order and types as the
+   * schema for all features.
+   */
+  static Schema createSchema(Set<AnotateTextFeature> features) {
+    List<Schema.Field> fields = new ArrayList<>();
+    fields.add(Schema.Field.of("language", Schema.of(Schema.Type.STRING)));
+    if (features.contains(AnotateTextFeature.DOCUMENT_SENTIMENT)) {
+      fields.add(Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))));
+      fields.add(Schema.Field.of("magnitude", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))));
+    }
+    if (features.contains(AnotateTextFeature.SYNTAX)) {
+      fields.add(Schema.Field.of("tokens", Schema.arrayOf(TOKEN)));
+    }
+    if (hasSentences(features)) {
+      fields.add(Schema.Field.of("sentences", Schema.arrayOf(SENTENCE_SCORED)));
+    }
+    if (hasEntities(features)) {
+      fields.add(Schema.Field.of("entities", Schema.arrayOf(ENTITY_SCORED)));
+    }
+    if (features.contains(AnotateTextFeature.CLASSIFY)) {
+      fields.add(Schema.Field.of("categories", Schema.arrayOf(CATEGORY)));
+    }
+    return Schema.recordOf(AnotateTextTransform.class.getSimpleName(), fields);
+  }
 
-    builder.set("categories", getCategories(response.getCategoriesList()));
-    builder.set("sentences", getSentences(response.getSentencesList(), SENTENCE_SCORED));
-    builder.set("tokens", getTokens(response.getTokensList()));
-    builder.set("entities", getEntities(response.getEntitiesList(), ENTITY_SCORED, MENTION_SCORED));
+  private Set<AnotateTextFeature> getFeatures() {
+    if (features == null) {
+      features = config.getFeatures();
+    }
+    return features;
+  }
 
-    return builder.build();
+  // the API returns sentences for both syntax analysis and document sentiment
+  private static boolean hasSentences(Set<AnotateTextFeature> features) {
+    return features.contains(AnotateTextFeature.SYNTAX) || features.contains(AnotateTextFeature.DOCUMENT_SENTIMENT);
   }
 
-  protected NLPMethod getMethod() {
-    return NLPMethod.ANOTATE_TEXT;
+  private static boolean hasEntities(Set<AnotateTextFeature> features) {
+    return features.contains(AnotateTextFeature.ENTITIES) || features.contains(AnotateTextFeature.ENTITY_SENTIMENT);
   }
 }
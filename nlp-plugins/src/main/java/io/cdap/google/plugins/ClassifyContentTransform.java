@@ -17,11 +17,9 @@
 package io.cdap.google.plugins;
 
 import com.google.cloud.language.v1.ClassifyTextResponse;
-import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
-import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.Transform;
 import io.cdap.google.common.NLPMethod;
@@ -81,13 +79,15 @@ public class ClassifyContentTransform extends NLPTransform {
   }
 
   @Override
-  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
-    ClassifyTextResponse response = (ClassifyTextResponse) message;
-
-    StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA);
+  protected RecordConverter<ClassifyTextResponse> createConverter(Schema schema) {
+    return RecordConverter.<ClassifyTextResponse>builder(schema)
+      .records("categories", ClassifyTextResponse::getCategoriesList, ResponseConverters::categories)
+      .build();
+  }
 
-    builder.set("categories", getCategories(response.getCategoriesList()));
-    return builder.build();
+  @Override
+  protected Schema getDefaultSchema() {
+    return SCHEMA;
   }
 
   protected NLPMethod getMethod() {
@@ -0,0 +1,60 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.protobuf.ProtocolMessageEnum;
+
+/**
+ * Names of the values of a protobuf enum, indexed by their numbers. Looking a name up by the number a message stores
+ * skips resolving the enum constant, and always returns the same string instance.
+ */
+final class EnumNames {
+  private static final String UNRECOGNIZED = "UNRECOGNIZED";
+
+  private final String[] names;
+
+  private EnumNames(String[] names) {
+    this.names = names;
+  }
+
+  static <E extends Enum<E> & ProtocolMessageEnum> EnumNames of(Class<E> type) {
+    E[] values = type.getEnumConstants();
+    int maxNumber = -1;
+    for (E value : values) {
+      if (!UNRECOGNIZED.equals(value.name())) {
+        maxNumber = Math.max(maxNumber, value.getNumber());
+      }
+    }
+    String[] names = new String[maxNumber + 1];
+    for (E value : values) {
+      // for aliases, the first declared value is the one protobuf resolves the number to
+      if (!UNRECOGNIZED.equals(value.name()) && value.getNumber() >= 0 && names[value.getNumber()] == null) {
+        names[value.getNumber()] = value.name();
+      }
+    }
+    return new EnumNames(names);
+  }
+
+  /**
+   * @return name of the value with the given number, or 'UNRECOGNIZED' for a number this version of the API does
+   * not know, the same as {@code toString()} of the value a message returns
+   */
+  String get(int number) {
+    String name = number >= 0 && number < names.length ? names[number] : null;
+    return name == null ? UNRECOGNIZED : name;
+  }
+}
@@ -23,7 +23,11 @@ import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.google.common.DocumentChunker;
+import io.cdap.google.common.LanguageClientSettings;
+import io.cdap.google.common.RetryPolicy;
 
+import java.io.IOException;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
@@ -38,14 +42,39 @@ public class NLPConfig extends PluginConfig {
   public static final String PROPERTY_LANGUAGE_CODE = "languageCode";
   public static final String PROPERTY_ERROR_HANDLING = "errorHandling";
   public static final String PROPERTY_SERVICE_ACCOUNT_FILE_PATH = "serviceFilePath";
+  public static final String PROPERTY_MAX_IN_FLIGHT_REQUESTS = "maxInFlightRequests";
+  public static final String PROPERTY_CACHE_SIZE = "cacheSizeMB";
+  public static final String PROPERTY_DISK_CACHE_DIRECTORY = "diskCacheDirectory";
+  public static final String PROPERTY_DISK_CACHE_SIZE = "diskCacheSizeMB";
+  public static final String PROPERTY_MAX_REQUESTS_PER_SECOND = "maxRequestsPerSecond";
+  public static final String PROPERTY_MAX_RETRIES = "maxRetries";
+  public static final String PROPERTY_RETRY_INITIAL_DELAY = "retryInitialDelayMs";
+  public static final String PROPERTY_RETRY_MAX_DELAY = "retryMaxDelayMs";
+  public static final String PROPERTY_RECORD_DEADLINE = "recordDeadlineSeconds";
+  public static final String PROPERTY_MAX_DOCUMENT_BYTES = "maxDocumentBytes";
+  public static final String PROPERTY_MAX_PACKED_TEXTS = "maxPackedTexts";
+  public static final String PROPERTY_SLOW_REQUEST_THRESHOLD = "slowRequestThresholdMs";
+  public static final String PROPERTY_SLOW_REQUEST_SAMPLE_RATE = "slowRequestSampleRate";
+  public static final String PROPERTY_SCHEMA = "schema";
+  public static final String PROPERTY_OUTPUT_FORMAT = "outputFormat";
+
+  private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 1;
+  private static final int DEFAULT_DISK_CACHE_SIZE_MB = 1024;
+  private static final int DEFAULT_RECORD_DEADLINE_SECONDS = 60;
 
   public NLPConfig(String sourceField, @Nullable String encoding, @Nullable String languageCode,
                    String errorHandling, @Nullable String serviceFilePath) {
+    this(sourceField, encoding, languageCode, errorHandling, serviceFilePath, null);
+  }
+
+  public NLPConfig(String sourceField, @Nullable String encoding, @Nullable String languageCode,
+                   String errorHandling, @Nullable String serviceFilePath, @Nullable String schema) {
     this.sourceField = sourceField;
     this.encoding = encoding;
     this.languageCode = languageCode;
     this.errorHandling = errorHandling;
     this.serviceFilePath = serviceFilePath;
+    this.schema = schema;
   }
 
   @Name(PROPERTY_SOURCE_FIELD)
@@ -80,6 +109,120 @@ public class NLPConfig extends PluginConfig {
   @Nullable
   protected String serviceFilePath;
 
+  @Name(PROPERTY_MAX_IN_FLIGHT_REQUESTS)
+  @Description("Maximum number of requests to Google Natural Language API a single task keeps outstanding at " +
+    "a time. Only used by the Spark compute stages, where values greater than 1 let the requests for the records " +
+    "of a partition overlap. Transforms are given one record at a time and always send one request. Defaults to 1.")
+  @Macro
+  @Nullable
+  private Integer maxInFlightRequests;
+
+  @Name(PROPERTY_CACHE_SIZE)
+  @Description("Size in megabytes of the in-memory cache of API responses. Responses are cached by text, method, " +
+    "language and encoding, so repeated texts do not result in repeated API calls. The cache is shared by all " +
+    "stages running in the same executor. Set to 0 to disable caching. Defaults to 0.")
+  @Macro
+  @Nullable
+  private Integer cacheSizeMB;
+
+  @Name(PROPERTY_DISK_CACHE_DIRECTORY)
+  @Description("Directory on the local file system of every node where API responses are persisted, so that " +
+    "they can be reused by later pipeline runs. If not provided, responses are not persisted.")
+  @Macro
+  @Nullable
+  private String diskCacheDirectory;
+
+  @Name(PROPERTY_DISK_CACHE_SIZE)
+  @Description("Maximum size in megabytes of the persisted responses kept in the cache directory, shared by all " +
+    "the executors on a host. Defaults to 1024.")
+  @Macro
+  @Nullable
+  private Integer diskCacheSizeMB;
+
+  @Name(PROPERTY_MAX_REQUESTS_PER_SECOND)
+  @Description("Maximum number of requests per second a single executor sends to the API. Below this limit, " +
+    "the rate adapts automatically, backing off when the API reports that the quota is exhausted. " +
+    "Set to 0 for no limit. Defaults to 0.")
+  @Macro
+  @Nullable
+  private Integer maxRequestsPerSecond;
+
+  @Name(PROPERTY_MAX_RETRIES)
+  @Description("Maximum number of times a request which failed with a transient error, such as an unavailable " +
+    "service or an exhausted quota, is sent again. Set to 0 to disable retries. Defaults to 3.")
+  @Macro
+  @Nullable
+  private Integer maxRetries;
+
+  @Name(PROPERTY_RETRY_INITIAL_DELAY)
+  @Description("Minimum delay in milliseconds before a failed request is sent again. Defaults to 100.")
+  @Macro
+  @Nullable
+  private Long retryInitialDelayMs;
+
+  @Name(PROPERTY_RETRY_MAX_DELAY)
+  @Description("Maximum delay in milliseconds before a failed request is sent again. Defaults to 10000.")
+  @Macro
+  @Nullable
+  private Long retryMaxDelayMs;
+
+  @Name(PROPERTY_RECORD_DEADLINE)
+  @Description("Time in seconds within which all attempts to process a record must finish. Once it passes, " +
+    "the record is handled according to the error handling property. Defaults to 60.")
+  @Macro
+  @Nullable
+  private Integer recordDeadlineSeconds;
+
+  @Name(PROPERTY_MAX_DOCUMENT_BYTES)
+  @Description("Maximum size in bytes of the text sent in a single request, measured in the configured encoding. " +
+    "Larger texts are split at paragraph or sentence boundaries into chunks, which are sent concurrently and " +
+    "whose responses are merged. Set to 0 to never split texts. Defaults to 0.")
+  @Macro
+  @Nullable
+  private Integer maxDocumentBytes;
+
+  @Name(PROPERTY_MAX_PACKED_TEXTS)
+  @Description("Maximum number of texts sent together in a single request. Short texts are joined into one " +
+    "document whose response is split back into a response per text. Only supported by sentiment and syntax " +
+    "analysis, with an encoding and a language code. Only used by the Spark compute stages, since transforms are " +
+    "given one record at a time. Defaults to 1, which sends every text on its own.")
+  @Macro
+  @Nullable
+  private Integer maxPackedTexts;
+
+  @Name(PROPERTY_SLOW_REQUEST_THRESHOLD)
+  @Description("Records which take longer than this many milliseconds to process are logged at warn level, with " +
+    "the time spent building the request, waiting for the rate limit, in calls to the API, waiting between " +
+    "retries, converting the response and emitting the record. Set to 0 to not log slow records. Defaults to 0.")
+  @Macro
+  @Nullable
+  private Long slowRequestThresholdMs;
+
+  @Name(PROPERTY_SLOW_REQUEST_SAMPLE_RATE)
+  @Description("Fraction of all records, between 0 and 1, which are logged at info level with the same timing " +
+    "breakdown as slow records, regardless of how long they took. Defaults to 0.")
+  @Macro
+  @Nullable
+  private Double slowRequestSampleRate;
+
+  @Name(PROPERTY_OUTPUT_FORMAT)
+  @Description("Form of the output records. With 'record', the response is converted into the fields of the " +
+    "output schema. With 'bytes', records have a single bytes field 'response' with the serialized response, " +
+    "which can be decoded later with LazyResponseDecoder. Defaults to 'record'.")
+  @Macro
+  @Nullable
+  private String outputFormat;
+
+  @Name(PROPERTY_SCHEMA)
+  @Description("Schema of the output records. Fields, including fields of nested records, can be removed from " +
+    "the default schema, in which case they are not extracted from the response at all. " +
+    "If not provided, the default schema of the plugin is used.")
+  @Nullable
+  private String schema;
+
+  // only set by tests, transient so that it is not a plugin property
+  private transient String plaintextEndpoint;
+
   public String getSourceField() {
     return sourceField;
   }
@@ -111,6 +254,36 @@ public class NLPConfig extends PluginConfig {
         String.format("Unsupported value for '%s': '%s'", PROPERTY_ERROR_HANDLING, errorHandling)));
   }
 
+  public OutputFormat getOutputFormat() {
+    if (outputFormat == null || outputFormat.isEmpty()) {
+      return OutputFormat.RECORD;
+    }
+    return Stream.of(OutputFormat.class.getEnumConstants())
+      .filter(format -> format.getValue().equalsIgnoreCase(outputFormat))
+      .findAny()
+      .orElseThrow(() -> new IllegalStateException(
+        String.format("Unsupported value for '%s': '%s'", PROPERTY_OUTPUT_FORMAT, outputFormat)));
+  }
+
+  /**
+   * Makes the stages send requests without TLS and credentials to a local server, such as the
+   * {@code FakeLanguageServer} of nlp-common, instead of Google. Only meant for tests, the setting is not a plugin
+   * property and is not serialized.
+   *
+   * @param endpoint host:port of the server, or null to use Google Natural Language API
+   */
+  void setPlaintextEndpoint(@Nullable String endpoint) {
+    this.plaintextEndpoint = endpoint;
+  }
+
+  /**
+   * @return settings of the language client the stages send requests with
+   */
+  public LanguageClientSettings getClientSettings() {
+    return plaintextEndpoint == null ? LanguageClientSettings.of(getServiceAccountFilePath())
+      : LanguageClientSettings.plaintext(plaintextEndpoint);
+  }
+
   @Nullable
   public String getServiceAccountFilePath() {
     if (containsMacro(PROPERTY_SERVICE_ACCOUNT_FILE_PATH) || serviceFilePath == null ||
@@ -120,6 +293,75 @@ public class NLPConfig extends PluginConfig {
     return serviceFilePath;
   }
 
+  public int getMaxInFlightRequests() {
+    return maxInFlightRequests == null ? DEFAULT_MAX_IN_FLIGHT_REQUESTS : maxInFlightRequests;
+  }
+
+  public int getCacheSizeMB() {
+    return cacheSizeMB == null ? 0 : cacheSizeMB;
+  }
+
+  @Nullable
+  public String getDiskCacheDirectory() {
+    return diskCacheDirectory == null || diskCacheDirectory.isEmpty() ? null : diskCacheDirectory;
+  }
+
+  public int getDiskCacheSizeMB() {
+    return diskCacheSizeMB == null ? DEFAULT_DISK_CACHE_SIZE_MB : diskCacheSizeMB;
+  }
+
+  public int getMaxRequestsPerSecond() {
+    return maxRequestsPerSecond == null ? 0 : maxRequestsPerSecond;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries == null ? RetryPolicy.DEFAULT_MAX_RETRIES : maxRetries;
+  }
+
+  public long getRetryInitialDelayMs() {
+    return retryInitialDelayMs == null ? RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS : retryInitialDelayMs;
+  }
+
+  public long getRetryMaxDelayMs() {
+    return retryMaxDelayMs == null ? RetryPolicy.DEFAULT_MAX_DELAY_MILLIS : retryMaxDelayMs;
+  }
+
+  public int getRecordDeadlineSeconds() {
+    return recordDeadlineSeconds == null ? DEFAULT_RECORD_DEADLINE_SECONDS : recordDeadlineSeconds;
+  }
+
+  public int getMaxDocumentBytes() {
+    return maxDocumentBytes == null ? 0 : maxDocumentBytes;
+  }
+
+  public int getMaxPackedTexts() {
+    return maxPackedTexts == null ? 1 : maxPackedTexts;
+  }
+
+  public long getSlowRequestThresholdMs() {
+    return slowRequestThresholdMs == null ? 0 : slowRequestThresholdMs;
+  }
+
+  public double getSlowRequestSampleRate() {
+    return slowRequestSampleRate == null ? 0 : slowRequestSampleRate;
+  }
+
+  /**
+   * @return the output schema set by the user, or null if the default schema of the plugin is used
+   * @throws IllegalArgumentException if the schema cannot be parsed
+   */
+  @Nullable
+  public Schema getSchema() {
+    if (schema == null || schema.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      return Schema.parseJson(schema);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(String.format("Invalid output schema: %s", e.getMessage()), e);
+    }
+  }
+
   public void validate(FailureCollector failureCollector, Schema inputSchema) {
     if (inputSchema.getField(sourceField) == null) {
       failureCollector.addFailure(String.format("Field '%s' does not exist in input schema", sourceField), null)
@@ -140,5 +382,107 @@ public class NLPConfig extends PluginConfig {
       failureCollector.addFailure(ex.getMessage(), null)
         .withConfigProperty(PROPERTY_ENCODING);
     }
+
+    if (!containsMacro(PROPERTY_MAX_IN_FLIGHT_REQUESTS) && getMaxInFlightRequests() < 1) {
+      failureCollector.addFailure(
+        String.format("Maximum number of in-flight requests must be positive, but was %d", maxInFlightRequests),
+        "Set it to 1 or more.")
+        .withConfigProperty(PROPERTY_MAX_IN_FLIGHT_REQUESTS);
+    }
+
+    if (!containsMacro(PROPERTY_CACHE_SIZE) && getCacheSizeMB() < 0) {
+      failureCollector.addFailure(
+        String.format("Cache size must not be negative, but was %d", cacheSizeMB), "Set it to 0 or more.")
+        .withConfigProperty(PROPERTY_CACHE_SIZE);
+    }
+
+    if (!containsMacro(PROPERTY_DISK_CACHE_SIZE) && getDiskCacheSizeMB() < 1) {
+      failureCollector.addFailure(
+        String.format("Disk cache size must be positive, but was %d", diskCacheSizeMB), "Set it to 1 or more.")
+        .withConfigProperty(PROPERTY_DISK_CACHE_SIZE);
+    }
+
+    if (!containsMacro(PROPERTY_MAX_REQUESTS_PER_SECOND) && getMaxRequestsPerSecond() < 0) {
+      failureCollector.addFailure(
+        String.format("Maximum requests per second must not be negative, but was %d", maxRequestsPerSecond),
+        "Set it to 0 or more.")
+        .withConfigProperty(PROPERTY_MAX_REQUESTS_PER_SECOND);
+    }
+
+    if (!containsMacro(PROPERTY_MAX_RETRIES) && getMaxRetries() < 0) {
+      failureCollector.addFailure(
+        String.format("Maximum number of retries must not be negative, but was %d", maxRetries),
+        "Set it to 0 or more.")
+        .withConfigProperty(PROPERTY_MAX_RETRIES);
+    }
+
+    if (!containsMacro(PROPERTY_RETRY_INITIAL_DELAY) && getRetryInitialDelayMs() < 1) {
+      failureCollector.addFailure(
+        String.format("Initial retry delay must be positive, but was %d", retryInitialDelayMs),
+        "Set it to 1 or more.")
+        .withConfigProperty(PROPERTY_RETRY_INITIAL_DELAY);
+    }
+
+    if (!containsMacro(PROPERTY_RETRY_INITIAL_DELAY) && !containsMacro(PROPERTY_RETRY_MAX_DELAY) &&
+      getRetryMaxDelayMs() < getRetryInitialDelayMs()) {
+      failureCollector.addFailure(
+        String.format("Maximum retry delay %d must not be less than the initial retry delay %d",
+                      getRetryMaxDelayMs(), getRetryInitialDelayMs()),
+        "Increase the maximum retry delay.")
+        .withConfigProperty(PROPERTY_RETRY_MAX_DELAY);
+    }
+
+    if (!containsMacro(PROPERTY_RECORD_DEADLINE) && getRecordDeadlineSeconds() < 1) {
+      failureCollector.addFailure(
+        String.format("Record deadline must be positive, but was %d", recordDeadlineSeconds),
+        "Set it to 1 or more.")
+        .withConfigProperty(PROPERTY_RECORD_DEADLINE);
+    }
+
+    if (!containsMacro(PROPERTY_MAX_DOCUMENT_BYTES) && getMaxDocumentBytes() != 0 &&
+      (getMaxDocumentBytes() < 4 || getMaxDocumentBytes() > DocumentChunker.MAX_DOCUMENT_BYTES)) {
+      failureCollector.addFailure(
+        String.format("Maximum document size must be between 4 and %d bytes, but was %d",
+                      DocumentChunker.MAX_DOCUMENT_BYTES, maxDocumentBytes),
+        "Set it to 0 to never split texts, or to a size the API accepts.")
+        .withConfigProperty(PROPERTY_MAX_DOCUMENT_BYTES);
+    }
+
+    if (!containsMacro(PROPERTY_MAX_PACKED_TEXTS) && getMaxPackedTexts() < 1) {
+      failureCollector.addFailure(
+        String.format("Maximum number of packed texts must be positive, but was %d", maxPackedTexts),
+        "Set it to 1 or more.")
+        .withConfigProperty(PROPERTY_MAX_PACKED_TEXTS);
+    }
+
+    if (!containsMacro(PROPERTY_SLOW_REQUEST_THRESHOLD) && getSlowRequestThresholdMs() < 0) {
+      failureCollector.addFailure(
+        String.format("Slow request threshold must not be negative, but was %d", slowRequestThresholdMs),
+        "Set it to 0 to not log slow records.")
+        .withConfigProperty(PROPERTY_SLOW_REQUEST_THRESHOLD);
+    }
+
+    if (!containsMacro(PROPERTY_SLOW_REQUEST_SAMPLE_RATE) &&
+      (getSlowRequestSampleRate() < 0 || getSlowRequestSampleRate() > 1)) {
+      failureCollector.addFailure(
+        String.format("Slow request sample rate must be between 0 and 1, but was %s", slowRequestSampleRate),
+        "Set it to 0 to not sample records.")
+        .withConfigProperty(PROPERTY_SLOW_REQUEST_SAMPLE_RATE);
+    }
+
+    if (!containsMacro(PROPERTY_OUTPUT_FORMAT)) {
+      try {
+        getOutputFormat();
+      } catch (IllegalStateException ex) {
+        failureCollector.addFailure(ex.getMessage(), null)
+          .withConfigProperty(PROPERTY_OUTPUT_FORMAT);
+      }
+    }
+
+    try {
+      getSchema();
+    } catch (IllegalArgumentException e) {
+      failureCollector.addFailure(e.getMessage(), null).withConfigProperty(PROPERTY_SCHEMA);
+    }
   }
 }
@@ -0,0 +1,66 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ * Runs an {@link NLPTransform} over whole partitions instead of single records. Every partition gets its own
+ * executor, which keeps up to {@link NLPConfig#getMaxInFlightRequests()} requests in flight across the records of
+ * the partition and packs them if {@link NLPConfig#getMaxPackedTexts()} allows it. Since a Spark task works on one
+ * partition at a time, a few cores can then keep as many requests outstanding as the quota of the API allows.
+ *
+ * The records have the same schema as the ones of the transform, so either can be used in a pipeline. There is no
+ * error port, so records which fail can only be skipped or stop the pipeline.
+ */
+public abstract class NLPSparkCompute extends SparkCompute<StructuredRecord, StructuredRecord> {
+  private final NLPConfig config;
+
+  public NLPSparkCompute(NLPConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+    if (!config.containsMacro(NLPConfig.PROPERTY_ERROR_HANDLING) && config.getErrorHandling() == ErrorHandling.SEND) {
+      failureCollector.addFailure("Errors cannot be sent to an error port by a Spark compute stage",
+                                  "Skip records with errors or stop on errors.")
+        .withConfigProperty(NLPConfig.PROPERTY_ERROR_HANDLING);
+    }
+    createTransform().configurePipeline(pipelineConfigurer);
+  }
+
+  @Override
+  public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context, JavaRDD<StructuredRecord> input) {
+    // the function is serialized with this stage, its config and the stage metrics, which CDAP provides for use in
+    // Spark closures, while the transform itself is created on the executors
+    StageMetrics metrics = context.getMetrics();
+    return input.mapPartitions(records -> new PartitionTransformer(createTransform(), records, metrics));
+  }
+
+  /**
+   * @return the transform which processes the records of a partition
+   */
+  protected abstract NLPTransform createTransform();
+}
@@ -16,12 +16,8 @@
 
 package io.cdap.google.plugins;
 
-import com.google.cloud.language.v1.ClassificationCategory;
-import com.google.cloud.language.v1.Entity;
-import com.google.cloud.language.v1.EntityMention;
-import com.google.cloud.language.v1.PartOfSpeech;
-import com.google.cloud.language.v1.Sentence;
-import com.google.cloud.language.v1.Token;
+import com.google.api.core.ApiFuture;
+import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
 import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.format.UnexpectedFormatException;
@@ -30,12 +26,31 @@ import io.cdap.cdap.etl.api.Emitter;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.InvalidEntry;
 import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageMetrics;
 import io.cdap.cdap.etl.api.Transform;
+import io.cdap.cdap.etl.api.TransformContext;
+import io.cdap.google.common.DiskResponseCache;
+import io.cdap.google.common.FlightRecorderEvents;
 import io.cdap.google.common.NLPMethod;
 import io.cdap.google.common.NLPMethodExecutor;
-
+import io.cdap.google.common.PackedResponses;
+import io.cdap.google.common.RequestTrace;
+import io.cdap.google.common.RequestWindow;
+import io.cdap.google.common.ResponseCache;
+import io.cdap.google.common.RetryPolicy;
+import io.cdap.google.common.SlowRequestLog;
+import io.cdap.google.common.StageMetricsListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Analyses an input text via Google Language API. And returns the results of the analysis in form of a record.
@@ -77,7 +92,7 @@ public abstract class NLPTransform extends Transform<StructuredRecord, Structure
                     Schema.Field.of("reciprocity", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
                     Schema.Field.of("tense", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
                     Schema.Field.of("voice", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
-                    Schema.Field.of("headTokenIndex", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                    Schema.Field.of("headTokenIndex", Schema.nullableOf(Schema.of(Schema.Type.INT))),
                     Schema.Field.of("label", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
                     Schema.Field.of("lemma", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
 
@@ -104,11 +119,21 @@ public abstract class NLPTransform extends Transform<StructuredRecord, Structure
                     Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
                     Schema.Field.of("confidence", Schema.of(Schema.Type.DOUBLE)));
 
+  protected static final Schema BYTES_SCHEMA =
+    Schema.recordOf("nlpResponse", Schema.Field.of("response", Schema.of(Schema.Type.BYTES)));
+
+  private static final Logger LOG = LoggerFactory.getLogger(NLPTransform.class);
+  private static final long BYTES_PER_MB = 1024 * 1024;
   private static final String ERROR_SCHEMA_BODY_PROPERTY = "body";
   private static final Schema STRING_ERROR_SCHEMA = Schema.recordOf("stringError",
                                                                     Schema.Field.of(ERROR_SCHEMA_BODY_PROPERTY,
                                                                                     Schema.of(Schema.Type.STRING)));
   private final NLPConfig config;
+  private NLPMethodExecutor nlpMethodExecutor;
+  private StageMetricsListener metrics;
+  private Schema outputSchema;
+  private RecordConverter<MessageOrBuilder> converter;
+  private Boolean bytesOutput;
 
   public NLPTransform(NLPConfig config) {
     this.config = config;
@@ -118,135 +143,293 @@ public abstract class NLPTransform extends Transform<StructuredRecord, Structure
     Schema inputSchema = pipelineConfigurer.getStageConfigurer().getInputSchema();
     FailureCollector failureCollector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
     config.validate(failureCollector, inputSchema);
+    if (!config.containsMacro(NLPConfig.PROPERTY_MAX_PACKED_TEXTS) && config.getMaxPackedTexts() > 1 &&
+      !config.containsMacro(NLPConfig.PROPERTY_ENCODING) && !config.containsMacro(NLPConfig.PROPERTY_LANGUAGE_CODE)) {
+      try {
+        PackedResponses.checkPackable(getMethod(), config.getEncodingType(), config.getLanguageCode());
+      } catch (IllegalArgumentException | IllegalStateException e) {
+        failureCollector.addFailure(e.getMessage(), "Set the maximum number of packed texts to 1.")
+          .withConfigProperty(NLPConfig.PROPERTY_MAX_PACKED_TEXTS);
+      }
+    }
     failureCollector.getOrThrowException();
+
+    if (!config.containsMacro(NLPConfig.PROPERTY_OUTPUT_FORMAT) &&
+      config.getOutputFormat() == OutputFormat.BYTES) {
+      pipelineConfigurer.getStageConfigurer().setOutputSchema(BYTES_SCHEMA);
+      return;
+    }
+
+    Schema defaultSchema = getDefaultSchema();
+    Schema schema = config.getSchema();
+    if (schema != null && defaultSchema != null) {
+      validateProjection(schema, defaultSchema, "", failureCollector);
+      failureCollector.getOrThrowException();
+    }
+    pipelineConfigurer.getStageConfigurer().setOutputSchema(schema == null ? defaultSchema : schema);
   }
 
   @Override
-  public void transform(StructuredRecord structuredRecord, Emitter<StructuredRecord> emitter) {
-    String text = structuredRecord.get(config.getSourceField());
-    try (NLPMethodExecutor nlpMethodExecutor = getMethod().createExecutor(
-      config.getServiceAccountFilePath(), config.getLanguageCode(), config.getEncodingType())) {
+  public void initialize(TransformContext context) throws Exception {
+    super.initialize(context);
+    initializeExecutor(context.getMetrics());
+  }
+
+  /**
+   * Creates the executor of the transform. {@link NLPSparkCompute} calls this directly for every partition, since
+   * there is no transform context on Spark executors, with the metrics of its own context.
+   *
+   * @param stageMetrics metrics the requests are reported to, or null to not report them
+   */
+  void initializeExecutor(@Nullable StageMetrics stageMetrics) {
+    // the executor owns the gRPC channel, so it is created once and shared by all records of this instance
+    nlpMethodExecutor = getMethod().createExecutor(config.getClientSettings(), config.getLanguageCode(),
+                                                   config.getEncodingType());
+    if (config.getCacheSizeMB() > 0) {
+      nlpMethodExecutor.setResponseCache(ResponseCache.shared(config.getCacheSizeMB() * BYTES_PER_MB));
+    }
+    nlpMethodExecutor.setRetryPolicy(new RetryPolicy(config.getMaxRetries(), config.getRetryInitialDelayMs(),
+                                                     config.getRetryMaxDelayMs(),
+                                                     TimeUnit.SECONDS.toMillis(config.getRecordDeadlineSeconds())));
+    if (config.getMaxRequestsPerSecond() > 0) {
+      nlpMethodExecutor.setMaxRequestsPerSecond(config.getMaxRequestsPerSecond());
+    }
+    nlpMethodExecutor.setMaxDocumentBytes(config.getMaxDocumentBytes());
+    nlpMethodExecutor.setMaxPackedTexts(config.getMaxPackedTexts());
+    if (stageMetrics != null) {
+      metrics = new StageMetricsListener(stageMetrics);
+      nlpMethodExecutor.setRequestListener(metrics);
+    }
+    if (config.getSlowRequestThresholdMs() > 0 || config.getSlowRequestSampleRate() > 0) {
+      nlpMethodExecutor.setSlowRequestLog(new SlowRequestLog(config.getSlowRequestThresholdMs(),
+                                                             config.getSlowRequestSampleRate()));
+    }
+    if (config.getDiskCacheDirectory() != null) {
       try {
-        emitter.emit(getRecordFromResponse(nlpMethodExecutor.getResponse(text)));
-      } catch (Exception e) {
-        switch (config.getErrorHandling()) {
-          case SKIP:
-            break;
-          case SEND:
-            StructuredRecord.Builder builder = StructuredRecord.builder(STRING_ERROR_SCHEMA);
-            builder.set(ERROR_SCHEMA_BODY_PROPERTY, text);
-            emitter.emitError(new InvalidEntry<>(400, e.getMessage(), builder.build()));
-            break;
-          case STOP:
-            throw e;
-          default:
-            throw new UnexpectedFormatException(
-              String.format("Unknown error handling strategy '%s'", config.getErrorHandling()));
-        }
+        nlpMethodExecutor.setDiskCache(DiskResponseCache.open(Paths.get(config.getDiskCacheDirectory()),
+                                                              config.getDiskCacheSizeMB() * BYTES_PER_MB));
+      } catch (IOException e) {
+        LOG.warn("Cannot open disk cache in '{}', responses will not be persisted",
+                 config.getDiskCacheDirectory(), e);
       }
     }
+    configureExecutor(nlpMethodExecutor);
+    if (!isBytesOutput()) {
+      getConverter();
+    }
   }
 
-  protected abstract NLPMethod getMethod();
-  protected abstract StructuredRecord getRecordFromResponse(MessageOrBuilder message);
-
-  protected static List<StructuredRecord> getEntities(List<Entity> entities, Schema entitySchema,
-                                                      Schema mentionSchema) {
-    List<StructuredRecord> entityRecords = new ArrayList<>();
-
-    for (Entity entity : entities) {
-      StructuredRecord.Builder entityBuilder = StructuredRecord.builder(entitySchema);
-      entityBuilder.set("name", entity.getName());
-      entityBuilder.set("type", entity.getType().toString());
-      entityBuilder.set("metadata", entity.getMetadataMap());
-      entityBuilder.set("salience", entity.getSalience());
-
-      if (entitySchema.getField("magnitude") != null) {
-        entityBuilder.set("magnitude", entity.getSentiment().getMagnitude());
-        entityBuilder.set("score", entity.getSentiment().getScore());
-      }
+  /**
+   * Applies method specific settings to the executor, once it is created.
+   */
+  protected void configureExecutor(NLPMethodExecutor executor) {
+  }
 
-      List<StructuredRecord> mentions = new ArrayList<>();
-      for (EntityMention entityMention : entity.getMentionsList()) {
-        StructuredRecord.Builder mentionBuilder = StructuredRecord.builder(mentionSchema);
-        mentionBuilder.set("content", entityMention.getText().getContent());
-        mentionBuilder.set("beginOffset", entityMention.getText().getBeginOffset());
-        mentionBuilder.set("type", entityMention.getType().toString());
+  @Override
+  public void transform(StructuredRecord structuredRecord, Emitter<StructuredRecord> emitter) throws Exception {
+    transform(Collections.singleton(structuredRecord).iterator(), emitter);
+  }
 
-        if (mentionSchema.getField("magnitude") != null) {
-          mentionBuilder.set("magnitude", entityMention.getSentiment().getMagnitude());
-          mentionBuilder.set("score", entityMention.getSentiment().getScore());
+  /**
+   * Transforms all the given records, keeping up to {@link NLPConfig#getMaxInFlightRequests()} API calls
+   * outstanding at a time. Records are emitted as their responses complete, so the input order is not preserved.
+   *
+   * {@link Transform} only sees a single record per call and has no hook to emit records after the last one,
+   * so requests can only be pipelined by callers which have access to more than one record at once. The same goes
+   * for packing texts, up to {@link NLPConfig#getMaxPackedTexts()} consecutive records share a request.
+   */
+  public void transform(Iterator<StructuredRecord> records, Emitter<StructuredRecord> emitter) throws Exception {
+    RequestWindow<TracedText> window = new RequestWindow<>(config.getMaxInFlightRequests(),
+                                                           (item, response, failure) -> {
+      RequestTrace trace = item.trace;
+      if (failure != null) {
+        handleError(item, failure, emitter);
+        return;
+      }
+      try {
+        FlightRecorderEvents.Span event = FlightRecorderEvents.beginConversion();
+        long startNanos = System.nanoTime();
+        StructuredRecord record = getRecordFromResponse(response);
+        long conversionNanos = System.nanoTime() - startNanos;
+        event.finish(getMethod(), response, null);
+        nlpMethodExecutor.recordConversion(conversionNanos);
+        emitter.emit(record);
+        if (trace != null) {
+          trace.record(RequestTrace.Phase.CONVERSION, conversionNanos);
+          trace.record(RequestTrace.Phase.EMIT, System.nanoTime() - startNanos - conversionNanos);
+          trace.finish(null);
         }
-
-        mentions.add(mentionBuilder.build());
+      } catch (Exception e) {
+        handleError(item, e, emitter);
+      }
+    });
+
+    int maxPackedTexts = config.getMaxPackedTexts();
+    if (maxPackedTexts > 1) {
+      List<String> texts = new ArrayList<>(maxPackedTexts);
+      List<RequestTrace> traces = new ArrayList<>(maxPackedTexts);
+      while (records.hasNext()) {
+        String text = records.next().get(config.getSourceField());
+        texts.add(text);
+        traces.add(nlpMethodExecutor.startTrace(text));
+        if (texts.size() == maxPackedTexts || !records.hasNext()) {
+          // the requests are sent before their texts enter the window, which then only waits for the responses
+          List<ApiFuture<? extends MessageOrBuilder>> responses = nlpMethodExecutor.getResponsesAsync(texts, traces);
+          for (int i = 0; i < texts.size(); i++) {
+            ApiFuture<? extends MessageOrBuilder> response = responses.get(i);
+            window.submit(new TracedText(texts.get(i), traces.get(i)), () -> response);
+          }
+          texts = new ArrayList<>(maxPackedTexts);
+          traces = new ArrayList<>(maxPackedTexts);
+        }
+      }
+    } else {
+      while (records.hasNext()) {
+        String text = records.next().get(config.getSourceField());
+        RequestTrace trace = nlpMethodExecutor.startTrace(text);
+        window.submit(new TracedText(text, trace), () -> nlpMethodExecutor.getResponseAsync(text, trace));
       }
-      entityBuilder.set("mentions", mentions);
-
-      entityRecords.add(entityBuilder.build());
     }
-
-    return entityRecords;
+    window.flush();
+    if (metrics != null) {
+      metrics.publishLatencies();
+    }
   }
 
-  protected static List<StructuredRecord> getSentences(List<Sentence> sentences, Schema sentenceSchema) {
-    List<StructuredRecord> sentenceRecords = new ArrayList<>();
-    for (Sentence sentence : sentences) {
-      StructuredRecord.Builder sentenceBuilder = StructuredRecord.builder(sentenceSchema);
-      sentenceBuilder.set("content", sentence.getText().getContent());
-      sentenceBuilder.set("beginOffset", sentence.getText().getBeginOffset());
-
-      if (sentenceSchema.getField("magnitude") != null) {
-        sentenceBuilder.set("magnitude", sentence.getSentiment().getMagnitude());
-        sentenceBuilder.set("score", sentence.getSentiment().getScore());
+  private void handleError(TracedText item, Exception e, Emitter<StructuredRecord> emitter) throws Exception {
+    long startNanos = System.nanoTime();
+    try {
+      handleError(item.text, e, emitter);
+    } finally {
+      // the record is skipped, sent to the error port or stops the pipeline, either way this is the end of it
+      if (item.trace != null) {
+        item.trace.record(RequestTrace.Phase.EMIT, System.nanoTime() - startNanos);
+        item.trace.finish(e);
       }
+    }
+  }
 
-      sentenceRecords.add(sentenceBuilder.build());
+  private void handleError(String text, Exception e, Emitter<StructuredRecord> emitter) throws Exception {
+    switch (config.getErrorHandling()) {
+      case SKIP:
+        break;
+      case SEND:
+        StructuredRecord.Builder builder = StructuredRecord.builder(STRING_ERROR_SCHEMA);
+        builder.set(ERROR_SCHEMA_BODY_PROPERTY, text);
+        emitter.emitError(new InvalidEntry<>(400, e.getMessage(), builder.build()));
+        break;
+      case STOP:
+        throw e;
+      default:
+        throw new UnexpectedFormatException(
+          String.format("Unknown error handling strategy '%s'", config.getErrorHandling()));
     }
-    return sentenceRecords;
   }
 
-  protected static List<StructuredRecord> getCategories(List<ClassificationCategory> categories) {
-    List<StructuredRecord> categoryRecords = new ArrayList<>();
+  @Override
+  public void destroy() {
+    if (nlpMethodExecutor != null) {
+      nlpMethodExecutor.close();
+      nlpMethodExecutor = null;
+    }
+    super.destroy();
+  }
 
-    for (ClassificationCategory category : categories) {
-      StructuredRecord.Builder categoryBuilder = StructuredRecord.builder(CATEGORY);
-      categoryBuilder.set("name", category.getName());
-      categoryBuilder.set("confidence", category.getConfidence());
+  protected abstract NLPMethod getMethod();
 
-      categoryRecords.add(categoryBuilder.build());
+  /**
+   * Compiles the converter of the responses of the transform into records of the given schema.
+   */
+  protected abstract RecordConverter<? extends MessageOrBuilder> createConverter(Schema schema);
+
+  /**
+   * @return schema with all the fields the transform can extract from a response, or null if it cannot be known
+   * before macros are evaluated
+   */
+  @Nullable
+  protected abstract Schema getDefaultSchema();
+
+  /**
+   * @return schema of the records emitted by the transform, which is the schema set by the user if any, or the
+   * default schema otherwise
+   */
+  protected Schema getOutputSchema() {
+    if (outputSchema == null) {
+      Schema schema = config.getSchema();
+      outputSchema = schema == null ? getDefaultSchema() : schema;
     }
+    return outputSchema;
+  }
 
-    return categoryRecords;
+  protected StructuredRecord getRecordFromResponse(MessageOrBuilder message) {
+    if (isBytesOutput()) {
+      // the response is passed on as is, leaving its decoding to whoever reads it
+      return StructuredRecord.builder(BYTES_SCHEMA).set("response", ((Message) message).toByteArray()).build();
+    }
+    return getConverter().convert(message);
   }
 
-  protected static List<StructuredRecord> getTokens(List<Token> tokens) {
-    List<StructuredRecord> tokenRecords = new ArrayList<>();
-    for (Token token : tokens) {
-      StructuredRecord.Builder tokenBuilder = StructuredRecord.builder(TOKEN);
-      tokenBuilder.set("content", token.getText().getContent());
-      tokenBuilder.set("beginOffset", token.getText().getBeginOffset());
+  private boolean isBytesOutput() {
+    if (bytesOutput == null) {
+      bytesOutput = config.getOutputFormat() == OutputFormat.BYTES;
+    }
+    return bytesOutput;
+  }
 
-      PartOfSpeech partOfSpeech = token.getPartOfSpeech();
-      tokenBuilder.set("tag", partOfSpeech.getTag().toString());
-      tokenBuilder.set("aspect", partOfSpeech.getAspect().toString());
-      tokenBuilder.set("case", partOfSpeech.getCase().toString());
-      tokenBuilder.set("speechForm", partOfSpeech.getForm().toString());
-      tokenBuilder.set("gender", partOfSpeech.getGender().toString());
-      tokenBuilder.set("mood", partOfSpeech.getMood().toString());
-      tokenBuilder.set("number", partOfSpeech.getNumber().toString());
-      tokenBuilder.set("person", partOfSpeech.getPerson().toString());
-      tokenBuilder.set("proper", partOfSpeech.getProper().toString());
-      tokenBuilder.set("reciprocity", partOfSpeech.getReciprocity().toString());
-      tokenBuilder.set("tense", partOfSpeech.getTense().toString());
-      tokenBuilder.set("voice", partOfSpeech.getVoice().toString());
+  /**
+   * The converter is compiled for the output schema once, on first use.
+   */
+  private RecordConverter<MessageOrBuilder> getConverter() {
+    if (converter == null) {
+      @SuppressWarnings("unchecked")
+      RecordConverter<MessageOrBuilder> compiled =
+        (RecordConverter<MessageOrBuilder>) createConverter(getOutputSchema());
+      converter = compiled;
+    }
+    return converter;
+  }
 
-      tokenBuilder.set("headTokenIndex", token.getDependencyEdge().getHeadTokenIndex());
-      tokenBuilder.set("label", token.getDependencyEdge().getLabelValue());
+  /**
+   * A text in a {@link RequestWindow}, together with the trace of its request if requests are traced.
+   */
+  private static final class TracedText {
+    private final String text;
+    private final RequestTrace trace;
 
-      tokenBuilder.set("lemma", token.getLemma());
+    private TracedText(String text, @Nullable RequestTrace trace) {
+      this.text = text;
+      this.trace = trace;
+    }
+  }
 
-      tokenRecords.add(tokenBuilder.build());
+  /**
+   * Checks that every field of the schema exists in the default schema with the same type, so that the schema can
+   * only remove fields, including fields of nested records.
+   */
+  static void validateProjection(Schema schema, Schema defaultSchema, String path, FailureCollector collector) {
+    for (Schema.Field field : schema.getFields()) {
+      String fieldPath = path + field.getName();
+      Schema.Field defaultField = defaultSchema.getField(field.getName());
+      if (defaultField == null) {
+        collector.addFailure(String.format("Output field '%s' cannot be extracted from the response", fieldPath),
+                             "Remove the field from the output schema.")
+          .withConfigProperty(NLPConfig.PROPERTY_SCHEMA);
+        continue;
+      }
+      Schema fieldSchema = RecordConverter.nonNullable(field.getSchema());
+      Schema defaultFieldSchema = RecordConverter.nonNullable(defaultField.getSchema());
+      if (fieldSchema.getType() == Schema.Type.ARRAY && defaultFieldSchema.getType() == Schema.Type.ARRAY) {
+        fieldSchema = RecordConverter.nonNullable(fieldSchema.getComponentSchema());
+        defaultFieldSchema = RecordConverter.nonNullable(defaultFieldSchema.getComponentSchema());
+      }
+      if (fieldSchema.getType() == Schema.Type.RECORD && defaultFieldSchema.getType() == Schema.Type.RECORD) {
+        validateProjection(fieldSchema, defaultFieldSchema, fieldPath + ".", collector);
+      } else if (!fieldSchema.equals(defaultFieldSchema)) {
+        collector.addFailure(String.format("Output field '%s' must be of type '%s'", fieldPath,
+                                           defaultFieldSchema.getType().name().toLowerCase()),
+                             "Change the field type back to the one of the default schema.")
+          .withConfigProperty(NLPConfig.PROPERTY_SCHEMA);
+      }
     }
-    return tokenRecords;
   }
 }
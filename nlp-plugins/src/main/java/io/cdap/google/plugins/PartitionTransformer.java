@@ -0,0 +1,134 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.InvalidEntry;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.spark.TaskContext;
+import org.apache.spark.util.TaskCompletionListener;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import javax.annotation.Nullable;
+
+/**
+ * Lazily transforms the records of a partition with an {@link NLPTransform}. Records are read in batches, so that
+ * requests overlap within a batch while only the output of a single batch is held in memory. The transform is
+ * initialized on the first record and destroyed once the partition is exhausted, or when the task completes if it
+ * fails or is not read to the end.
+ */
+final class PartitionTransformer implements Iterator<StructuredRecord> {
+  // large enough that the request window only drains at the end of a batch once in a while
+  static final int RECORDS_PER_BATCH = 1000;
+
+  private final NLPTransform transform;
+  private final Iterator<StructuredRecord> records;
+  private final StageMetrics metrics;
+  private final BufferingEmitter emitter = new BufferingEmitter();
+  private boolean initialized;
+  private boolean destroyed;
+
+  /**
+   * @param metrics metrics of the stage the requests are reported to, or null to not report them
+   */
+  PartitionTransformer(NLPTransform transform, Iterator<StructuredRecord> records, @Nullable StageMetrics metrics) {
+    this.transform = transform;
+    this.records = records;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (emitter.output.isEmpty() && records.hasNext()) {
+      initialize();
+      try {
+        transform.transform(Iterators.limit(records, RECORDS_PER_BATCH), emitter);
+      } catch (Exception e) {
+        destroy();
+        Throwables.throwIfUnchecked(e);
+        throw new IllegalStateException("Failed to transform records", e);
+      }
+    }
+    if (emitter.output.isEmpty()) {
+      destroy();
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public StructuredRecord next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return emitter.output.poll();
+  }
+
+  private void initialize() {
+    if (initialized) {
+      return;
+    }
+    initialized = true;
+    transform.initializeExecutor(metrics);
+    TaskContext task = TaskContext.get();
+    if (task != null) {
+      task.addTaskCompletionListener(new TaskCompletionListener() {
+        @Override
+        public void onTaskCompletion(TaskContext context) {
+          destroy();
+        }
+      });
+    }
+  }
+
+  private synchronized void destroy() {
+    if (initialized && !destroyed) {
+      destroyed = true;
+      transform.destroy();
+    }
+  }
+
+  /**
+   * Holds the records emitted for a batch until they are read.
+   */
+  private static final class BufferingEmitter implements Emitter<StructuredRecord> {
+    private final Queue<StructuredRecord> output = new ArrayDeque<>();
+
+    @Override
+    public void emit(StructuredRecord value) {
+      output.add(value);
+    }
+
+    @Override
+    public void emitAlert(Map<String, String> payload) {
+      throw new UnsupportedOperationException("Alerts are not supported by Spark compute stages");
+    }
+
+    @Override
+    public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+      // rejected when the pipeline is configured, errors can only be skipped or stop the pipeline
+      throw new UnsupportedOperationException("Errors cannot be sent to an error port by Spark compute stages");
+    }
+  }
+}
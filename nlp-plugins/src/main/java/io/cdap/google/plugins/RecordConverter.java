@@ -0,0 +1,126 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Converts messages of a Language API response into records of a given schema. A converter is compiled once for a
+ * schema: fields which are not in the schema are left out of it up front, so converting a message runs through the
+ * fields of the schema only, with no per-message schema lookups and nothing extracted that would not be set.
+ *
+ * Converters are immutable and can be shared by threads.
+ *
+ * @param <T> type of the message
+ */
+final class RecordConverter<T> {
+  private final Schema schema;
+  private final String[] names;
+  private final Function<T, ?>[] getters;
+
+  private RecordConverter(Schema schema, List<String> names, List<Function<T, ?>> getters) {
+    this.schema = schema;
+    this.names = names.toArray(new String[0]);
+    @SuppressWarnings("unchecked")
+    Function<T, ?>[] array = getters.toArray(new Function[0]);
+    this.getters = array;
+  }
+
+  StructuredRecord convert(T message) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    for (int i = 0; i < names.length; i++) {
+      builder.set(names[i], getters[i].apply(message));
+    }
+    return builder.build();
+  }
+
+  List<StructuredRecord> convertAll(List<T> messages) {
+    List<StructuredRecord> records = new ArrayList<>(messages.size());
+    for (T message : messages) {
+      records.add(convert(message));
+    }
+    return records;
+  }
+
+  static <T> Builder<T> builder(Schema schema) {
+    return new Builder<>(schema);
+  }
+
+  /**
+   * Builds a converter out of the getters of all fields a message can have, keeping those which are in the schema.
+   *
+   * @param <T> type of the message
+   */
+  static final class Builder<T> {
+    private final Schema schema;
+    private final List<String> names = new ArrayList<>();
+    private final List<Function<T, ?>> getters = new ArrayList<>();
+
+    private Builder(Schema schema) {
+      this.schema = schema;
+    }
+
+    /**
+     * Adds a field, if it is in the schema.
+     */
+    Builder<T> field(String name, Function<T, ?> getter) {
+      if (schema.getField(name) != null) {
+        names.add(name);
+        getters.add(getter);
+      }
+      return this;
+    }
+
+    /**
+     * Adds an array field of nested records, if it is in the schema. The converter of the nested records is
+     * compiled for the schema of the array elements.
+     */
+    <M> Builder<T> records(String name, Function<T, List<M>> getter,
+                           Function<Schema, RecordConverter<M>> compiler) {
+      Schema elementSchema = getElementSchema(schema, name);
+      if (elementSchema != null) {
+        RecordConverter<M> converter = compiler.apply(elementSchema);
+        names.add(name);
+        getters.add(message -> converter.convertAll(getter.apply(message)));
+      }
+      return this;
+    }
+
+    RecordConverter<T> build() {
+      return new RecordConverter<>(schema, names, getters);
+    }
+  }
+
+  /**
+   * @return schema of the records of the given array field, or null if the field is not in the schema
+   */
+  @Nullable
+  static Schema getElementSchema(Schema schema, String fieldName) {
+    Schema.Field field = schema.getField(fieldName);
+    return field == null ? null : nonNullable(nonNullable(field.getSchema()).getComponentSchema());
+  }
+
+  static Schema nonNullable(Schema schema) {
+    return schema.isNullable() ? schema.getNonNullable() : schema;
+  }
+}
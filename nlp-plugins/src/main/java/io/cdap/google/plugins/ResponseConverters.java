@@ -0,0 +1,112 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.Sentence;
+import com.google.cloud.language.v1.Token;
+import io.cdap.cdap.api.data.schema.Schema;
+
+/**
+ * Compiles converters for the messages nested in Language API responses. They are shared by all transforms,
+ * which compose them into the converter of their response.
+ */
+final class ResponseConverters {
+  // enum fields are converted through name tables, since tokens of a long document have thousands of them
+  private static final EnumNames ENTITY_TYPES = EnumNames.of(Entity.Type.class);
+  private static final EnumNames MENTION_TYPES = EnumNames.of(EntityMention.Type.class);
+  private static final EnumNames TAGS = EnumNames.of(PartOfSpeech.Tag.class);
+  private static final EnumNames ASPECTS = EnumNames.of(PartOfSpeech.Aspect.class);
+  private static final EnumNames CASES = EnumNames.of(PartOfSpeech.Case.class);
+  private static final EnumNames FORMS = EnumNames.of(PartOfSpeech.Form.class);
+  private static final EnumNames GENDERS = EnumNames.of(PartOfSpeech.Gender.class);
+  private static final EnumNames MOODS = EnumNames.of(PartOfSpeech.Mood.class);
+  private static final EnumNames NUMBERS = EnumNames.of(PartOfSpeech.Number.class);
+  private static final EnumNames PERSONS = EnumNames.of(PartOfSpeech.Person.class);
+  private static final EnumNames PROPERS = EnumNames.of(PartOfSpeech.Proper.class);
+  private static final EnumNames RECIPROCITIES = EnumNames.of(PartOfSpeech.Reciprocity.class);
+  private static final EnumNames TENSES = EnumNames.of(PartOfSpeech.Tense.class);
+  private static final EnumNames VOICES = EnumNames.of(PartOfSpeech.Voice.class);
+  private static final EnumNames LABELS = EnumNames.of(DependencyEdge.Label.class);
+
+  private ResponseConverters() {
+  }
+
+  static RecordConverter<Entity> entities(Schema schema) {
+    return RecordConverter.<Entity>builder(schema)
+      .field("name", Entity::getName)
+      .field("type", entity -> ENTITY_TYPES.get(entity.getTypeValue()))
+      .field("metadata", Entity::getMetadataMap)
+      .field("salience", Entity::getSalience)
+      .field("magnitude", entity -> entity.getSentiment().getMagnitude())
+      .field("score", entity -> entity.getSentiment().getScore())
+      .records("mentions", Entity::getMentionsList, ResponseConverters::mentions)
+      .build();
+  }
+
+  static RecordConverter<EntityMention> mentions(Schema schema) {
+    return RecordConverter.<EntityMention>builder(schema)
+      .field("content", mention -> mention.getText().getContent())
+      .field("beginOffset", mention -> mention.getText().getBeginOffset())
+      .field("type", mention -> MENTION_TYPES.get(mention.getTypeValue()))
+      .field("magnitude", mention -> mention.getSentiment().getMagnitude())
+      .field("score", mention -> mention.getSentiment().getScore())
+      .build();
+  }
+
+  static RecordConverter<Sentence> sentences(Schema schema) {
+    return RecordConverter.<Sentence>builder(schema)
+      .field("content", sentence -> sentence.getText().getContent())
+      .field("beginOffset", sentence -> sentence.getText().getBeginOffset())
+      .field("score", sentence -> sentence.getSentiment().getScore())
+      .field("magnitude", sentence -> sentence.getSentiment().getMagnitude())
+      .build();
+  }
+
+  static RecordConverter<ClassificationCategory> categories(Schema schema) {
+    return RecordConverter.<ClassificationCategory>builder(schema)
+      .field("name", ClassificationCategory::getName)
+      .field("confidence", ClassificationCategory::getConfidence)
+      .build();
+  }
+
+  static RecordConverter<Token> tokens(Schema schema) {
+    return RecordConverter.<Token>builder(schema)
+      .field("content", token -> token.getText().getContent())
+      .field("beginOffset", token -> token.getText().getBeginOffset())
+      .field("tag", token -> TAGS.get(token.getPartOfSpeech().getTagValue()))
+      .field("aspect", token -> ASPECTS.get(token.getPartOfSpeech().getAspectValue()))
+      .field("case", token -> CASES.get(token.getPartOfSpeech().getCaseValue()))
+      .field("speechForm", token -> FORMS.get(token.getPartOfSpeech().getFormValue()))
+      .field("gender", token -> GENDERS.get(token.getPartOfSpeech().getGenderValue()))
+      .field("mood", token -> MOODS.get(token.getPartOfSpeech().getMoodValue()))
+      .field("number", token -> NUMBERS.get(token.getPartOfSpeech().getNumberValue()))
+      .field("person", token -> PERSONS.get(token.getPartOfSpeech().getPersonValue()))
+      .field("proper", token -> PROPERS.get(token.getPartOfSpeech().getProperValue()))
+      .field("reciprocity", token -> RECIPROCITIES.get(token.getPartOfSpeech().getReciprocityValue()))
+      .field("tense", token -> TENSES.get(token.getPartOfSpeech().getTenseValue()))
+      .field("voice", token -> VOICES.get(token.getPartOfSpeech().getVoiceValue()))
+      .field("headTokenIndex", token -> token.getDependencyEdge().getHeadTokenIndex())
+      .field("label", token -> LABELS.get(token.getDependencyEdge().getLabelValue()))
+      .field("lemma", Token::getLemma)
+      .build();
+  }
+}
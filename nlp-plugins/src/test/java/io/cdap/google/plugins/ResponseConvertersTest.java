@@ -0,0 +1,62 @@
+/*
+ *  Copyright © 2019 Cask Data, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ *  use this file except in compliance with the License. You may obtain a copy of
+ *  the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *  WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *  License for the specific language governing permissions and limitations under
+ *  the License.
+ */
+
+package io.cdap.google.plugins;
+
+import com.google.cloud.language.v1.DependencyEdge;
+import com.google.cloud.language.v1.PartOfSpeech;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.cloud.language.v1.Token;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResponseConverters}, which do not call the API.
+ */
+public class ResponseConvertersTest {
+
+  @Test
+  public void testTokenFields() {
+    Token token = Token.newBuilder()
+      .setText(TextSpan.newBuilder().setContent("Google").setBeginOffset(3))
+      .setPartOfSpeech(PartOfSpeech.newBuilder().setTag(PartOfSpeech.Tag.NOUN).setNumber(PartOfSpeech.Number.SINGULAR))
+      .setDependencyEdge(DependencyEdge.newBuilder().setHeadTokenIndex(7).setLabel(DependencyEdge.Label.NSUBJ))
+      .setLemma("Google")
+      .build();
+
+    StructuredRecord record = ResponseConverters.tokens(NLPTransform.TOKEN).convert(token);
+
+    Assert.assertEquals("Google", record.get("content"));
+    Assert.assertEquals("NOUN", record.get("tag"));
+    Assert.assertEquals("SINGULAR", record.get("number"));
+    Assert.assertEquals("ASPECT_UNKNOWN", record.get("aspect"));
+    Assert.assertEquals(Integer.valueOf(7), record.get("headTokenIndex"));
+    Assert.assertEquals("NSUBJ", record.get("label"));
+  }
+
+  @Test
+  public void testEnumNames() {
+    EnumNames labels = EnumNames.of(DependencyEdge.Label.class);
+    for (DependencyEdge.Label label : DependencyEdge.Label.values()) {
+      if (label != DependencyEdge.Label.UNRECOGNIZED) {
+        Assert.assertEquals(label.toString(), labels.get(label.getNumber()));
+      }
+    }
+    Assert.assertEquals("UNRECOGNIZED", labels.get(-1));
+    Assert.assertEquals("UNRECOGNIZED", labels.get(Integer.MAX_VALUE));
+  }
+}